@@ -0,0 +1,183 @@
+package org.wocommunity.maven.plugins.woinstall;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import org.apache.maven.execution.MavenSession;
+import org.apache.maven.model.Dependency;
+import org.apache.maven.model.DependencyManagement;
+import org.apache.maven.model.Model;
+import org.apache.maven.model.io.xpp3.MavenXpp3Writer;
+import org.apache.maven.plugin.AbstractMojo;
+import org.apache.maven.plugin.MojoFailureException;
+import org.apache.maven.plugins.annotations.Component;
+import org.apache.maven.plugins.annotations.Parameter;
+import org.eclipse.aether.DefaultRepositoryCache;
+import org.eclipse.aether.DefaultRepositorySystemSession;
+import org.eclipse.aether.RepositorySystem;
+import org.eclipse.aether.RepositorySystemSession;
+import org.eclipse.aether.repository.LocalRepository;
+import org.eclipse.aether.repository.LocalRepositoryManager;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The repository session and the generated poms shared by the goals that
+ * publish WebObjects artifacts.
+ */
+public abstract class AbstractWebObjectsMojo extends AbstractMojo {
+	private static final Logger LOG = LoggerFactory.getLogger(AbstractWebObjectsMojo.class);
+
+	protected static final String WEBOBJECTS_GROUP_ID = "com.webobjects";
+
+	protected static final String WEBOBJECTS_BOM_ARTIFACT_ID = "webobjects-bom";
+
+	@Component
+	protected RepositorySystem repositorySystem;
+
+	@Parameter(defaultValue = "${session}", required = true, readonly = true)
+	private MavenSession session;
+
+	/**
+	 * The path for a specific local repository directory. If not specified the
+	 * local repository path configured in the Maven settings will be used.
+	 */
+	@Parameter(property = "localRepositoryPath")
+	private File localRepositoryPath;
+
+	/**
+	 * @return the manifest of a version installed by the woinstall goal
+	 * @throws MojoFailureException if the version is not installed, was
+	 *                              installed without artifacts or its files have
+	 *                              changed since
+	 */
+	protected InstallManifest readInstallManifest(final WebObjectsInstaller installer, final File localRepo)
+			throws MojoFailureException {
+		final InstallManifest manifest;
+		try {
+			manifest = InstallManifest.read(installer.getManifestFile(localRepo));
+		} catch (final IOException e) {
+			throw new MojoFailureException("WebObjects version " + installer.getVersion()
+					+ " is not installed in repository: " + localRepo + ". Run the woinstall goal first.", e);
+		}
+		if (!manifest.isCurrent(localRepo)) {
+			throw new MojoFailureException("The installation of WebObjects version " + installer.getVersion()
+					+ " in repository: " + localRepo + " has changed. Run the woinstall goal again.");
+		}
+		if (manifest.getArtifacts().isEmpty()) {
+			throw new MojoFailureException("WebObjects version " + installer.getVersion()
+					+ " is installed in repository: " + localRepo
+					+ " without artifacts. Run the woinstall goal without nextRootOnly first.");
+		}
+		return manifest;
+	}
+
+	protected RepositorySystemSession getRepositorySystemSession() {
+		RepositorySystemSession repositorySystemSession = session.getRepositorySession();
+		if (localRepositoryPath != null) {
+			// "clone" repository session and replace localRepository
+			final DefaultRepositorySystemSession newSession = new DefaultRepositorySystemSession(
+					session.getRepositorySession());
+			// Clear cache, since we're using a new local repository
+			newSession.setCache(new DefaultRepositoryCache());
+			// keep same repositoryType
+			String contentType = newSession.getLocalRepository().getContentType();
+			if ("enhanced".equals(contentType)) {
+				contentType = "default";
+			}
+			final LocalRepositoryManager localRepositoryManager = repositorySystem.newLocalRepositoryManager(
+					newSession, new LocalRepository(localRepositoryPath, contentType));
+			newSession.setLocalRepositoryManager(localRepositoryManager);
+			repositorySystemSession = newSession;
+			LOG.debug("localRepoPath: {}", localRepositoryManager.getRepository().getBasedir());
+		}
+		return repositorySystemSession;
+	}
+
+	/**
+	 * Writes the bom, managing every given artifact of the version, into the
+	 * directory.
+	 *
+	 * @return the pom file
+	 */
+	protected File generatePomForBom(
+			final String version,
+			final List<String> artifactIds,
+			final File directory)
+			throws IOException {
+		final Model model = generateModelForBom(version, artifactIds);
+		final File pomFile = new File(directory, WEBOBJECTS_BOM_ARTIFACT_ID + "-" + version + ".pom");
+		writeModel(model, pomFile);
+		return pomFile;
+	}
+
+	protected static Model generateModelForBom(
+			final String version,
+			final List<String> artifactIds) {
+		final Model model = new Model();
+		model.setModelVersion("4.0.0");
+		model.setGroupId(WEBOBJECTS_GROUP_ID);
+		model.setArtifactId(WEBOBJECTS_BOM_ARTIFACT_ID);
+		model.setDescription("WebObjects Bill of Materials");
+		model.setVersion(version);
+		Collections.sort(artifactIds);
+		final DependencyManagement mgt = new DependencyManagement();
+		for (final String artifactId : artifactIds) {
+			final Dependency dep = new Dependency();
+			dep.setGroupId(WEBOBJECTS_GROUP_ID);
+			dep.setArtifactId(artifactId);
+			dep.setVersion(version);
+			mgt.addDependency(dep);
+		}
+		model.setDependencyManagement(mgt);
+		return model;
+	}
+
+	protected File generatePomForArtifact(
+			final String artifactId,
+			final String version,
+			final List<String> dependencies,
+			final File directory) throws IOException {
+		final Model model = generateModelForArtifact(artifactId, version, dependencies);
+		final File pomFile = new File(directory, artifactId + "-" + version + ".pom");
+		writeModel(model, pomFile);
+		return pomFile;
+	}
+
+	protected static void writeModel(final Model model, final File pomFile) throws IOException {
+		final File parent = pomFile.getParentFile();
+		if (parent != null && !parent.isDirectory() && !parent.mkdirs()) {
+			throw new IOException("Failed to create directory '" + parent + "'.");
+		}
+		try (OutputStream writer = Files.newOutputStream(pomFile.toPath())) {
+			new MavenXpp3Writer().write(writer, model);
+		}
+	}
+
+	protected static Model generateModelForArtifact(
+			final String artifactId,
+			final String version,
+			final List<String> dependencies) {
+		final Model model = new Model();
+		model.setModelVersion("4.0.0");
+		model.setGroupId(WEBOBJECTS_GROUP_ID);
+		model.setArtifactId(artifactId);
+		model.setVersion(version);
+		if (!dependencies.isEmpty()) {
+			final List<Dependency> deps = dependencies.stream().map(name -> {
+				final Dependency dep = new Dependency();
+				dep.setGroupId(WEBOBJECTS_GROUP_ID);
+				dep.setArtifactId(name);
+				dep.setVersion(version);
+				return dep;
+			}).collect(Collectors.toList());
+			model.setDependencies(deps);
+		}
+		return model;
+	}
+}
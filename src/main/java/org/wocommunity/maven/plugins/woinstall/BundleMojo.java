@@ -0,0 +1,71 @@
+package org.wocommunity.maven.plugins.woinstall;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugin.MojoFailureException;
+import org.apache.maven.plugins.annotations.Mojo;
+import org.apache.maven.plugins.annotations.Parameter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Packs an installed WebObjects version into an {@link InstallBundle}, which
+ * the woinstall goal installs with its bundleFile parameter instead of
+ * downloading and extracting the installer.
+ */
+@Mojo(name = "bundle", requiresProject = false, aggregator = true)
+public class BundleMojo extends AbstractWebObjectsMojo {
+	private static final Logger LOG = LoggerFactory.getLogger(BundleMojo.class);
+
+	/**
+	 * The version of WebObjects to bundle. It must have been installed into the
+	 * local repository by the woinstall goal.
+	 */
+	@Parameter(defaultValue = "5.4.3", property = "installVersion", required = true)
+	private String installVersion;
+
+	/**
+	 * The bundle file to write.
+	 */
+	@Parameter(property = "bundleFile", required = true)
+	private File bundleFile;
+
+	/**
+	 * Include the next_root in the bundle, trimmed to its Library directory with
+	 * the frameworks and jars. The developer tools, documentation and examples
+	 * are left out.
+	 */
+	@Parameter(defaultValue = "false", property = "includeNextRoot")
+	private boolean includeNextRoot;
+
+	@Override
+	public void execute() throws MojoExecutionException, MojoFailureException {
+		final WebObjectsInstaller installer;
+		try {
+			installer = WebObjectsInstaller.forVersion(installVersion);
+		} catch (final UnknownVersionException e) {
+			throw new MojoFailureException("Invalid WebObjects version.", e);
+		}
+
+		final File localRepo = getRepositorySystemSession()
+				.getLocalRepositoryManager()
+				.getRepository()
+				.getBasedir();
+		final InstallManifest manifest = readInstallManifest(installer, localRepo);
+		final File nextRoot = installer.getNextRoot(localRepo);
+		if (includeNextRoot && (manifest.getNextRoot() == null || !nextRoot.isDirectory())) {
+			throw new MojoFailureException("WebObjects version " + installer.getVersion()
+					+ " has no next_root in repository: " + localRepo + ".");
+		}
+
+		LOG.info("Bundling WebObjects version {} from repository: {}", installer.getVersion(), localRepo);
+		try {
+			InstallBundle.write(bundleFile, localRepo, manifest, includeNextRoot ? nextRoot : null);
+		} catch (final IOException e) {
+			throw new MojoExecutionException("Writing the install bundle failed.", e);
+		}
+		LOG.info("WebObjects install bundle located at {} ({} bytes)", bundleFile.getPath(), bundleFile.length());
+	}
+}
@@ -0,0 +1,172 @@
+package org.wocommunity.maven.plugins.woinstall;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+import java.util.stream.Collectors;
+
+/**
+ * Builds application class data sharing (AppCDS) archives for jars with the
+ * JDK running the build. An archive holds the parsed and verified classes of
+ * the jars, so a JVM that maps it at startup skips loading them from the jars.
+ * <p>
+ * A JVM only uses an archive that was dumped by the same JDK build, and only
+ * when its class path starts with the jars the archive was dumped with, at the
+ * same paths and unmodified. Otherwise it falls back to loading the classes
+ * from the jars, unless -Xshare:on was given.
+ */
+public class ClassDataSharing {
+	private static final String CLASS_SUFFIX = ".class";
+
+	/**
+	 * @return true if the running JDK can dump application classes, which needs
+	 *         Java 11 or later
+	 */
+	public static boolean isSupported() {
+		return featureVersion() >= 11;
+	}
+
+	/**
+	 * @return the classifier of archives dumped by the running JDK, such as
+	 *         cds-jdk17.0.9_9. It names the JVM build, since an update of the JDK
+	 *         no longer maps an archive dumped by the previous one.
+	 */
+	public static String archiveClassifier() {
+		return archiveClassifier(System.getProperty("java.vm.version"));
+	}
+
+	/**
+	 * @param vmVersion the java.vm.version of the JVM dumping the archive
+	 * @return the classifier of its archives, with characters other than letters,
+	 *         digits, dots, dashes and underscores replaced by underscores
+	 */
+	static String archiveClassifier(final String vmVersion) {
+		return "cds-jdk" + vmVersion.replaceAll("[^A-Za-z0-9._-]", "_");
+	}
+
+	private static int featureVersion() {
+		final String version = System.getProperty("java.specification.version");
+		try {
+			return version.startsWith("1.") ? Integer.parseInt(version.substring(2)) : Integer.parseInt(version);
+		} catch (final NumberFormatException e) {
+			return 0;
+		}
+	}
+
+	/**
+	 * A JVM only maps an archive while every jar it was dumped with still has
+	 * the size and modification time it had then.
+	 *
+	 * @param jars the class path of the archive
+	 * @return the SHA-256 of the path, size and modification time of every jar,
+	 *         as hex
+	 */
+	public static String classPathStamp(final List<File> jars) {
+		final MessageDigest digest;
+		try {
+			digest = MessageDigest.getInstance("SHA-256");
+		} catch (final NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+		for (final File jar : jars) {
+			digest.update((jar.getAbsolutePath() + "|" + jar.length() + "|" + jar.lastModified() + "\n")
+					.getBytes(StandardCharsets.UTF_8));
+		}
+		return InstallManifest.toHex(digest.digest());
+	}
+
+	/**
+	 * Writes the list of classes to archive: every class in the jars, in the
+	 * format of -XX:DumpLoadedClassList. A class found in more than one jar is
+	 * listed once, the JVM loads it from the first.
+	 *
+	 * @param jars      the jars in class path order
+	 * @param classList the file to write
+	 * @return the number of classes listed
+	 * @throws IOException if a jar cannot be read or the list cannot be written
+	 */
+	public static int writeClassList(final List<File> jars, final File classList) throws IOException {
+		final Set<String> classNames = new LinkedHashSet<>();
+		for (final File jar : jars) {
+			try (JarFile jarFile = new JarFile(jar)) {
+				final Enumeration<JarEntry> entries = jarFile.entries();
+				while (entries.hasMoreElements()) {
+					final String name = entries.nextElement().getName();
+					if (!name.endsWith(CLASS_SUFFIX) || name.startsWith("META-INF/")
+							|| name.endsWith("module-info.class") || name.endsWith("package-info.class")) {
+						continue;
+					}
+					classNames.add(name.substring(0, name.length() - CLASS_SUFFIX.length()));
+				}
+			}
+		}
+		try (Writer writer = Files.newBufferedWriter(classList.toPath(), StandardCharsets.UTF_8)) {
+			for (final String className : classNames) {
+				writer.write(className);
+				writer.write('\n');
+			}
+		}
+		return classNames.size();
+	}
+
+	/**
+	 * Dumps an archive of the listed classes with the running JDK. Classes that
+	 * fail to load or verify, for example because they need a jar outside the
+	 * class path, are left out of the archive by the JVM.
+	 *
+	 * @param jars      the class path of the applications that will use the
+	 *                  archive, or its start
+	 * @param classList the classes to archive
+	 * @param archive   the archive file to write
+	 * @throws IOException if the JVM cannot be started or fails to dump
+	 */
+	public static void dumpArchive(final List<File> jars, final File classList, final File archive)
+			throws IOException {
+		final List<String> command = new ArrayList<>();
+		command.add(javaExecutable().getPath());
+		command.add("-Xshare:dump");
+		command.add("-XX:SharedClassListFile=" + classList.getAbsolutePath());
+		command.add("-XX:SharedArchiveFile=" + archive.getAbsolutePath());
+		command.add("-cp");
+		command.add(jars.stream().map(File::getAbsolutePath).collect(Collectors.joining(File.pathSeparator)));
+		final Process process = new ProcessBuilder(command).redirectErrorStream(true).start();
+		final ByteArrayOutputStream output = new ByteArrayOutputStream();
+		try (InputStream in = process.getInputStream()) {
+			final byte[] buffer = new byte[8192];
+			int count;
+			while ((count = in.read(buffer)) != -1) {
+				output.write(buffer, 0, count);
+			}
+		}
+		final int exitValue;
+		try {
+			exitValue = process.waitFor();
+		} catch (final InterruptedException e) {
+			process.destroy();
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while dumping the CDS archive.", e);
+		}
+		if (exitValue != 0 || !archive.isFile()) {
+			throw new IOException("Dumping the CDS archive failed with exit value " + exitValue + ":\n"
+					+ new String(output.toByteArray(), StandardCharsets.UTF_8));
+		}
+	}
+
+	private static File javaExecutable() {
+		final boolean windows = System.getProperty("os.name").startsWith("Windows");
+		return new File(new File(System.getProperty("java.home"), "bin"), windows ? "java.exe" : "java");
+	}
+}
@@ -0,0 +1,192 @@
+package org.wocommunity.maven.plugins.woinstall;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugin.MojoFailureException;
+import org.apache.maven.plugins.annotations.LifecyclePhase;
+import org.apache.maven.plugins.annotations.Mojo;
+import org.apache.maven.plugins.annotations.Parameter;
+import org.eclipse.aether.RepositorySystemSession;
+import org.eclipse.aether.artifact.Artifact;
+import org.eclipse.aether.artifact.DefaultArtifact;
+import org.eclipse.aether.deployment.DeployRequest;
+import org.eclipse.aether.repository.LocalRepositoryManager;
+import org.eclipse.aether.repository.RemoteRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.wocommunity.maven.plugins.woinstall.io.FileUtilities;
+
+/**
+ * Publishes an installed WebObjects version to a remote repository: every jar
+ * recorded in the install manifest with a generated pom, and the bom. The
+ * checksums are uploaded alongside by the resolver. The jars of an artifact,
+ * including classified ones such as the deflated originals, are deployed with
+ * its pom in a request of their own, so several artifacts are uploaded at once
+ * and their metadata never shares a file with another request.
+ */
+@Mojo(name = "deploy", requiresProject = false, defaultPhase = LifecyclePhase.DEPLOY, aggregator = true)
+public class DeployMojo extends AbstractWebObjectsMojo {
+	private static final Logger LOG = LoggerFactory.getLogger(DeployMojo.class);
+
+	/**
+	 * The version of WebObjects to deploy. It must have been installed into the
+	 * local repository by the woinstall goal.
+	 */
+	@Parameter(defaultValue = "5.4.3", property = "installVersion", required = true)
+	private String installVersion;
+
+	/**
+	 * The id of the remote repository, used to look up its credentials in the
+	 * Maven settings.
+	 */
+	@Parameter(property = "repositoryId", required = true)
+	private String repositoryId;
+
+	/**
+	 * The url of the remote repository, for example
+	 * https://repo.example.com/releases or file:///srv/repository.
+	 */
+	@Parameter(property = "repositoryUrl", required = true)
+	private String repositoryUrl;
+
+	/**
+	 * The number of artifacts uploaded at the same time.
+	 */
+	@Parameter(defaultValue = "4", property = "deployThreads")
+	private int deployThreads;
+
+	@Override
+	public void execute() throws MojoExecutionException, MojoFailureException {
+		final WebObjectsInstaller installer;
+		try {
+			installer = WebObjectsInstaller.forVersion(installVersion);
+		} catch (final UnknownVersionException e) {
+			throw new MojoFailureException("Invalid WebObjects version.", e);
+		}
+		if (deployThreads < 1) {
+			throw new MojoFailureException("deployThreads must be at least 1.");
+		}
+
+		final RepositorySystemSession repositorySystemSession = getRepositorySystemSession();
+		final LocalRepositoryManager lrm = repositorySystemSession.getLocalRepositoryManager();
+		final File localRepo = lrm.getRepository().getBasedir();
+		final InstallManifest manifest = readInstallManifest(installer, localRepo);
+
+		final RemoteRepository repository = repositorySystem.newDeploymentRepository(repositorySystemSession,
+				new RemoteRepository.Builder(repositoryId, "default", repositoryUrl).build());
+		LOG.info("Deploying WebObjects version {} to {}", installer.getVersion(), repository.getUrl());
+
+		final Path pomDir;
+		try {
+			pomDir = Files.createTempDirectory("woinstall-poms");
+		} catch (final IOException e) {
+			throw new MojoExecutionException("Creating the pom directory failed.", e);
+		}
+		try {
+			final List<DeployRequest> requests = createDeployRequests(installer, manifest, localRepo,
+					pomDir.toFile(), repository);
+			deploy(repositorySystemSession, requests);
+		} catch (final IOException e) {
+			throw new MojoExecutionException("Generating poms failed.", e);
+		} finally {
+			try {
+				FileUtilities.deleteRecursively(pomDir);
+			} catch (final IOException e) {
+				LOG.debug("Could not delete {}", pomDir, e);
+			}
+		}
+		LOG.info("WebObjects version {} deployed to {}", installer.getVersion(), repository.getUrl());
+	}
+
+	/**
+	 * @return a request for the jars of every artifact of the manifest with its
+	 *         pom, and one for the bom
+	 */
+	private List<DeployRequest> createDeployRequests(
+			final WebObjectsInstaller installer,
+			final InstallManifest manifest,
+			final File localRepo,
+			final File pomDir,
+			final RemoteRepository repository) throws IOException {
+		final String version = installer.getVersion();
+		final Map<String, List<String>> dependencyMap = installer.dependencyMap();
+		final Map<String, List<Artifact>> jarsByArtifactId = new TreeMap<>();
+		for (final Map.Entry<String, InstallManifest.Entry> entry : manifest.getArtifacts().entrySet()) {
+			final Artifact artifact = new DefaultArtifact(entry.getKey());
+			if (!"jar".equals(artifact.getExtension())) {
+				continue;
+			}
+			jarsByArtifactId.computeIfAbsent(artifact.getArtifactId(), artifactId -> new ArrayList<>())
+					.add(artifact.setFile(new File(localRepo, entry.getValue().getPath())));
+		}
+		final List<DeployRequest> requests = new ArrayList<>();
+		final List<String> bomArtifactIds = new ArrayList<>(jarsByArtifactId.keySet());
+		for (final Map.Entry<String, List<Artifact>> jars : jarsByArtifactId.entrySet()) {
+			final String artifactId = jars.getKey();
+			final List<String> dependencies = dependencyMap.getOrDefault(artifactId, Collections.emptyList());
+			final File pom = generatePomForArtifact(artifactId, version, dependencies, pomDir);
+			final DeployRequest request = new DeployRequest().setRepository(repository);
+			jars.getValue().forEach(request::addArtifact);
+			request.addArtifact(new DefaultArtifact(WEBOBJECTS_GROUP_ID, artifactId, "pom", version).setFile(pom));
+			requests.add(request);
+		}
+		final Artifact bomArtifact = new DefaultArtifact(WEBOBJECTS_GROUP_ID, WEBOBJECTS_BOM_ARTIFACT_ID, "pom",
+				version);
+		requests.add(new DeployRequest()
+				.setRepository(repository)
+				.addArtifact(bomArtifact.setFile(generatePomForBom(version, bomArtifactIds, pomDir))));
+		return requests;
+	}
+
+	private void deploy(final RepositorySystemSession rss, final List<DeployRequest> requests)
+			throws MojoExecutionException {
+		final ExecutorService executor = Executors.newFixedThreadPool(Math.min(deployThreads, requests.size()),
+				runnable -> {
+					final Thread thread = new Thread(runnable, "woinstall-deploy");
+					thread.setDaemon(true);
+					return thread;
+				});
+		try {
+			final List<Future<?>> results = new ArrayList<>(requests.size());
+			for (final DeployRequest request : requests) {
+				results.add(executor.submit(() -> {
+					repositorySystem.deploy(rss, request);
+					LOG.debug("Deployed {}", request.getArtifacts());
+					return null;
+				}));
+			}
+			// wait for every upload before reporting the first failure
+			Throwable failure = null;
+			for (final Future<?> result : results) {
+				try {
+					result.get();
+				} catch (final ExecutionException e) {
+					if (failure == null) {
+						failure = e.getCause();
+					}
+				}
+			}
+			if (failure != null) {
+				throw new MojoExecutionException("Deploying WebObjects artifacts failed.", failure);
+			}
+		} catch (final InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new MojoExecutionException("Interrupted while deploying WebObjects.", e);
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+}
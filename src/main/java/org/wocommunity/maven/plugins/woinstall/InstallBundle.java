@@ -0,0 +1,278 @@
+package org.wocommunity.maven.plugins.woinstall;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.DigestInputStream;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Enumeration;
+import java.util.Map;
+import java.util.Properties;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
+
+import org.wocommunity.maven.plugins.woinstall.io.FileSync;
+import org.wocommunity.maven.plugins.woinstall.io.FileUtilities;
+
+/**
+ * A zip file holding an installed WebObjects version: the artifact files
+ * recorded in its {@link InstallManifest} at their local repository paths,
+ * the manifest itself and optionally the next_root trimmed to its Library
+ * directory, which holds the frameworks and jars. Unpacking a bundle replaces
+ * the download of the installer and the extraction of its payload.
+ * <p>
+ * Besides the CRC-32 of every zip entry, the bundle records the SHA-256 hash of
+ * every file, which is checked while unpacking.
+ */
+public class InstallBundle {
+	private static final String PROPERTIES = "woinstall-bundle.properties";
+	private static final String MANIFEST = "woinstall.manifest";
+	private static final String REPOSITORY = "repository/";
+	private static final String NEXT_ROOT = "next_root/";
+	private static final String TRIMMED_NEXT_ROOT = "Library";
+
+	private static final String VERSION = "version";
+	private static final String SHA256 = "sha256.";
+	private static final String LINK = "link.";
+
+	/**
+	 * Writes a bundle next to the file and renames it into place.
+	 *
+	 * @param bundle    the bundle to write
+	 * @param localRepo the local repository the manifest's paths are relative to
+	 * @param manifest  the manifest of the installed version
+	 * @param nextRoot  the installed next_root to include, or null
+	 * @throws IOException if a file cannot be read or the bundle written
+	 */
+	public static void write(final File bundle, final File localRepo, final InstallManifest manifest,
+			final File nextRoot) throws IOException {
+		final Properties properties = new Properties();
+		properties.setProperty(VERSION, manifest.getVersion());
+		final File temp = new File(bundle.getAbsoluteFile().getParentFile(), bundle.getName() + ".partial");
+		try (ZipOutputStream out = new ZipOutputStream(
+				new BufferedOutputStream(Files.newOutputStream(temp.toPath()), 64 * 1024))) {
+			out.putNextEntry(new ZipEntry(MANIFEST));
+			manifest.write(out);
+			out.closeEntry();
+			for (final InstallManifest.Entry entry : manifest.getArtifacts().values()) {
+				writeEntry(out, REPOSITORY + entry.getPath(), new File(localRepo, entry.getPath()).toPath(),
+						properties);
+			}
+			if (nextRoot != null) {
+				final Path root = nextRoot.toPath();
+				Files.walkFileTree(root.resolve(TRIMMED_NEXT_ROOT), new SimpleFileVisitor<Path>() {
+					@Override
+					public FileVisitResult visitFile(final Path file, final BasicFileAttributes attrs)
+							throws IOException {
+						final String name = NEXT_ROOT
+								+ root.relativize(file).toString().replace(File.separatorChar, '/');
+						if (attrs.isSymbolicLink()) {
+							properties.setProperty(LINK + name, Files.readSymbolicLink(file).toString());
+						} else if (attrs.isRegularFile()) {
+							writeEntry(out, name, file, properties);
+						}
+						return FileVisitResult.CONTINUE;
+					}
+				});
+			}
+			out.putNextEntry(new ZipEntry(PROPERTIES));
+			properties.store(out, "WebObjects " + manifest.getVersion() + " install bundle");
+			out.closeEntry();
+		} catch (final IOException e) {
+			Files.deleteIfExists(temp.toPath());
+			throw e;
+		}
+		Files.move(temp.toPath(), bundle.toPath(), StandardCopyOption.REPLACE_EXISTING,
+				StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	private static void writeEntry(final ZipOutputStream out, final String name, final Path file,
+			final Properties properties) throws IOException {
+		final ZipEntry entry = new ZipEntry(name);
+		entry.setTime(Files.getLastModifiedTime(file).toMillis());
+		out.putNextEntry(entry);
+		final MessageDigest digest = sha256();
+		final OutputStream digestOut = new DigestOutputStream(out, digest);
+		Files.copy(file, digestOut);
+		digestOut.flush();
+		out.closeEntry();
+		properties.setProperty(SHA256 + name, InstallManifest.toHex(digest.digest()));
+	}
+
+	/**
+	 * @param bundle the bundle
+	 * @return the WebObjects version in the bundle
+	 * @throws IOException if the bundle cannot be read
+	 */
+	public static String readVersion(final File bundle) throws IOException {
+		try (ZipFile zipFile = new ZipFile(bundle)) {
+			return readProperties(zipFile, bundle).getProperty(VERSION);
+		}
+	}
+
+	/**
+	 * Unpacks the artifact files into the local repository and, if the bundle
+	 * has one and none is installed yet, the next_root through a staging
+	 * directory that is renamed into place. Every file is checked against its
+	 * recorded hash before it is renamed into place.
+	 *
+	 * @param bundle    the bundle
+	 * @param localRepo the local repository
+	 * @param nextRoot  the next_root directory of the bundled version
+	 * @param fileSync  the file sync every unpacked file is reported to
+	 * @return the manifest of the unpacked files, with the next_root if the
+	 *         bundle has one
+	 * @throws IOException if the bundle cannot be read, is corrupt or a file
+	 *                     cannot be written
+	 */
+	public static InstallManifest unpack(final File bundle, final File localRepo, final File nextRoot,
+			final FileSync fileSync) throws IOException {
+		try (ZipFile zipFile = new ZipFile(bundle)) {
+			final Properties properties = readProperties(zipFile, bundle);
+			final ZipEntry manifestEntry = zipFile.getEntry(MANIFEST);
+			if (manifestEntry == null) {
+				throw new IOException("'" + bundle + "' is not an install bundle.");
+			}
+			final InstallManifest bundled;
+			try (InputStream in = zipFile.getInputStream(manifestEntry)) {
+				bundled = InstallManifest.read(in, bundle + "!" + MANIFEST);
+			}
+
+			final boolean hasNextRoot = properties.stringPropertyNames().stream()
+					.anyMatch(key -> key.startsWith(SHA256 + NEXT_ROOT) || key.startsWith(LINK + NEXT_ROOT));
+			final boolean unpackNextRoot = hasNextRoot && !nextRoot.exists();
+			final File stagingRoot = new File(nextRoot.getParentFile(), nextRoot.getName() + ".partial");
+			if (unpackNextRoot) {
+				if (stagingRoot.exists()) {
+					FileUtilities.deleteRecursively(stagingRoot.toPath());
+				}
+				stagingRoot.mkdirs();
+			}
+
+			final InstallManifest manifest = new InstallManifest(bundled.getVersion(), hasNextRoot
+					? localRepo.toPath().relativize(nextRoot.toPath()).toString()
+					: null);
+			bundled.getOptions().forEach(manifest::setOption);
+			final Enumeration<? extends ZipEntry> entries = zipFile.entries();
+			while (entries.hasMoreElements()) {
+				final ZipEntry entry = entries.nextElement();
+				final String name = entry.getName();
+				final File target;
+				if (name.startsWith(REPOSITORY)) {
+					target = resolve(localRepo, name.substring(REPOSITORY.length()), bundle);
+				} else if (name.startsWith(NEXT_ROOT) && unpackNextRoot) {
+					target = resolve(stagingRoot, name.substring(NEXT_ROOT.length()), bundle);
+				} else {
+					continue;
+				}
+				unpackEntry(zipFile, entry, target, properties.getProperty(SHA256 + name), bundle);
+				fileSync.written(target.toPath());
+			}
+			for (final Map.Entry<String, InstallManifest.Entry> artifact : bundled.getArtifacts().entrySet()) {
+				final InstallManifest.Entry entry = artifact.getValue();
+				if (!new File(localRepo, entry.getPath()).isFile()) {
+					throw new IOException("Install bundle '" + bundle + "' is missing " + entry.getPath() + ".");
+				}
+				manifest.add(artifact.getKey(), localRepo, entry.getPath(), entry.getSha256());
+			}
+
+			if (unpackNextRoot) {
+				for (final String key : properties.stringPropertyNames()) {
+					if (key.startsWith(LINK + NEXT_ROOT)) {
+						final File link = resolve(stagingRoot, key.substring((LINK + NEXT_ROOT).length()), bundle);
+						link.getParentFile().mkdirs();
+						Files.createSymbolicLink(link.toPath(), Paths.get(properties.getProperty(key)));
+						fileSync.directoryChanged(link.toPath().getParent());
+					}
+				}
+				fileSync.sync();
+				Files.move(stagingRoot.toPath(), nextRoot.toPath(), StandardCopyOption.ATOMIC_MOVE);
+				fileSync.directoryChanged(nextRoot.getParentFile().toPath());
+			}
+			fileSync.sync();
+			return manifest;
+		}
+	}
+
+	/**
+	 * Writes the entry to a file next to the target, checks its hash and only
+	 * then renames it over the target, so a corrupt bundle never replaces a file
+	 * that is already there.
+	 */
+	private static void unpackEntry(final ZipFile zipFile, final ZipEntry entry, final File target,
+			final String sha256, final File bundle) throws IOException {
+		if (sha256 == null) {
+			throw new IOException("Install bundle '" + bundle + "' has no checksum for " + entry.getName() + ".");
+		}
+		final File parent = target.getParentFile();
+		if (!parent.isDirectory() && !parent.mkdirs()) {
+			throw new IOException("Failed to create directory '" + parent + "'.");
+		}
+		final File temp = new File(parent, target.getName() + ".partial");
+		try {
+			final MessageDigest digest = sha256();
+			try (InputStream in = new DigestInputStream(zipFile.getInputStream(entry), digest)) {
+				Files.copy(in, temp.toPath(), StandardCopyOption.REPLACE_EXISTING);
+			}
+			if (!sha256.equals(InstallManifest.toHex(digest.digest()))) {
+				throw new IOException("Checksum mismatch for " + entry.getName() + " in install bundle '" + bundle
+						+ "'.");
+			}
+			if (entry.getTime() != -1) {
+				temp.setLastModified(entry.getTime());
+			}
+			Files.move(temp.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING,
+					StandardCopyOption.ATOMIC_MOVE);
+		} finally {
+			Files.deleteIfExists(temp.toPath());
+		}
+	}
+
+	/**
+	 * @return the file at the path below the directory, refusing paths that
+	 *         leave it
+	 */
+	private static File resolve(final File directory, final String path, final File bundle) throws IOException {
+		final Path base = directory.toPath().toAbsolutePath().normalize();
+		final Path resolved = base.resolve(path).normalize();
+		if (!resolved.startsWith(base) || resolved.equals(base)) {
+			throw new IOException("Invalid entry " + path + " in install bundle '" + bundle + "'.");
+		}
+		return resolved.toFile();
+	}
+
+	private static Properties readProperties(final ZipFile zipFile, final File bundle) throws IOException {
+		final ZipEntry entry = zipFile.getEntry(PROPERTIES);
+		if (entry == null) {
+			throw new IOException("'" + bundle + "' is not an install bundle.");
+		}
+		final Properties properties = new Properties();
+		try (InputStream in = zipFile.getInputStream(entry)) {
+			properties.load(in);
+		}
+		if (properties.getProperty(VERSION) == null) {
+			throw new IOException("'" + bundle + "' is not an install bundle.");
+		}
+		return properties;
+	}
+
+	private static MessageDigest sha256() {
+		try {
+			return MessageDigest.getInstance("SHA-256");
+		} catch (final NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+}
@@ -0,0 +1,39 @@
+package org.wocommunity.maven.plugins.woinstall;
+
+import org.slf4j.Logger;
+
+/**
+ * Receives the messages of one version's installation, formatted the way SLF4J
+ * formats them, so they can be kept together with the other messages of the
+ * version.
+ */
+public interface InstallLog {
+	void debug(String format, Object... arguments);
+
+	void info(String format, Object... arguments);
+
+	void warn(String format, Object... arguments);
+
+	/**
+	 * @param logger the logger to write to
+	 * @return a log that writes every message to the logger right away
+	 */
+	static InstallLog of(final Logger logger) {
+		return new InstallLog() {
+			@Override
+			public void debug(final String format, final Object... arguments) {
+				logger.debug(format, arguments);
+			}
+
+			@Override
+			public void info(final String format, final Object... arguments) {
+				logger.info(format, arguments);
+			}
+
+			@Override
+			public void warn(final String format, final Object... arguments) {
+				logger.warn(format, arguments);
+			}
+		};
+	}
+}
@@ -0,0 +1,291 @@
+package org.wocommunity.maven.plugins.woinstall;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+
+/**
+ * Records what a successful installation put into the local repository: the
+ * WebObjects version, whether a next_root was installed, the options it was
+ * installed with, the path, size, modification time and SHA-256 hash of every
+ * artifact file, and the class path stamp each installed CDS archive was
+ * dumped against. A later run with the same options whose manifest is
+ * still current has nothing to do, and finds out with one file read and a
+ * stat per recorded file.
+ */
+public class InstallManifest {
+	private static final String VERSION = "version";
+	private static final String NEXT_ROOT = "nextRoot";
+	private static final String ARTIFACT = "artifact.";
+	private static final String OPTION = "option.";
+	private static final String CDS_ARCHIVE = "cdsArchive.";
+
+	/**
+	 * An artifact file, its path relative to the local repository.
+	 */
+	public static final class Entry {
+		private final String path;
+		private final long size;
+		private final long lastModified;
+		private final String sha256;
+
+		Entry(final String path, final long size, final long lastModified, final String sha256) {
+			this.path = path;
+			this.size = size;
+			this.lastModified = lastModified;
+			this.sha256 = sha256;
+		}
+
+		public String getPath() {
+			return path;
+		}
+
+		public long getSize() {
+			return size;
+		}
+
+		public long getLastModified() {
+			return lastModified;
+		}
+
+		public String getSha256() {
+			return sha256;
+		}
+	}
+
+	private final String version;
+	private final String nextRoot;
+	private final Map<String, Entry> artifacts = new TreeMap<>();
+	private final Map<String, String> options = new TreeMap<>();
+	private final Map<String, String> cdsArchives = new TreeMap<>();
+
+	/**
+	 * @param version  the WebObjects version
+	 * @param nextRoot the path of the installed next_root relative to the local
+	 *                 repository, or null if only artifacts were installed
+	 */
+	public InstallManifest(final String version, final String nextRoot) {
+		this.version = version;
+		this.nextRoot = nextRoot;
+	}
+
+	public String getVersion() {
+		return version;
+	}
+
+	/**
+	 * @return the path of the next_root relative to the local repository, or
+	 *         null if only artifacts were installed
+	 */
+	public String getNextRoot() {
+		return nextRoot;
+	}
+
+	/**
+	 * @return the recorded files by artifact coordinates
+	 */
+	public Map<String, Entry> getArtifacts() {
+		return Collections.unmodifiableMap(artifacts);
+	}
+
+	/**
+	 * @return the options the version was installed with, by name
+	 */
+	public Map<String, String> getOptions() {
+		return Collections.unmodifiableMap(options);
+	}
+
+	/**
+	 * Records an option the version was installed with.
+	 *
+	 * @param name  the option's name
+	 * @param value the option's value
+	 */
+	public void setOption(final String name, final String value) {
+		options.put(name, value);
+	}
+
+	/**
+	 * @return the class path stamps the installed CDS archives were dumped
+	 *         against, by archive classifier
+	 */
+	public Map<String, String> getCdsArchives() {
+		return Collections.unmodifiableMap(cdsArchives);
+	}
+
+	/**
+	 * Records an installed CDS archive.
+	 *
+	 * @param classifier the archive's classifier
+	 * @param stamp      the stamp of the class path it was dumped against, see
+	 *                   {@link ClassDataSharing#classPathStamp(java.util.List)}
+	 */
+	public void setCdsArchive(final String classifier, final String stamp) {
+		cdsArchives.put(classifier, stamp);
+	}
+
+	/**
+	 * Records an installed artifact file, hashing its content.
+	 *
+	 * @param coordinates the artifact's coordinates
+	 * @param baseDir     the local repository
+	 * @param path        the file's path relative to the local repository
+	 * @throws IOException if the file cannot be read
+	 */
+	public void add(final String coordinates, final File baseDir, final String path) throws IOException {
+		final File file = new File(baseDir, path);
+		final MessageDigest digest;
+		try {
+			digest = MessageDigest.getInstance("SHA-256");
+		} catch (final NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+		try (InputStream in = new DigestInputStream(Files.newInputStream(file.toPath()), digest)) {
+			final byte[] buffer = new byte[64 * 1024];
+			while (in.read(buffer, 0, buffer.length) != -1) {
+				// digest only
+			}
+		}
+		add(coordinates, baseDir, path, toHex(digest.digest()));
+	}
+
+	/**
+	 * Records an installed artifact file whose hash is already known.
+	 */
+	void add(final String coordinates, final File baseDir, final String path, final String sha256) {
+		final File file = new File(baseDir, path);
+		artifacts.put(coordinates, new Entry(path, file.length(), file.lastModified(), sha256));
+	}
+
+	static String toHex(final byte[] digest) {
+		final StringBuilder hex = new StringBuilder();
+		for (final byte b : digest) {
+			hex.append(String.format("%02x", b & 0xff));
+		}
+		return hex.toString();
+	}
+
+	/**
+	 * Checks that every recorded file still has its size and modification time
+	 * and that the next_root, if one was installed, is still there. Contents
+	 * are not hashed again. An installation without artifacts is only current
+	 * if it installed a next_root.
+	 *
+	 * @param baseDir the local repository
+	 * @return true if the installation is unchanged
+	 */
+	public boolean isCurrent(final File baseDir) {
+		if (nextRoot != null && !new File(baseDir, nextRoot).isDirectory()) {
+			return false;
+		}
+		for (final Entry entry : artifacts.values()) {
+			final File file = new File(baseDir, entry.path);
+			if (file.length() != entry.size || file.lastModified() != entry.lastModified) {
+				return false;
+			}
+		}
+		return nextRoot != null || !artifacts.isEmpty();
+	}
+
+	/**
+	 * @param file the manifest file
+	 * @return the manifest
+	 * @throws IOException if the file cannot be read or is not a manifest
+	 */
+	public static InstallManifest read(final File file) throws IOException {
+		try (InputStream in = Files.newInputStream(file.toPath())) {
+			return read(in, file.toString());
+		}
+	}
+
+	/**
+	 * @param in     the manifest
+	 * @param source where the manifest comes from, for error messages
+	 * @return the manifest
+	 * @throws IOException if the stream cannot be read or is not a manifest
+	 */
+	static InstallManifest read(final InputStream in, final String source) throws IOException {
+		final Properties properties = new Properties();
+		properties.load(in);
+		final String version = properties.getProperty(VERSION);
+		if (version == null) {
+			throw new IOException("'" + source + "' is not an install manifest.");
+		}
+		final InstallManifest manifest = new InstallManifest(version, properties.getProperty(NEXT_ROOT));
+		for (final String key : properties.stringPropertyNames()) {
+			if (key.startsWith(OPTION)) {
+				manifest.options.put(key.substring(OPTION.length()), properties.getProperty(key));
+			}
+			if (key.startsWith(CDS_ARCHIVE)) {
+				manifest.cdsArchives.put(key.substring(CDS_ARCHIVE.length()), properties.getProperty(key));
+			}
+			if (!key.startsWith(ARTIFACT)) {
+				continue;
+			}
+			final String[] fields = properties.getProperty(key).split("\\|");
+			if (fields.length != 4) {
+				throw new IOException("Invalid entry '" + key + "' in install manifest '" + source + "'.");
+			}
+			try {
+				manifest.artifacts.put(key.substring(ARTIFACT.length()),
+						new Entry(fields[0], Long.parseLong(fields[1]), Long.parseLong(fields[2]), fields[3]));
+			} catch (final NumberFormatException e) {
+				throw new IOException("Invalid entry '" + key + "' in install manifest '" + source + "'.", e);
+			}
+		}
+		return manifest;
+	}
+
+	/**
+	 * Writes the manifest next to the file and renames it into place.
+	 *
+	 * @param file the manifest file
+	 * @throws IOException if the manifest cannot be written
+	 */
+	public void write(final File file) throws IOException {
+		final File parent = file.getParentFile();
+		if (!parent.isDirectory() && !parent.mkdirs()) {
+			throw new IOException("Failed to create directory '" + parent + "'.");
+		}
+		final File temp = new File(parent, file.getName() + ".partial");
+		try (OutputStream out = Files.newOutputStream(temp.toPath())) {
+			write(out);
+		}
+		Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+				StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	/**
+	 * @param out the stream to write the manifest to, left open
+	 * @throws IOException if the manifest cannot be written
+	 */
+	void write(final OutputStream out) throws IOException {
+		final Properties properties = new Properties();
+		properties.setProperty(VERSION, version);
+		if (nextRoot != null) {
+			properties.setProperty(NEXT_ROOT, nextRoot);
+		}
+		for (final Map.Entry<String, String> option : options.entrySet()) {
+			properties.setProperty(OPTION + option.getKey(), option.getValue());
+		}
+		for (final Map.Entry<String, String> archive : cdsArchives.entrySet()) {
+			properties.setProperty(CDS_ARCHIVE + archive.getKey(), archive.getValue());
+		}
+		for (final Map.Entry<String, Entry> artifact : artifacts.entrySet()) {
+			final Entry entry = artifact.getValue();
+			properties.setProperty(ARTIFACT + artifact.getKey(),
+					entry.path + "|" + entry.size + "|" + entry.lastModified + "|" + entry.sha256);
+		}
+		properties.store(out, "WebObjects " + version + " installation");
+	}
+}
@@ -2,65 +2,60 @@ package org.wocommunity.maven.plugins.woinstall;
 
 import java.io.File;
 import java.io.IOException;
-import java.io.OutputStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
 import java.util.stream.Collectors;
 
-import org.apache.maven.execution.MavenSession;
-import org.apache.maven.model.Dependency;
-import org.apache.maven.model.DependencyManagement;
-import org.apache.maven.model.Model;
-import org.apache.maven.model.io.xpp3.MavenXpp3Writer;
-import org.apache.maven.plugin.AbstractMojo;
 import org.apache.maven.plugin.MojoExecutionException;
 import org.apache.maven.plugin.MojoFailureException;
-import org.apache.maven.plugins.annotations.Component;
 import org.apache.maven.plugins.annotations.LifecyclePhase;
 import org.apache.maven.plugins.annotations.Mojo;
 import org.apache.maven.plugins.annotations.Parameter;
-import org.eclipse.aether.DefaultRepositoryCache;
-import org.eclipse.aether.DefaultRepositorySystemSession;
-import org.eclipse.aether.RepositorySystem;
 import org.eclipse.aether.RepositorySystemSession;
 import org.eclipse.aether.artifact.Artifact;
 import org.eclipse.aether.artifact.DefaultArtifact;
 import org.eclipse.aether.installation.InstallRequest;
 import org.eclipse.aether.installation.InstallationException;
+import org.eclipse.aether.repository.LocalArtifactRegistration;
 import org.eclipse.aether.repository.LocalArtifactRequest;
 import org.eclipse.aether.repository.LocalArtifactResult;
-import org.eclipse.aether.repository.LocalRepository;
 import org.eclipse.aether.repository.LocalRepositoryManager;
 import org.eclipse.aether.util.artifact.SubArtifact;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.wocommunity.maven.plugins.woinstall.archiver.JarRepacker;
+import org.wocommunity.maven.plugins.woinstall.io.Durability;
+import org.wocommunity.maven.plugins.woinstall.io.FileSync;
+import org.wocommunity.maven.plugins.woinstall.io.FileUtilities;
 import org.wocommunity.maven.plugins.woinstall.io.InstallerDownloadUtil;
 
 @Mojo(name = "woinstall", requiresProject = false, defaultPhase = LifecyclePhase.INITIALIZE, aggregator = true)
-public class InstallMojo extends AbstractMojo {
+public class InstallMojo extends AbstractWebObjectsMojo {
 	private static final Logger LOG = LoggerFactory.getLogger(InstallMojo.class);
 
-	private static final String WEBOBJECTS_GROUP_ID = "com.webobjects";
+	private static final String DEFLATED_CLASSIFIER = "deflated";
 
-	private static final String WEBOBJECTS_BOM_ARTIFACT_ID = "webobjects-bom";
-
-	@Component
-	private RepositorySystem repositorySystem;
-
-	@Parameter(defaultValue = "${session}", required = true, readonly = true)
-	private MavenSession session;
+	private static final String DEDUPLICATE_NEXT_ROOTS = "deduplicateNextRoots";
 
 	/**
-	 * The path for a specific local repository directory. If not specified the
-	 * local repository path configured in the Maven settings will be used.
+	 * Held while artifacts are installed into or registered with the local
+	 * repository. Versions installed concurrently update the same metadata and
+	 * tracking files, which resolvers before Maven 3.9 do not lock, so only
+	 * downloading and extracting run concurrently.
 	 */
-	@Parameter(property = "localRepositoryPath")
-	private File localRepositoryPath;
+	private final Object repositoryLock = new Object();
 
 	/**
 	 * The version of WebObjects to download and install.
@@ -68,90 +63,677 @@ public class InstallMojo extends AbstractMojo {
 	@Parameter(defaultValue = "5.4.3", property = "installVersion", required = true)
 	private String installVersion;
 
+	/**
+	 * Install only the WebObjects artifacts and bom. When no next_root has been
+	 * installed yet, the jars are streamed from the installer straight into the
+	 * local repository and no next_root is created.
+	 */
+	@Parameter(defaultValue = "false", property = "artifactsOnly")
+	private boolean artifactsOnly;
+
+	/**
+	 * Install only the next_root, without any artifacts in the local repository,
+	 * for builds that resolve the WebObjects jars from the next_root through
+	 * {@link NextRootWorkspaceReader}. Artifacts installed by earlier runs are
+	 * left in place.
+	 */
+	@Parameter(defaultValue = "false", property = "nextRootOnly")
+	private boolean nextRootOnly;
+
+	/**
+	 * Share files that are identical between installed WebObjects versions. The
+	 * next_root files become hardlinks into a content-addressed store under
+	 * com/webobjects/.next_roots, so installing a second version only writes the
+	 * files that differ.
+	 */
+	@Parameter(defaultValue = "false", property = "deduplicateNextRoots")
+	private boolean deduplicateNextRoots;
+
+	/**
+	 * Index the installer payload the first time it is extracted, so later
+	 * extractions of the same installer inflate it in parallel and only inflate
+	 * the jars they write. Building the index inflates the payload with a pure
+	 * Java inflater, which makes that first extraction slower than with the JDK's
+	 * native one. Worth it when a cached installer is extracted again, such as on
+	 * CI machines that reinstall from a shared local repository.
+	 */
+	@Parameter(defaultValue = "false", property = "indexPayload")
+	private boolean indexPayload;
+
+	/**
+	 * Install the jars of the next_root into the local repository as hardlinks
+	 * instead of copies, so they take no extra space and no time to copy. Falls
+	 * back to a copy where the two are on different file systems. Because a
+	 * hardlinked jar shares its content with the next_root, modifying one in
+	 * place modifies the other.
+	 */
+	@Parameter(defaultValue = "false", property = "linkArtifacts")
+	private boolean linkArtifacts;
+
+	/**
+	 * Install the jars with their entries STORED instead of deflated, so a class
+	 * loader reads classes without inflating them, at the cost of larger jars.
+	 * The jars are repacked in parallel. The original jars are installed as well,
+	 * with the classifier deflated.
+	 */
+	@Parameter(defaultValue = "false", property = "storeJarEntries")
+	private boolean storeJarEntries;
+
+	/**
+	 * Build an application class data sharing archive of the WebObjects jars with
+	 * the JDK running Maven, and install it with the list of its classes as
+	 * classified artifacts of the bom: webobjects-bom-VERSION-classlist.txt and
+	 * webobjects-bom-VERSION-cds-jdkBUILD.jsa, where BUILD is the java.vm.version
+	 * of the JDK with characters other than letters, digits, dots and dashes
+	 * replaced by underscores, such as cds-jdk17.0.9_9. A JDK update dumps a new
+	 * archive on the next run. Launching an application with
+	 * -XX:SharedArchiveFile pointing at the archive, on the same JDK and with a
+	 * class path that starts with the jars of the bom in the local repository,
+	 * in the order of the bom, lets it skip loading those classes from the jars.
+	 * Needs Java 11 or later.
+	 */
+	@Parameter(defaultValue = "false", property = "generateCdsArchive")
+	private boolean generateCdsArchive;
+
+	/**
+	 * How hard to work to make installed files survive a crash or power loss.
+	 * <ul>
+	 * <li>none: leave flushing to the operating system. Fastest, for ephemeral CI
+	 * containers.</li>
+	 * <li>batched: fsync all written files and their directories once at the end
+	 * of each stage.</li>
+	 * <li>strict: fsync every file as soon as it is written.</li>
+	 * </ul>
+	 */
+	@Parameter(defaultValue = "none", property = "durability")
+	private String durability;
+
+	/**
+	 * Several versions of WebObjects to download and install in one run, in
+	 * place of installVersion. The versions are installed concurrently and the
+	 * log of each is written as a section of its own once it is done.
+	 */
+	@Parameter(property = "installVersions")
+	private List<String> installVersions;
+
+	/**
+	 * The number of installers downloaded at the same time when installing
+	 * several versions.
+	 */
+	@Parameter(defaultValue = "2", property = "maxConcurrentDownloads")
+	private int maxConcurrentDownloads;
+
+	/**
+	 * The number of installers unpacked at the same time when installing several
+	 * versions. Each unpacks on a thread of its own plus a read-ahead thread, and
+	 * indexed payloads share the common fork/join pool for decompression.
+	 */
+	@Parameter(defaultValue = "2", property = "maxConcurrentExtractions")
+	private int maxConcurrentExtractions;
+
+	/**
+	 * Install from a bundle written by the bundle goal instead of downloading and
+	 * extracting the installer. The version installed is the one in the bundle.
+	 */
+	@Parameter(property = "bundleFile")
+	private File bundleFile;
+
 	@Override
 	public void execute() throws MojoExecutionException, MojoFailureException {
 		/*
-		 * Locate the WebObjectsInstaller. Throw an error if one does not exist for the
+		 * Locate the WebObjectsInstallers. Throw an error if one does not exist for a
 		 * requested version and exit.
 		 */
-		WebObjectsInstaller installer;
+		final List<WebObjectsInstaller> installers = new ArrayList<>();
+		for (final String version : getInstallVersions()) {
+			final WebObjectsInstaller installer;
+			try {
+				installer = WebObjectsInstaller.forVersion(version);
+			} catch (final UnknownVersionException e) {
+				throw new MojoFailureException("Invalid WebObjects version.", e);
+			}
+			if (!installers.contains(installer)) {
+				installers.add(installer);
+			}
+		}
+
+		final Durability durabilityLevel;
 		try {
-			installer = WebObjectsInstaller.forVersion(installVersion);
-		} catch (final UnknownVersionException e) {
-			throw new MojoFailureException("Invalid WebObjects version.", e);
+			durabilityLevel = Durability.forName(durability);
+		} catch (final IllegalArgumentException e) {
+			throw new MojoFailureException("Invalid durability.", e);
+		}
+		if (maxConcurrentDownloads < 1 || maxConcurrentExtractions < 1) {
+			throw new MojoFailureException("maxConcurrentDownloads and maxConcurrentExtractions must be at least 1.");
+		}
+		if (nextRootOnly && (artifactsOnly || linkArtifacts || storeJarEntries || generateCdsArchive
+				|| bundleFile != null)) {
+			throw new MojoFailureException("nextRootOnly installs no artifacts, it cannot be combined with "
+					+ "artifactsOnly, linkArtifacts, storeJarEntries, generateCdsArchive or bundleFile.");
+		}
+
+		final RepositorySystemSession repositorySystemSession = getRepositorySystemSession();
+		if (installers.size() == 1) {
+			install(installers.get(0), repositorySystemSession, durabilityLevel, new VersionLog(null),
+					new Semaphore(1), new Semaphore(1));
+			return;
 		}
-		LOG.info("WebObjects installation starting for version {}", installer.getVersion());
+
+		/*
+		 * Install the versions concurrently. Downloads and extractions are the
+		 * expensive stages, each is limited to its own number of versions at a time.
+		 * Installing into the local repository is done by one version at a time.
+		 */
+		final Semaphore downloads = new Semaphore(maxConcurrentDownloads);
+		final Semaphore extractions = new Semaphore(maxConcurrentExtractions);
+		final ExecutorService executor = Executors.newFixedThreadPool(installers.size(), runnable -> {
+			final Thread thread = new Thread(runnable, "woinstall-version");
+			thread.setDaemon(true);
+			return thread;
+		});
+		LOG.info("Installing WebObjects versions {} concurrently", installers.stream()
+				.map(WebObjectsInstaller::getVersion)
+				.collect(Collectors.joining(", ")));
+		try {
+			final List<Future<Void>> results = new ArrayList<>();
+			for (final WebObjectsInstaller installer : installers) {
+				results.add(executor.submit(() -> {
+					final VersionLog log = new VersionLog(installer.getVersion());
+					try {
+						install(installer, repositorySystemSession, durabilityLevel, log, downloads, extractions);
+					} catch (final MojoExecutionException | MojoFailureException | RuntimeException e) {
+						log.error("WebObjects installation failed: " + e.getMessage());
+						throw e;
+					} finally {
+						log.flush();
+					}
+					return null;
+				}));
+			}
+			Throwable failure = null;
+			for (final Future<Void> result : results) {
+				try {
+					result.get();
+				} catch (final ExecutionException e) {
+					if (failure == null) {
+						failure = e.getCause();
+					}
+				}
+			}
+			if (failure instanceof MojoFailureException) {
+				throw (MojoFailureException) failure;
+			}
+			if (failure instanceof MojoExecutionException) {
+				throw (MojoExecutionException) failure;
+			}
+			if (failure instanceof Error) {
+				throw (Error) failure;
+			}
+			if (failure != null) {
+				throw new MojoExecutionException("WebObjects installation failed.", failure);
+			}
+		} catch (final InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new MojoExecutionException("Interrupted while installing WebObjects.", e);
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	/**
+	 * @return the versions to install, the version in the bundle if bundleFile
+	 *         is given, installVersions if given and installVersion otherwise
+	 */
+	private List<String> getInstallVersions() throws MojoFailureException {
+		if (bundleFile != null) {
+			if (installVersions != null && !installVersions.isEmpty()) {
+				throw new MojoFailureException("bundleFile installs the version in the bundle, it cannot be combined "
+						+ "with installVersions.");
+			}
+			try {
+				return Collections.singletonList(InstallBundle.readVersion(bundleFile));
+			} catch (final IOException e) {
+				throw new MojoFailureException("Reading the install bundle failed.", e);
+			}
+		}
+		if (installVersions == null || installVersions.isEmpty()) {
+			return Collections.singletonList(installVersion);
+		}
+		return installVersions;
+	}
+
+	private void install(
+			final WebObjectsInstaller installer,
+			final RepositorySystemSession repositorySystemSession,
+			final Durability durabilityLevel,
+			final VersionLog log,
+			final Semaphore downloads,
+			final Semaphore extractions) throws MojoExecutionException, MojoFailureException {
+		log.info("WebObjects installation starting for version {}", installer.getVersion());
+		final FileSync fileSync = new FileSync(durabilityLevel);
 
 		/*
 		 * Find the location where the WebObjects installation will be found.
 		 */
-		final RepositorySystemSession repositorySystemSession = getRepositorySystemSession();
 		final File localRepo = repositorySystemSession
 				.getLocalRepositoryManager()
 				.getRepository()
 				.getBasedir();
-		LOG.info("Preparing to install WebObjects version {} to repository: {}", installer.getVersion(), localRepo);
+		final File manifestFile = installer.getManifestFile(localRepo);
+		if (isInstalled(installer, repositorySystemSession, manifestFile, localRepo)) {
+			log.info("WebObjects version {} is already installed in repository: {}", installer.getVersion(),
+					localRepo);
+			return;
+		}
+		log.info("Preparing to install WebObjects version {} to repository: {}", installer.getVersion(), localRepo);
+
+		if (bundleFile != null) {
+			installFromBundle(installer, repositorySystemSession, manifestFile, fileSync, log);
+			return;
+		}
+
+		/*
+		 * A version installed with other options is installed again, replacing the
+		 * artifacts that are already there.
+		 */
+		final Map<String, String> previousOptions = readChangedOptions(installer, manifestFile);
+		final boolean reinstall = previousOptions != null;
+		if (reinstall) {
+			log.info("WebObjects version {} was installed with other options, installing it again.",
+					installer.getVersion());
+		}
+		final Map<String, String> cdsArchives = readCdsArchives(installer, manifestFile);
 
 		/*
 		 * Download or resume webobjects installer if necessary.
 		 */
+		acquire(downloads);
 		try {
-			InstallerDownloadUtil.downloadInstallerToRepo(installer, localRepo);
+			InstallerDownloadUtil.downloadInstallerToRepo(installer, localRepo, log);
 		} catch (final IOException e) {
 			throw new MojoFailureException("Installer download failed.", e);
+		} finally {
+			downloads.release();
 		}
-		LOG.info("Installer downloaded successfully.");
+		log.info("Installer downloaded successfully.");
 
-		// unpack dmg into a .next_root
+		final boolean streamArtifacts = artifactsOnly && !installer.getNextRoot(localRepo).exists();
+		if (!streamArtifacts && reinstall && installer.getNextRoot(localRepo).exists() && !String
+				.valueOf(deduplicateNextRoots).equals(previousOptions.getOrDefault(DEDUPLICATE_NEXT_ROOTS, "false"))) {
+			try {
+				FileUtilities.deleteRecursively(installer.getNextRoot(localRepo).toPath());
+			} catch (final IOException e) {
+				throw new MojoFailureException("Removing the next_root failed.", e);
+			}
+		}
+		final List<String> artifactIds;
+		acquire(extractions);
 		try {
-			installer.installNextRoot(localRepo);
-		} catch (final IOException e) {
-			throw new MojoFailureException("Installing next_root failed.", e);
+			if (streamArtifacts) {
+				// stream jars from the dmg into the maven repository
+				try {
+					artifactIds = streamArtifacts(installer, repositorySystemSession, reinstall, fileSync, log);
+				} catch (final IOException e) {
+					throw new MojoFailureException("Installing artifacts failed.", e);
+				}
+				log.info("Artifact installation complete.");
+			} else {
+				// unpack dmg into a .next_root
+				try {
+					installer.installNextRoot(localRepo, deduplicateNextRoots, indexPayload, fileSync, log);
+				} catch (final IOException e) {
+					throw new MojoFailureException("Installing next_root failed.", e);
+				}
+				log.info("Next root installation complete.");
+
+				if (nextRootOnly) {
+					artifactIds = Collections.emptyList();
+				} else {
+					// copy .next_root resources into maven repository
+					try {
+						artifactIds = installArtifacts(installer, repositorySystemSession, reinstall, fileSync);
+					} catch (final IOException e) {
+						throw new MojoFailureException("Installing artifacts failed.", e);
+					}
+					log.info("Artifact installation complete.");
+				}
+			}
+
+			if (generateCdsArchive && !ClassDataSharing.isSupported()) {
+				log.warn("Skipping the CDS archive, it needs Java 11 or later.");
+			} else if (generateCdsArchive) {
+				final String classifier = ClassDataSharing.archiveClassifier();
+				try {
+					cdsArchives.put(classifier, installCdsArchive(installer, repositorySystemSession, artifactIds,
+							cdsArchives.get(classifier), fileSync));
+				} catch (final IOException e) {
+					throw new MojoFailureException("Installing the CDS archive failed.", e);
+				}
+				log.info("CDS archive installation complete.");
+			}
+		} finally {
+			extractions.release();
 		}
-		LOG.info("Next root installation complete.");
 
-		// copy .next_root resources into maven repository
 		try {
-			installArtifacts(installer, repositorySystemSession);
+			writeManifest(installer, repositorySystemSession, artifactIds, !streamArtifacts, cdsArchives, manifestFile,
+					fileSync);
 		} catch (final IOException e) {
-			throw new MojoFailureException("Installing artifacts failed.", e);
+			// the installation itself succeeded, the next run checks it again
+			log.warn("Writing the install manifest failed.", e);
 		}
-		LOG.info("Artifact installation complete.");
 
 		// TODO create a webobjects bom project
 
 		// print location of .next_root and dmg
-		LOG.info("WebObjects installation complete");
-		LOG.info(installer.getLicenseText());
-		LOG.info("WebObjects installer archive located at {}", installer.getInstallerFile(localRepo).getPath());
-		LOG.info("WebObjects NEXT_ROOT directory located at {}", installer.getNextRoot(localRepo).getPath());
+		log.info("WebObjects installation complete");
+		log.info(installer.getLicenseText());
+		log.info("WebObjects installer archive located at {}", installer.getInstallerFile(localRepo).getPath());
+		if (!streamArtifacts) {
+			log.info("WebObjects NEXT_ROOT directory located at {}", installer.getNextRoot(localRepo).getPath());
+		}
+	}
+
+	/**
+	 * Unpacks {@link #bundleFile} into the local repository, registers its
+	 * artifacts with the local repository manager and writes the install
+	 * manifest. The bundle is installed as it was written, the options that
+	 * change what is installed do not apply.
+	 */
+	private void installFromBundle(
+			final WebObjectsInstaller installer,
+			final RepositorySystemSession rss,
+			final File manifestFile,
+			final FileSync fileSync,
+			final VersionLog log) throws MojoFailureException {
+		final LocalRepositoryManager lrm = rss.getLocalRepositoryManager();
+		final File localRepo = lrm.getRepository().getBasedir();
+		if (storeJarEntries || generateCdsArchive) {
+			log.warn("storeJarEntries and generateCdsArchive do not apply to bundle installations.");
+		}
+		final InstallManifest manifest;
+		try {
+			manifest = InstallBundle.unpack(bundleFile, localRepo, installer.getNextRoot(localRepo), fileSync);
+		} catch (final IOException e) {
+			throw new MojoFailureException("Installing from bundle failed.", e);
+		}
+		synchronized (repositoryLock) {
+			for (final Map.Entry<String, InstallManifest.Entry> artifact : manifest.getArtifacts().entrySet()) {
+				lrm.add(rss, new LocalArtifactRegistration(new DefaultArtifact(artifact.getKey())
+						.setFile(new File(localRepo, artifact.getValue().getPath()))));
+			}
+		}
+		log.info("Bundle installation complete.");
+
+		try {
+			manifest.write(manifestFile);
+			fileSync.written(manifestFile.toPath());
+			fileSync.directoryChanged(manifestFile.toPath().getParent());
+			fileSync.sync();
+		} catch (final IOException e) {
+			// the installation itself succeeded, the next run checks it again
+			log.warn("Writing the install manifest failed.", e);
+		}
+
+		log.info("WebObjects installation complete");
+		log.info(installer.getLicenseText());
+		if (manifest.getNextRoot() != null) {
+			log.info("WebObjects NEXT_ROOT directory located at {}", installer.getNextRoot(localRepo).getPath());
+		}
+	}
+
+	private static void acquire(final Semaphore permits) throws MojoExecutionException {
+		try {
+			permits.acquire();
+		} catch (final InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new MojoExecutionException("Interrupted while installing WebObjects.", e);
+		}
+	}
+
+	/**
+	 * The messages of one version's installation. While several versions install
+	 * at once, each version's messages are held back and logged together when it
+	 * is done, under a heading with the version, so the output of the versions
+	 * does not interleave.
+	 */
+	private static final class VersionLog implements InstallLog {
+		private static final Object LOCK = new Object();
+
+		private final String version;
+		private final List<Runnable> messages = new ArrayList<>();
+
+		/**
+		 * @param version the version whose messages are held back, or null to log
+		 *                them immediately
+		 */
+		VersionLog(final String version) {
+			this.version = version;
+		}
+
+		@Override
+		public void debug(final String format, final Object... arguments) {
+			log(() -> LOG.debug(format, arguments));
+		}
+
+		@Override
+		public void info(final String format, final Object... arguments) {
+			log(() -> LOG.info(format, arguments));
+		}
+
+		@Override
+		public void warn(final String format, final Object... arguments) {
+			log(() -> LOG.warn(format, arguments));
+		}
+
+		void error(final String message) {
+			log(() -> LOG.error(message));
+		}
+
+		private void log(final Runnable message) {
+			if (version == null) {
+				message.run();
+			} else {
+				messages.add(message);
+			}
+		}
+
+		void flush() {
+			if (version == null) {
+				return;
+			}
+			synchronized (LOCK) {
+				LOG.info("------------------------------------------------------------------------");
+				LOG.info("WebObjects {}", version);
+				LOG.info("------------------------------------------------------------------------");
+				messages.forEach(Runnable::run);
+			}
+			messages.clear();
+		}
+	}
+
+	/**
+	 * @return true if a manifest written by an earlier run is still current and
+	 *         covers what this run would install. A bundle installs what it
+	 *         holds, whatever the options of this run.
+	 */
+	private boolean isInstalled(
+			final WebObjectsInstaller installer,
+			final RepositorySystemSession rss,
+			final File manifestFile,
+			final File localRepo) {
+		if (!manifestFile.isFile()) {
+			return false;
+		}
+		try {
+			final InstallManifest manifest = InstallManifest.read(manifestFile);
+			return installer.getVersion().equals(manifest.getVersion())
+					&& (artifactsOnly || bundleFile != null || manifest.getNextRoot() != null)
+					&& manifest.isCurrent(localRepo)
+					&& (bundleFile != null || installOptions().equals(manifest.getOptions())
+							&& (!storeJarEntries || hasDeflatedJars(manifest))
+							&& (!generateCdsArchive || !ClassDataSharing.isSupported()
+									|| isCdsArchiveCurrent(installer, rss, manifest)));
+		} catch (final IOException e) {
+			LOG.debug("Ignoring unreadable install manifest {}", manifestFile, e);
+			return false;
+		}
+	}
+
+	/**
+	 * @return the options of the installation that change what is installed, by
+	 *         name, as recorded in the install manifest
+	 */
+	private Map<String, String> installOptions() {
+		final Map<String, String> options = new TreeMap<>();
+		options.put("storeJarEntries", String.valueOf(storeJarEntries));
+		options.put("linkArtifacts", String.valueOf(linkArtifacts));
+		options.put(DEDUPLICATE_NEXT_ROOTS, String.valueOf(deduplicateNextRoots));
+		if (nextRootOnly) {
+			// only recorded when set, so earlier manifests still match
+			options.put("nextRootOnly", "true");
+		}
+		return options;
+	}
+
+	/**
+	 * @return the options recorded in the manifest of the installed version if
+	 *         they differ from this run's, otherwise null
+	 */
+	private Map<String, String> readChangedOptions(final WebObjectsInstaller installer, final File manifestFile) {
+		if (!manifestFile.isFile()) {
+			return null;
+		}
+		try {
+			final InstallManifest manifest = InstallManifest.read(manifestFile);
+			if (!installer.getVersion().equals(manifest.getVersion())
+					|| installOptions().equals(manifest.getOptions())) {
+				return null;
+			}
+			return manifest.getOptions();
+		} catch (final IOException e) {
+			LOG.debug("Ignoring unreadable install manifest {}", manifestFile, e);
+			return null;
+		}
+	}
+
+	/**
+	 * @return the class path stamps of the CDS archives recorded in the manifest
+	 *         of the installed version, by classifier, empty if there is none
+	 */
+	private Map<String, String> readCdsArchives(final WebObjectsInstaller installer, final File manifestFile) {
+		final Map<String, String> cdsArchives = new TreeMap<>();
+		if (!manifestFile.isFile()) {
+			return cdsArchives;
+		}
+		try {
+			final InstallManifest manifest = InstallManifest.read(manifestFile);
+			if (installer.getVersion().equals(manifest.getVersion())) {
+				cdsArchives.putAll(manifest.getCdsArchives());
+			}
+		} catch (final IOException e) {
+			LOG.debug("Ignoring unreadable install manifest {}", manifestFile, e);
+		}
+		return cdsArchives;
 	}
 
-	private RepositorySystemSession getRepositorySystemSession() {
-		RepositorySystemSession repositorySystemSession = session.getRepositorySession();
-		if (localRepositoryPath != null) {
-			// "clone" repository session and replace localRepository
-			final DefaultRepositorySystemSession newSession = new DefaultRepositorySystemSession(
-					session.getRepositorySession());
-			// Clear cache, since we're using a new local repository
-			newSession.setCache(new DefaultRepositoryCache());
-			// keep same repositoryType
-			String contentType = newSession.getLocalRepository().getContentType();
-			if ("enhanced".equals(contentType)) {
-				contentType = "default";
+	/**
+	 * @return true if the archive for the running JDK is installed and was
+	 *         dumped against the jars as they are now
+	 */
+	private boolean isCdsArchiveCurrent(
+			final WebObjectsInstaller installer,
+			final RepositorySystemSession rss,
+			final InstallManifest manifest) {
+		final List<String> artifactIds = manifest.getArtifacts().keySet().stream()
+				.map(DefaultArtifact::new)
+				.filter(artifact -> "jar".equals(artifact.getExtension()) && artifact.getClassifier().isEmpty())
+				.map(Artifact::getArtifactId)
+				.collect(Collectors.toList());
+		return isInLocalRepository(rss, cdsArchiveArtifact(installer))
+				&& ClassDataSharing.classPathStamp(cdsClassPath(installer, rss, artifactIds))
+						.equals(manifest.getCdsArchives().get(ClassDataSharing.archiveClassifier()));
+	}
+
+	/**
+	 * @return true if the manifest records the original of every jar
+	 */
+	private boolean hasDeflatedJars(final InstallManifest manifest) {
+		for (final String coordinates : manifest.getArtifacts().keySet()) {
+			final Artifact artifact = new DefaultArtifact(coordinates);
+			if ("jar".equals(artifact.getExtension()) && artifact.getClassifier().isEmpty() && !manifest
+					.getArtifacts().containsKey(new SubArtifact(artifact, DEFLATED_CLASSIFIER, "jar").toString())) {
+				return false;
 			}
-			final LocalRepositoryManager localRepositoryManager = repositorySystem.newLocalRepositoryManager(
-					newSession, new LocalRepository(localRepositoryPath, contentType));
-			newSession.setLocalRepositoryManager(localRepositoryManager);
-			repositorySystemSession = newSession;
-			LOG.debug("localRepoPath: {}", localRepositoryManager.getRepository().getBasedir());
 		}
-		return repositorySystemSession;
+		return true;
 	}
 
-	private void installArtifacts(
+	/**
+	 * Records the jars, poms and bom of the version together with the next_root,
+	 * once everything they describe has been synced, and the CDS archives that
+	 * were dumped against the jars as they are now. With {@link #nextRootOnly}
+	 * only the next_root is recorded.
+	 */
+	private void writeManifest(
 			final WebObjectsInstaller installer,
-			final RepositorySystemSession rss) throws IOException {
+			final RepositorySystemSession rss,
+			final List<String> artifactIds,
+			final boolean nextRoot,
+			final Map<String, String> cdsArchives,
+			final File manifestFile,
+			final FileSync fileSync) throws IOException {
+		final LocalRepositoryManager lrm = rss.getLocalRepositoryManager();
+		final File localRepo = lrm.getRepository().getBasedir();
+		final String version = installer.getVersion();
+		final InstallManifest manifest = new InstallManifest(version, nextRoot
+				? localRepo.toPath().relativize(installer.getNextRoot(localRepo).toPath()).toString()
+				: null);
+		installOptions().forEach(manifest::setOption);
+		final String stamp = ClassDataSharing.classPathStamp(cdsClassPath(installer, rss, artifactIds));
+		cdsArchives.forEach((classifier, archiveStamp) -> {
+			if (archiveStamp.equals(stamp)) {
+				manifest.setCdsArchive(classifier, archiveStamp);
+			}
+		});
+		final List<Artifact> artifacts = new ArrayList<>();
+		for (final String artifactId : artifactIds) {
+			final Artifact jarArtifact = new DefaultArtifact(WEBOBJECTS_GROUP_ID, artifactId, "jar", version);
+			artifacts.add(jarArtifact);
+			if (storeJarEntries) {
+				artifacts.add(new SubArtifact(jarArtifact, DEFLATED_CLASSIFIER, "jar"));
+			}
+			artifacts.add(new SubArtifact(jarArtifact, "", "pom"));
+		}
+		if (!nextRootOnly) {
+			artifacts.add(new DefaultArtifact(WEBOBJECTS_GROUP_ID, WEBOBJECTS_BOM_ARTIFACT_ID, "pom", version));
+		}
+		for (final Artifact artifact : artifacts) {
+			manifest.add(artifact.toString(), localRepo, lrm.getPathForLocalArtifact(artifact));
+		}
+		manifest.write(manifestFile);
+		fileSync.written(manifestFile.toPath());
+		fileSync.directoryChanged(manifestFile.toPath().getParent());
+		fileSync.sync();
+	}
+
+	/**
+	 * Installs the jars of the next_root that are missing from the local
+	 * repository, their poms and, if missing, the bom with a single install
+	 * request, so the local repository's tracking files are updated once. The
+	 * poms are generated into one scratch directory that is removed afterwards.
+	 * With {@link #linkArtifacts} the jars are linked into place and registered
+	 * with the local repository manager once everything has been synced. With
+	 * {@link #storeJarEntries} the jars are repacked into the scratch directory
+	 * first and the jars of the next_root become the deflated artifacts. With
+	 * reinstall the jars in the local repository are removed and installed
+	 * again.
+	 */
+	private List<String> installArtifacts(
+			final WebObjectsInstaller installer,
+			final RepositorySystemSession rss,
+			final boolean reinstall,
+			final FileSync fileSync) throws IOException {
 		final File localRepo = rss
 				.getLocalRepositoryManager()
 				.getRepository()
@@ -164,124 +746,237 @@ public class InstallMojo extends AbstractMojo {
 				.filter(f -> f.getName().endsWith(".jar"))
 				.collect(Collectors.toList());
 		final List<String> bomArtifactIds = new ArrayList<>(jars.size());
-		for (final File jar : jars) {
-			final String artifactId = jar.getName().substring(0, jar.getName().length() - 4);
-			bomArtifactIds.add(artifactId);
-			final LocalArtifactRequest req = new LocalArtifactRequest()
-					.setArtifact(new DefaultArtifact(WEBOBJECTS_GROUP_ID, artifactId, "jar", version));
-			final LocalArtifactResult res = rss.getLocalRepositoryManager().find(rss, req);
-			if (res.isAvailable()) {
-				// Already installed, skip.
-				continue;
+		final LocalRepositoryManager lrm = rss.getLocalRepositoryManager();
+		final List<Artifact> linked = new ArrayList<>();
+		final Map<File, File> repacked = new LinkedHashMap<>();
+		final Path pomDir = Files.createTempDirectory("woinstall-poms");
+		try {
+			final InstallRequest ireq = new InstallRequest();
+			for (final File jar : jars) {
+				final String artifactId = jar.getName().substring(0, jar.getName().length() - 4);
+				bomArtifactIds.add(artifactId);
+				final Artifact jarArtifact = new DefaultArtifact(WEBOBJECTS_GROUP_ID, artifactId, "jar", version);
+				final Artifact originalArtifact = storeJarEntries
+						? new SubArtifact(jarArtifact, DEFLATED_CLASSIFIER, "jar")
+						: jarArtifact;
+				if (reinstall) {
+					// never write through a hardlink into the next_root
+					Files.deleteIfExists(localRepositoryFile(rss, jarArtifact));
+					Files.deleteIfExists(localRepositoryFile(rss, originalArtifact));
+				} else if (isInLocalRepository(rss, originalArtifact)) {
+					// Already installed, skip.
+					continue;
+				}
+				final List<String> dependencies = dependencyMap.getOrDefault(artifactId, Collections.emptyList());
+				final File pom = generatePomForArtifact(artifactId, version, dependencies, pomDir.toFile());
+				if (linkArtifacts) {
+					final Path target = localRepositoryFile(rss, originalArtifact);
+					if (FileUtilities.linkOrCopy(jar.toPath(), target)) {
+						fileSync.directoryChanged(target.getParent());
+					} else {
+						fileSync.written(target);
+					}
+					linked.add(originalArtifact.setFile(target.toFile()));
+				} else {
+					ireq.addArtifact(originalArtifact.setFile(jar));
+				}
+				if (storeJarEntries) {
+					final File stored = new File(pomDir.toFile(), jar.getName());
+					repacked.put(jar, stored);
+					ireq.addArtifact(jarArtifact.setFile(stored));
+				}
+				ireq.addArtifact(new SubArtifact(jarArtifact, "", "pom", pom));
 			}
-			final List<String> dependencies = dependencyMap.getOrDefault(artifactId, Collections.emptyList());
-			final File pom = generatePomForArtifact(artifactId, version, dependencies);
-			try {
-				installWoArtifact(rss, artifactId, version, jar, pom);
-			} catch (final InstallationException e) {
-				LOG.error("Error installing artifactId: " + artifactId, e);
-				throw new IOException(e);
-			} finally {
-				pom.delete();
+			JarRepacker.repackAll(repacked);
+			// Install webobjects-bom if it doesn't exist
+			final Artifact bomArtifact = new DefaultArtifact(WEBOBJECTS_GROUP_ID, WEBOBJECTS_BOM_ARTIFACT_ID, "pom",
+					version);
+			if (!isInLocalRepository(rss, bomArtifact)) {
+				ireq.addArtifact(bomArtifact.setFile(generatePomForBom(version, bomArtifactIds, pomDir.toFile())));
 			}
+			if (!ireq.getArtifacts().isEmpty()) {
+				try {
+					synchronized (repositoryLock) {
+						repositorySystem.install(rss, ireq);
+					}
+				} catch (final InstallationException e) {
+					LOG.error("Error installing WebObjects artifacts", e);
+					throw new IOException(e);
+				}
+				for (final Artifact artifact : ireq.getArtifacts()) {
+					fileSync.written(localRepositoryFile(rss, artifact));
+				}
+			}
+		} finally {
+			FileUtilities.deleteRecursively(pomDir);
 		}
-		// Install webobjects-bom if it doesn't exist
-		final LocalArtifactRequest req = new LocalArtifactRequest()
-				.setArtifact(new DefaultArtifact(WEBOBJECTS_GROUP_ID, WEBOBJECTS_BOM_ARTIFACT_ID, "pom", version));
-		final LocalArtifactResult res = rss.getLocalRepositoryManager().find(rss, req);
-		if (!res.isAvailable()) {
-			final File bom = generatePomForBom(version, bomArtifactIds);
-			final InstallRequest ireq = new InstallRequest();
-			final Artifact bomArtifact = new DefaultArtifact(WEBOBJECTS_GROUP_ID, WEBOBJECTS_BOM_ARTIFACT_ID, "pom",
-					version)
-					.setFile(bom);
-			ireq.addArtifact(bomArtifact);
-			try {
-				repositorySystem.install(rss, ireq);
-			} catch (final InstallationException e) {
-				LOG.error("Error installing webobjects-bom", e);
-				throw new IOException(e);
-			} finally {
-				bom.delete();
+		fileSync.sync();
+		synchronized (repositoryLock) {
+			for (final Artifact artifact : linked) {
+				lrm.add(rss, new LocalArtifactRegistration(artifact));
 			}
 		}
+		return bomArtifactIds;
 	}
 
-	private File generatePomForBom(
-			final String version,
-			final List<String> artifactIds)
-			throws IOException {
-
-		final Model model = new Model();
-		model.setModelVersion("4.0.0");
-		model.setGroupId(WEBOBJECTS_GROUP_ID);
-		model.setArtifactId(WEBOBJECTS_BOM_ARTIFACT_ID);
-		model.setDescription("WebObjects Bill of Materials");
-		model.setVersion(version);
-		Collections.sort(artifactIds);
-		final DependencyManagement mgt = new DependencyManagement();
-		for (final String artifactId : artifactIds) {
-			final Dependency dep = new Dependency();
-			dep.setGroupId(WEBOBJECTS_GROUP_ID);
-			dep.setArtifactId(artifactId);
-			dep.setVersion(version);
-			mgt.addDependency(dep);
-		}
-		model.setDependencyManagement(mgt);
+	private Artifact cdsArchiveArtifact(final WebObjectsInstaller installer) {
+		return new DefaultArtifact(WEBOBJECTS_GROUP_ID, WEBOBJECTS_BOM_ARTIFACT_ID,
+				ClassDataSharing.archiveClassifier(), "jsa", installer.getVersion());
+	}
 
-		final Path tempPomFile = Files.createTempFile(WEBOBJECTS_BOM_ARTIFACT_ID, ".pom");
-		try (OutputStream writer = Files.newOutputStream(tempPomFile)) {
-			new MavenXpp3Writer().write(writer, model);
-			return tempPomFile.toFile();
-		}
+	/**
+	 * @return the jars of the artifacts in the local repository, in the order of
+	 *         the bom
+	 */
+	private List<File> cdsClassPath(
+			final WebObjectsInstaller installer,
+			final RepositorySystemSession rss,
+			final List<String> artifactIds) {
+		return artifactIds.stream()
+				.sorted()
+				.map(id -> localRepositoryFile(rss,
+						new DefaultArtifact(WEBOBJECTS_GROUP_ID, id, "jar", installer.getVersion())).toFile())
+				.collect(Collectors.toList());
 	}
 
-	private File generatePomForArtifact(
-			final String artifactId,
-			final String version,
-			final List<String> dependencies) throws IOException {
-		final Model model = generateModelForArtifact(artifactId, version, dependencies);
-		final Path tempPomFile = Files.createTempFile(artifactId, ".pom");
-		try (OutputStream writer = Files.newOutputStream(tempPomFile)) {
-			new MavenXpp3Writer().write(writer, model);
-			return tempPomFile.toFile();
+	/**
+	 * Lists the classes of the installed jars and dumps them into a CDS archive
+	 * with the jars in the local repository as class path, in the order of the
+	 * bom, then installs the list and the archive next to the bom. Does nothing
+	 * if the archive for the running JDK is installed already and was dumped
+	 * against the jars as they are now. An archive dumped against other jars,
+	 * which the JVM would silently ignore, is removed and dumped again.
+	 *
+	 * @param recordedStamp the class path stamp recorded for the installed
+	 *                      archive, or null
+	 * @return the class path stamp of the archive
+	 */
+	String installCdsArchive(
+			final WebObjectsInstaller installer,
+			final RepositorySystemSession rss,
+			final List<String> artifactIds,
+			final String recordedStamp,
+			final FileSync fileSync) throws IOException {
+		final Artifact archiveArtifact = cdsArchiveArtifact(installer);
+		final List<File> jars = cdsClassPath(installer, rss, artifactIds);
+		final String stamp = ClassDataSharing.classPathStamp(jars);
+		if (stamp.equals(recordedStamp) && isInLocalRepository(rss, archiveArtifact)) {
+			return stamp;
 		}
+		Files.deleteIfExists(localRepositoryFile(rss, archiveArtifact));
+		final Path cdsDir = Files.createTempDirectory("woinstall-cds");
+		try {
+			final File classList = new File(cdsDir.toFile(), "classlist.txt");
+			final int classCount = ClassDataSharing.writeClassList(jars, classList);
+			final File archive = new File(cdsDir.toFile(), "archive.jsa");
+			LOG.debug("Dumping {} classes into a CDS archive", classCount);
+			ClassDataSharing.dumpArchive(jars, classList, archive);
+			final InstallRequest ireq = new InstallRequest()
+					.addArtifact(new DefaultArtifact(WEBOBJECTS_GROUP_ID, WEBOBJECTS_BOM_ARTIFACT_ID, "classlist",
+							"txt", installer.getVersion()).setFile(classList))
+					.addArtifact(archiveArtifact.setFile(archive));
+			try {
+				synchronized (repositoryLock) {
+					repositorySystem.install(rss, ireq);
+				}
+			} catch (final InstallationException e) {
+				throw new IOException(e);
+			}
+			for (final Artifact artifact : ireq.getArtifacts()) {
+				fileSync.written(localRepositoryFile(rss, artifact));
+			}
+		} finally {
+			FileUtilities.deleteRecursively(cdsDir);
+		}
+		fileSync.sync();
+		return stamp;
 	}
 
-	private Model generateModelForArtifact(
-			final String artifactId,
-			final String version,
-			final List<String> dependencies) {
-		final Model model = new Model();
-		model.setModelVersion("4.0.0");
-		model.setGroupId(WEBOBJECTS_GROUP_ID);
-		model.setArtifactId(artifactId);
-		model.setVersion(version);
-		if (!dependencies.isEmpty()) {
-			final List<Dependency> deps = dependencies.stream().map(name -> {
-				final Dependency dep = new Dependency();
-				dep.setGroupId(WEBOBJECTS_GROUP_ID);
-				dep.setArtifactId(name);
-				dep.setVersion(version);
-				return dep;
-			}).collect(Collectors.toList());
-			model.setDependencies(deps);
-		}
-		return model;
+	private boolean isInLocalRepository(final RepositorySystemSession rss, final Artifact artifact) {
+		final LocalArtifactResult res = rss.getLocalRepositoryManager().find(rss,
+				new LocalArtifactRequest().setArtifact(artifact));
+		return res.isAvailable();
+	}
+
+	/**
+	 * Streams the jars from the installer directly to their local repository
+	 * paths, writes their poms and the bom alongside them, and registers
+	 * everything with the local repository manager. Unlike
+	 * {@link #installArtifacts(WebObjectsInstaller, RepositorySystemSession, boolean, FileSync)}
+	 * this never reads a next_root. Files are synced before they are registered,
+	 * so a registered artifact is never a torn write. With reinstall the jars in
+	 * the local repository are removed and extracted again.
+	 */
+	private List<String> streamArtifacts(
+			final WebObjectsInstaller installer,
+			final RepositorySystemSession rss,
+			final boolean reinstall,
+			final FileSync fileSync,
+			final InstallLog log) throws IOException {
+		final LocalRepositoryManager lrm = rss.getLocalRepositoryManager();
+		final File localRepo = lrm.getRepository().getBasedir();
+		final String version = installer.getVersion();
+		final Map<String, List<String>> dependencyMap = installer.dependencyMap();
+		final List<Artifact> extracted = new ArrayList<>();
+		final List<String> bomArtifactIds = installer.extractJars(localRepo, artifactId -> {
+			final Artifact jarArtifact = new DefaultArtifact(WEBOBJECTS_GROUP_ID, artifactId, "jar", version);
+			final Artifact originalArtifact = storeJarEntries
+					? new SubArtifact(jarArtifact, DEFLATED_CLASSIFIER, "jar")
+					: jarArtifact;
+			final File jar = new File(localRepo, lrm.getPathForLocalArtifact(originalArtifact));
+			if (reinstall) {
+				// never write through a hardlink into a next_root or content store
+				jar.delete();
+			} else if (lrm.find(rss, new LocalArtifactRequest().setArtifact(originalArtifact)).isAvailable()) {
+				// Already installed, skip.
+				return null;
+			}
+			extracted.add(originalArtifact.setFile(jar));
+			return jar;
+		}, indexPayload, fileSync, log);
+		final List<Artifact> registrations = new ArrayList<>();
+		final Map<File, File> repacked = new LinkedHashMap<>();
+		for (final Artifact originalArtifact : extracted) {
+			registrations.add(originalArtifact);
+			final Artifact jarArtifact = new SubArtifact(originalArtifact, "", "jar");
+			if (storeJarEntries) {
+				final File stored = new File(localRepo, lrm.getPathForLocalArtifact(jarArtifact));
+				repacked.put(originalArtifact.getFile(), stored);
+				registrations.add(jarArtifact.setFile(stored));
+			}
+			final String artifactId = jarArtifact.getArtifactId();
+			final List<String> dependencies = dependencyMap.getOrDefault(artifactId, Collections.emptyList());
+			final Artifact pomArtifact = new SubArtifact(jarArtifact, "", "pom");
+			final File pom = new File(localRepo, lrm.getPathForLocalArtifact(pomArtifact));
+			writeModel(generateModelForArtifact(artifactId, version, dependencies), pom);
+			fileSync.written(pom.toPath());
+			registrations.add(pomArtifact.setFile(pom));
+		}
+		JarRepacker.repackAll(repacked);
+		for (final File stored : repacked.values()) {
+			fileSync.written(stored.toPath());
+		}
+		// Install webobjects-bom if it doesn't exist
+		final Artifact bomArtifact = new DefaultArtifact(WEBOBJECTS_GROUP_ID, WEBOBJECTS_BOM_ARTIFACT_ID, "pom",
+				version);
+		final LocalArtifactResult res = lrm.find(rss, new LocalArtifactRequest().setArtifact(bomArtifact));
+		if (!res.isAvailable()) {
+			final File bom = new File(localRepo, lrm.getPathForLocalArtifact(bomArtifact));
+			writeModel(generateModelForBom(version, bomArtifactIds), bom);
+			fileSync.written(bom.toPath());
+			registrations.add(bomArtifact.setFile(bom));
+		}
+		fileSync.sync();
+		synchronized (repositoryLock) {
+			for (final Artifact artifact : registrations) {
+				lrm.add(rss, new LocalArtifactRegistration(artifact));
+			}
+		}
+		return bomArtifactIds;
 	}
 
-	private void installWoArtifact(final RepositorySystemSession rss,
-			final String artifactId,
-			final String version,
-			final File jar,
-			final File pom)
-			throws InstallationException {
-		final InstallRequest ireq = new InstallRequest();
-		final Artifact jarArtifact = new DefaultArtifact(WEBOBJECTS_GROUP_ID, artifactId, "jar", version)
-				.setFile(jar);
-		ireq.addArtifact(jarArtifact);
-		final Artifact pomArtifact = new SubArtifact(jarArtifact, "", "pom", pom);
-		ireq.addArtifact(pomArtifact);
-		repositorySystem.install(rss, ireq);
+	private Path localRepositoryFile(final RepositorySystemSession rss, final Artifact artifact) {
+		final LocalRepositoryManager lrm = rss.getLocalRepositoryManager();
+		return new File(lrm.getRepository().getBasedir(), lrm.getPathForLocalArtifact(artifact)).toPath();
 	}
 }
@@ -0,0 +1,172 @@
+package org.wocommunity.maven.plugins.woinstall;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.inject.Provider;
+import javax.inject.Singleton;
+
+import org.apache.maven.execution.MavenSession;
+import org.apache.maven.model.Model;
+import org.apache.maven.repository.internal.MavenWorkspaceReader;
+import org.eclipse.aether.artifact.Artifact;
+import org.eclipse.aether.repository.WorkspaceRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Resolves com.webobjects artifacts straight from the installed next_roots,
+ * so builds use the jars in
+ * com/webobjects/.next_roots/VERSION/Library/WebObjects/lib without copies of
+ * them in the local repository. The poms of the jars and the bom are
+ * generated in memory from {@link WebObjectsInstaller#dependencyMap()}, and
+ * only written to a temporary file when Maven asks for a pom file, as it does
+ * for bom imports.
+ * <p>
+ * Loaded as a Maven core extension by listing this plugin in
+ * .mvn/extensions.xml. Artifacts of versions without an installed next_root
+ * are left to the local and remote repositories.
+ */
+@Named("ide")
+@Singleton
+public class NextRootWorkspaceReader implements MavenWorkspaceReader {
+	private static final Logger LOG = LoggerFactory.getLogger(NextRootWorkspaceReader.class);
+
+	private final WorkspaceRepository repository = new WorkspaceRepository("woinstall-next-roots");
+	private final Provider<MavenSession> sessionProvider;
+	private final Map<String, File> pomFiles = new ConcurrentHashMap<>();
+	private File pomDir;
+
+	@Inject
+	public NextRootWorkspaceReader(final Provider<MavenSession> sessionProvider) {
+		this.sessionProvider = sessionProvider;
+	}
+
+	@Override
+	public WorkspaceRepository getRepository() {
+		return repository;
+	}
+
+	@Override
+	public File findArtifact(final Artifact artifact) {
+		final File jarRoot = jarRoot(artifact);
+		if (jarRoot == null || !artifact.getClassifier().isEmpty()) {
+			return null;
+		}
+		if ("jar".equals(artifact.getExtension())) {
+			final File jar = new File(jarRoot, artifact.getArtifactId() + ".jar");
+			return jar.isFile() ? jar : null;
+		}
+		if ("pom".equals(artifact.getExtension())) {
+			final Model model = findModel(artifact);
+			return model == null ? null : pomFile(model);
+		}
+		return null;
+	}
+
+	@Override
+	public List<String> findVersions(final Artifact artifact) {
+		if (findArtifact(artifact) == null) {
+			return Collections.emptyList();
+		}
+		return Collections.singletonList(artifact.getVersion());
+	}
+
+	@Override
+	public Model findModel(final Artifact artifact) {
+		final File jarRoot = jarRoot(artifact);
+		if (jarRoot == null || !artifact.getClassifier().isEmpty()) {
+			return null;
+		}
+		final String version = artifact.getVersion();
+		final String artifactId = artifact.getArtifactId();
+		if (AbstractWebObjectsMojo.WEBOBJECTS_BOM_ARTIFACT_ID.equals(artifactId)) {
+			final List<String> artifactIds = new ArrayList<>();
+			final File[] jars = jarRoot.listFiles((dir, name) -> name.endsWith(".jar"));
+			for (final File jar : jars == null ? new File[0] : jars) {
+				artifactIds.add(jar.getName().substring(0, jar.getName().length() - 4));
+			}
+			return AbstractWebObjectsMojo.generateModelForBom(version, artifactIds);
+		}
+		if (!new File(jarRoot, artifactId + ".jar").isFile()) {
+			return null;
+		}
+		final List<String> dependencies = installer(artifact).dependencyMap()
+				.getOrDefault(artifactId, Collections.emptyList());
+		return AbstractWebObjectsMojo.generateModelForArtifact(artifactId, version, dependencies);
+	}
+
+	/**
+	 * @return the installed jar directory of the artifact's version, or null if
+	 *         the artifact is not a WebObjects artifact or its version has no
+	 *         next_root
+	 */
+	private File jarRoot(final Artifact artifact) {
+		if (!AbstractWebObjectsMojo.WEBOBJECTS_GROUP_ID.equals(artifact.getGroupId())) {
+			return null;
+		}
+		final WebObjectsInstaller installer = installer(artifact);
+		final File localRepo = localRepository();
+		if (installer == null || localRepo == null) {
+			return null;
+		}
+		final File jarRoot = installer.getJarRoot(localRepo);
+		return jarRoot.isDirectory() ? jarRoot : null;
+	}
+
+	private static WebObjectsInstaller installer(final Artifact artifact) {
+		try {
+			return WebObjectsInstaller.forVersion(artifact.getVersion());
+		} catch (final UnknownVersionException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * @return the local repository of the current session, or null outside of a
+	 *         session
+	 */
+	private File localRepository() {
+		try {
+			return sessionProvider.get().getRepositorySession().getLocalRepository().getBasedir();
+		} catch (final RuntimeException e) {
+			LOG.debug("No Maven session to find the local repository in", e);
+			return null;
+		}
+	}
+
+	/**
+	 * @return a pom file of the model, written on first use and removed when the
+	 *         JVM exits
+	 */
+	private File pomFile(final Model model) {
+		final String name = model.getArtifactId() + "-" + model.getVersion() + ".pom";
+		return pomFiles.computeIfAbsent(name, key -> {
+			try {
+				final File pom = new File(pomDir(), key);
+				pom.deleteOnExit();
+				AbstractWebObjectsMojo.writeModel(model, pom);
+				return pom;
+			} catch (final IOException e) {
+				LOG.warn("Could not write the pom {}", key, e);
+				return null;
+			}
+		});
+	}
+
+	private synchronized File pomDir() throws IOException {
+		if (pomDir == null) {
+			pomDir = Files.createTempDirectory("woinstall-poms").toFile();
+			pomDir.deleteOnExit();
+		}
+		return pomDir;
+	}
+}
@@ -1,23 +1,39 @@
 package org.wocommunity.maven.plugins.woinstall;
 
 import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.EOFException;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
 import java.util.zip.GZIPInputStream;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.wocommunity.maven.plugins.woinstall.archiver.CPIO;
+import org.wocommunity.maven.plugins.woinstall.archiver.XarEntry;
 import org.wocommunity.maven.plugins.woinstall.archiver.XarFile;
+import org.wocommunity.maven.plugins.woinstall.gzip.GzipIndex;
+import org.wocommunity.maven.plugins.woinstall.gzip.IndexingGzipInputStream;
+import org.wocommunity.maven.plugins.woinstall.gzip.ParallelGzipInputStream;
 import org.wocommunity.maven.plugins.woinstall.io.BlockEntry;
+import org.wocommunity.maven.plugins.woinstall.io.ContentStore;
+import org.wocommunity.maven.plugins.woinstall.io.Durability;
+import org.wocommunity.maven.plugins.woinstall.io.FileSync;
+import org.wocommunity.maven.plugins.woinstall.io.FileUtilities;
 import org.wocommunity.maven.plugins.woinstall.io.MultiBlockInputStream;
+import org.wocommunity.maven.plugins.woinstall.io.ReadAheadInputStream;
 import org.wocommunity.maven.plugins.woinstall.ui.IWOInstallerProgressMonitor;
 import org.wocommunity.maven.plugins.woinstall.ui.NullProgressMonitor;
 
@@ -29,16 +45,30 @@ public enum WebObjectsInstaller {
 			58556928L,
 			107601091L) {
 		@Override
-		protected InputStream getInstallFileInputStream(final File rootDir,
-				final IWOInstallerProgressMonitor progressMonitor)
-				throws IOException {
-			return new GZIPInputStream(
-					new XarFile(
-							new MultiBlockInputStream(
-									new BufferedInputStream(
-											new FileInputStream(getInstallerFile(rootDir))),
-									Arrays.asList(new BlockEntry(getEntryOffset(), getEntryLength()))))
-							.getInputStream("Payload"));
+		protected InputStream getPayloadInputStream(final File rootDir) throws IOException {
+			return getXarFile(rootDir).getInputStream("Payload");
+		}
+
+		@Override
+		protected long getPayloadOffset(final File rootDir) throws IOException {
+			final XarFile xarFile = getXarFile(rootDir);
+			try {
+				final XarEntry payload = xarFile.getEntry("Payload");
+				if (payload == null || payload.getCompression() != null) {
+					throw new IOException("The installer payload is not stored uncompressed.");
+				}
+				return getEntryOffset() + xarFile.getDataOffset(payload);
+			} finally {
+				xarFile.close();
+			}
+		}
+
+		private XarFile getXarFile(final File rootDir) throws IOException {
+			return new XarFile(
+					new MultiBlockInputStream(
+							new BufferedInputStream(
+									new FileInputStream(getInstallerFile(rootDir))),
+							Arrays.asList(new BlockEntry(getEntryOffset(), getEntryLength()))));
 		}
 	},
 	WO_5_3_3("5.3.3",
@@ -48,19 +78,27 @@ public enum WebObjectsInstaller {
 			11608064L,
 			29672581L) {
 		@Override
-		protected InputStream getInstallFileInputStream(final File rootDir,
-				final IWOInstallerProgressMonitor progressMonitor)
-				throws IOException {
-			return new GZIPInputStream(
-					new MultiBlockInputStream(
-							new BufferedInputStream(
-									new FileInputStream(getInstallerFile(rootDir))),
-							Arrays.asList(new BlockEntry(getEntryOffset(), getEntryLength()))));
+		protected InputStream getPayloadInputStream(final File rootDir) throws IOException {
+			return new MultiBlockInputStream(
+					new BufferedInputStream(
+							new FileInputStream(getInstallerFile(rootDir))),
+					Arrays.asList(new BlockEntry(getEntryOffset(), getEntryLength())));
+		}
+
+		@Override
+		protected long getPayloadOffset(final File rootDir) {
+			return getEntryOffset();
 		}
 	};
 
 	private static final Logger LOG = LoggerFactory.getLogger(WebObjectsInstaller.class);
 
+	/**
+	 * Input buffer of the payload inflater, the default of 512 bytes costs a
+	 * read call on the stream below for every 512 compressed bytes.
+	 */
+	private static final int INFLATER_BUFFER_SIZE = 64 * 1024;
+
 	private static final String LICENSE_TEXT_5_4_3 = "WebObjects License Agreement extract:\n\n" +
 			"Subject to the terms and conditions of this License, you may incorporate the\n" +
 			"WebObjects Software included in the Developer Software into application\n" +
@@ -77,6 +115,11 @@ public enum WebObjectsInstaller {
 
 	private static final Map<String, List<String>> DEPENDENCY_MAP = initDependencyMap();
 
+	/**
+	 * The path of the jar directory relative to the next_root.
+	 */
+	private static final String JAR_ROOT_PATH = "Library/WebObjects/lib/";
+
 	WebObjectsInstaller(final String version,
 			final String url,
 			final String checksum,
@@ -98,8 +141,19 @@ public enum WebObjectsInstaller {
 	private final Long entryOffset;
 	private final Long entryLength;
 
-	protected abstract InputStream getInstallFileInputStream(File rootDir, IWOInstallerProgressMonitor progressMonitor)
-			throws IOException;
+	/**
+	 * @param rootDir the root repository directory.
+	 * @return the gzip compressed cpio archive holding the next_root
+	 * @throws IOException if the installer cannot be read
+	 */
+	protected abstract InputStream getPayloadInputStream(File rootDir) throws IOException;
+
+	/**
+	 * @param rootDir the root repository directory.
+	 * @return the offset of the payload from the start of the installer file
+	 * @throws IOException if the payload cannot be located
+	 */
+	protected abstract long getPayloadOffset(File rootDir) throws IOException;
 
 	private static Map<String, List<String>> initDependencyMap() {
 		final Map<String, List<String>> map = new ConcurrentHashMap<>();
@@ -181,6 +235,15 @@ public enum WebObjectsInstaller {
 		return new File(rootDir, getInstallerFilePath());
 	}
 
+	/**
+	 * @param rootDir the root repository directory.
+	 * @return the manifest of the installation of this version, written once it
+	 *         has completed.
+	 */
+	public File getManifestFile(final File rootDir) {
+		return new File(rootDir, "com/webobjects/.archive/WebObjects_" + version + ".manifest");
+	}
+
 	/**
 	 * @return the path to the webobjects installer download file relative to the
 	 *         repository root.
@@ -202,18 +265,281 @@ public enum WebObjectsInstaller {
 	}
 
 	public void installNextRoot(final File rootDir) throws IOException {
+		installNextRoot(rootDir, false, false, new FileSync(Durability.NONE), InstallLog.of(LOG));
+	}
+
+	/**
+	 * Installs the next_root, optionally sharing identical files with other
+	 * installed versions through the content store returned by
+	 * {@link #getContentStore(File)}. The next_root is extracted into a staging
+	 * directory that is synced according to the file sync's durability and then
+	 * renamed into place, so an interrupted extraction is never mistaken for a
+	 * complete one.
+	 *
+	 * @param rootDir      the root repository directory.
+	 * @param deduplicate  true to hardlink files whose content is already stored
+	 * @param indexPayload true to index the payload if it has no index yet, see
+	 *                     {@link #getPayloadIndexFile(File)}
+	 * @param fileSync     the file sync every extracted file is reported to
+	 * @param log          the log of the version's installation
+	 * @throws IOException if the installer cannot be extracted
+	 */
+	public void installNextRoot(final File rootDir, final boolean deduplicate, final boolean indexPayload,
+			final FileSync fileSync, final InstallLog log) throws IOException {
 		final File nextRoot = getNextRoot(rootDir);
 		if (nextRoot.exists()) {
-			LOG.debug("next root exists. skipping installation step.");
+			log.debug("next root exists. skipping installation step.");
 			return;
 		}
-		nextRoot.mkdirs();
+		final File stagingRoot = new File(nextRoot.getParentFile(), nextRoot.getName() + ".partial");
+		if (stagingRoot.exists()) {
+			log.info("Removing incomplete next root {}", stagingRoot);
+			FileUtilities.deleteRecursively(stagingRoot.toPath());
+		}
+		stagingRoot.mkdirs();
+		final IWOInstallerProgressMonitor progressMonitor = new NullProgressMonitor();
+		final ContentStore contentStore = deduplicate ? getContentStore(rootDir) : null;
+		if (contentStore != null) {
+			contentStore.setFileSync(fileSync);
+		}
+		try (Payload payload = openPayload(rootDir, indexPayload, log)) {
+			final CPIO cpio = payload.newCPIO();
+			cpio.setContentStore(contentStore);
+			cpio.setFileSync(fileSync);
+			cpio.extractTo(stagingRoot, progressMonitor);
+			progressMonitor.done();
+			payload.finish();
+		}
+		fileSync.sync();
+		Files.move(stagingRoot.toPath(), nextRoot.toPath(), StandardCopyOption.ATOMIC_MOVE);
+		fileSync.directoryChanged(nextRoot.getParentFile().toPath());
+		fileSync.sync();
+		if (contentStore != null) {
+			log.info("Next root content store wrote {} bytes and shared {} bytes.",
+					contentStore.getBytesWritten(), contentStore.getBytesShared());
+		}
+	}
+
+	/**
+	 * Streams the jars in the installer's lib directory straight to their
+	 * destination files without materializing a next_root.
+	 *
+	 * @param rootDir      the root repository directory.
+	 * @param destinations maps an artifactId to the file its jar is written to, or
+	 *                     to null if the jar should not be extracted.
+	 * @return the artifactIds of every jar found in the lib directory, whether it
+	 *         was extracted or not.
+	 * @throws IOException if the installer cannot be read or a jar written
+	 */
+	public List<String> extractJars(final File rootDir, final Function<String, File> destinations)
+			throws IOException {
+		return extractJars(rootDir, destinations, false, new FileSync(Durability.NONE), InstallLog.of(LOG));
+	}
+
+	/**
+	 * Streams the jars in the installer's lib directory straight to their
+	 * destination files, reporting every written jar to the file sync. The
+	 * caller is responsible for syncing it. Once the payload has been indexed,
+	 * only the jars that are written are inflated.
+	 *
+	 * @param rootDir      the root repository directory.
+	 * @param destinations maps an artifactId to the file its jar is written to, or
+	 *                     to null if the jar should not be extracted.
+	 * @param indexPayload true to index the payload if it has no index yet
+	 * @param fileSync     the file sync written jars are reported to
+	 * @param log          the log of the version's installation
+	 * @return the artifactIds of every jar found in the lib directory, whether it
+	 *         was extracted or not.
+	 * @throws IOException if the installer cannot be read or a jar written
+	 */
+	public List<String> extractJars(final File rootDir, final Function<String, File> destinations,
+			final boolean indexPayload, final FileSync fileSync, final InstallLog log) throws IOException {
+		final List<String> artifactIds = new ArrayList<>();
+		final GzipIndex index = readPayloadIndex(rootDir, log);
+		if (index != null && !index.getEntries().isEmpty()) {
+			final GzipIndex.Source source = getPayloadSource(rootDir);
+			for (final Map.Entry<String, GzipIndex.Entry> entry : index.getEntries().entrySet()) {
+				final String artifactId = jarArtifactId(entry.getKey().replaceFirst("^\\./", ""));
+				if (artifactId == null) {
+					continue;
+				}
+				artifactIds.add(artifactId);
+				final File destination = destinations.apply(artifactId);
+				if (destination != null) {
+					final CPIO cpio = new CPIO(index.open(source, entry.getValue().getUncompressedOffset()));
+					cpio.setFileSync(fileSync);
+					try {
+						cpio.extractEntry(destination, entry.getValue().getCrc());
+					} catch (final IOException e) {
+						// the index may not match the installer, build it again next time
+						Files.deleteIfExists(getPayloadIndexFile(rootDir).toPath());
+						throw e;
+					}
+				}
+			}
+			return artifactIds;
+		}
 		final IWOInstallerProgressMonitor progressMonitor = new NullProgressMonitor();
-		try (InputStream in = getInstallFileInputStream(rootDir, progressMonitor)) {
+		try (Payload payload = openPayload(rootDir, indexPayload, log)) {
+			final CPIO cpio = payload.newCPIO();
+			cpio.setFileSync(fileSync);
+			cpio.extractEntries(name -> {
+				final String artifactId = jarArtifactId(name);
+				if (artifactId == null) {
+					return null;
+				}
+				artifactIds.add(artifactId);
+				return destinations.apply(artifactId);
+			}, progressMonitor);
+			progressMonitor.done();
+			payload.finish();
+		}
+		return artifactIds;
+	}
+
+	/**
+	 * @return the artifactId of a jar directly in the lib directory, or null for
+	 *         any other entry name.
+	 */
+	private static String jarArtifactId(final String name) {
+		if (!name.startsWith(JAR_ROOT_PATH) || !name.endsWith(".jar")
+				|| name.indexOf('/', JAR_ROOT_PATH.length()) != -1) {
+			return null;
+		}
+		return name.substring(JAR_ROOT_PATH.length(), name.length() - 4);
+	}
+
+	/**
+	 * @param rootDir the root repository directory.
+	 * @return the index of the installer payload, stored beside the installer
+	 *         once the payload has been read through with indexing enabled.
+	 *         Building it inflates the payload with the slower pure Java
+	 *         {@link IndexingGzipInputStream} once, after which extractions seek
+	 *         to the jars they write and inflate in parallel.
+	 */
+	public File getPayloadIndexFile(final File rootDir) {
+		return new File(rootDir, getInstallerFilePath() + ".index");
+	}
+
+	/**
+	 * @return the payload index, or null if there is none, it cannot be read or
+	 *         it was built from another installer file.
+	 */
+	private GzipIndex readPayloadIndex(final File rootDir, final InstallLog log) {
+		final File indexFile = getPayloadIndexFile(rootDir);
+		if (!indexFile.isFile()) {
+			return null;
+		}
+		try {
+			final GzipIndex index = GzipIndex.read(indexFile);
+			if (!index.isSourceFile(getInstallerFile(rootDir), getPayloadOffset(rootDir))) {
+				log.info("Ignoring payload index {}, the installer has changed since it was built.", indexFile);
+				return null;
+			}
+			return index;
+		} catch (final IOException e) {
+			log.warn("Ignoring unreadable payload index {}: {}", indexFile, e.getMessage());
+			return null;
+		}
+	}
+
+	private GzipIndex.Source getPayloadSource(final File rootDir) throws IOException {
+		final File installerFile = getInstallerFile(rootDir);
+		final long payloadOffset = getPayloadOffset(rootDir);
+		return offset -> {
+			final InputStream in = new BufferedInputStream(new FileInputStream(installerFile));
+			long toSkip = payloadOffset + offset;
+			while (toSkip > 0) {
+				final long skipped = in.skip(toSkip);
+				if (skipped <= 0) {
+					in.close();
+					throw new EOFException("Unexpected end of installer file " + installerFile);
+				}
+				toSkip -= skipped;
+			}
+			return in;
+		};
+	}
+
+	/**
+	 * Opens the payload. With an index its spans are inflated in parallel. If
+	 * there is none and indexPayload is set, the index is built while the payload
+	 * is read and written by {@link Payload#finish()}, otherwise the payload is
+	 * inflated by the native {@link GZIPInputStream}. Either way inflating runs on
+	 * other threads than the one extracting the files.
+	 */
+	private Payload openPayload(final File rootDir, final boolean indexPayload, final InstallLog log)
+			throws IOException {
+		final GzipIndex index = readPayloadIndex(rootDir, log);
+		if (index != null) {
+			return new Payload(rootDir,
+					new ReadAheadInputStream(new ParallelGzipInputStream(index, getPayloadSource(rootDir))), null, log);
+		}
+		if (!indexPayload) {
+			return new Payload(rootDir,
+					new ReadAheadInputStream(new GZIPInputStream(getPayloadInputStream(rootDir), INFLATER_BUFFER_SIZE)),
+					null, log);
+		}
+		final IndexingGzipInputStream indexing = new IndexingGzipInputStream(getPayloadInputStream(rootDir));
+		return new Payload(rootDir, new ReadAheadInputStream(indexing), indexing, log);
+	}
+
+	/**
+	 * The inflated payload being extracted.
+	 */
+	private final class Payload implements Closeable {
+		private final File rootDir;
+		private final InputStream in;
+		private final IndexingGzipInputStream indexing;
+		private final InstallLog log;
+		private final Map<String, GzipIndex.Entry> entries = new LinkedHashMap<>();
+		private boolean finished;
+
+		Payload(final File rootDir, final InputStream in, final IndexingGzipInputStream indexing,
+				final InstallLog log) {
+			this.rootDir = rootDir;
+			this.in = in;
+			this.indexing = indexing;
+			this.log = log;
+		}
+
+		CPIO newCPIO() {
 			final CPIO cpio = new CPIO(in);
 			cpio.setLength(getRawLength());
-			cpio.extractTo(nextRoot, progressMonitor);
-			progressMonitor.done();
+			if (indexing != null) {
+				cpio.setEntryListener((name, offset, crc) -> entries.put(name, new GzipIndex.Entry(offset, crc)));
+			}
+			return cpio;
+		}
+
+		/**
+		 * Writes the index built while the payload was read to its end, unless the
+		 * payload cannot be located in the installer to be read from it.
+		 */
+		void finish() throws IOException {
+			finished = true;
+			if (indexing != null) {
+				final long payloadOffset;
+				try {
+					payloadOffset = getPayloadOffset(rootDir);
+				} catch (final IOException e) {
+					log.debug("Not indexing the payload: {}", e.getMessage());
+					return;
+				}
+				final GzipIndex index = indexing.getIndex();
+				entries.forEach(index::putEntry);
+				index.setSourceFile(getInstallerFile(rootDir), payloadOffset);
+				index.write(getPayloadIndexFile(rootDir));
+			}
+		}
+
+		@Override
+		public void close() throws IOException {
+			in.close();
+			if (!finished && indexing == null) {
+				// the index may not match the installer, build it again next time
+				Files.deleteIfExists(getPayloadIndexFile(rootDir).toPath());
+			}
 		}
 	}
 
@@ -221,7 +547,15 @@ public enum WebObjectsInstaller {
 		return new File(rootDir, "com/webobjects/.next_roots/" + getVersion() + "/");
 	}
 
+	/**
+	 * @param rootDir the root repository directory.
+	 * @return the content store shared by the next_roots of every version.
+	 */
+	public ContentStore getContentStore(final File rootDir) {
+		return new ContentStore(new File(rootDir, "com/webobjects/.next_roots/.blobs/"));
+	}
+
 	public File getJarRoot(final File rootDir) {
-		return new File(getNextRoot(rootDir), "Library/WebObjects/lib/");
+		return new File(getNextRoot(rootDir), JAR_ROOT_PATH);
 	}
 }
@@ -4,17 +4,36 @@ import java.io.BufferedInputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
-import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
 import java.io.Serializable;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.FileSystemException;
 import java.nio.file.Files;
+import java.nio.file.OpenOption;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Function;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
 
 import org.wocommunity.maven.plugins.woinstall.io.BoundedInputStream;
+import org.wocommunity.maven.plugins.woinstall.io.ContentStore;
+import org.wocommunity.maven.plugins.woinstall.io.CountingInputStream;
+import org.wocommunity.maven.plugins.woinstall.io.Durability;
+import org.wocommunity.maven.plugins.woinstall.io.FileSync;
 import org.wocommunity.maven.plugins.woinstall.io.FileUtilities;
 import org.wocommunity.maven.plugins.woinstall.ui.IWOInstallerProgressMonitor;
 import org.wocommunity.maven.plugins.woinstall.ui.NullProgressMonitor;
@@ -24,11 +43,42 @@ public class CPIO {
 	public static final int S_IFDIR = 16384;
 	public static final int S_IFREG = 32768;
 	public static final int S_IFLNK = 40960;
+	public static final int S_IFMT = 61440;
+
+	/**
+	 * Told about every entry of an archive once its data has been read.
+	 */
+	@FunctionalInterface
+	public interface EntryListener {
+		/**
+		 * @param name   the name of the entry
+		 * @param offset the offset of the entry header in the archive
+		 * @param crc    the CRC-32 of the entry's data
+		 */
+		void entryRead(String name, long offset, long crc);
+	}
 
 	private File _cpioFile;
 	InputStream paxStream;
 	long fileLength = 0;
 
+	private ContentStore contentStore;
+	private FileSync fileSync = new FileSync(Durability.NONE);
+	private final CountingInputStream position;
+	private EntryListener entryListener;
+	private boolean checksumEntries;
+	private final CRC32 entryCrc = new CRC32();
+	private String entryName;
+	private long entryOffset;
+
+	private static final OpenOption[] NEW_FILE = { StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE };
+	private static final OpenOption[] REPLACE_FILE = { StandardOpenOption.CREATE,
+			StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE };
+
+	private final byte[] copyBuffer = new byte[1024 * 64];
+	private final byte[] sixBuffer = new byte[6];
+	private final byte[] elevenBuffer = new byte[11];
+
 	public CPIO(final File cpioFile) throws FileNotFoundException {
 		this(new BufferedInputStream(new FileInputStream(cpioFile)));
 		_cpioFile = cpioFile;
@@ -37,85 +87,91 @@ public class CPIO {
 	}
 
 	public CPIO(final InputStream input) {
-		paxStream = input;
+		position = new CountingInputStream(input);
+		paxStream = position;
 	}
 
 	public void setLength(final long length) {
 		fileLength = length;
 	}
 
-	@SuppressWarnings("unused")
+	/**
+	 * Sets a content store through which regular files are written, so that files
+	 * whose content is already in the store become hardlinks to it.
+	 *
+	 * @param contentStore the store, or null to write every file directly
+	 */
+	public void setContentStore(final ContentStore contentStore) {
+		this.contentStore = contentStore;
+	}
+
+	/**
+	 * Sets the file sync that every extracted file, link and directory is reported
+	 * to. Callers decide when to {@link FileSync#sync()} it.
+	 *
+	 * @param fileSync the file sync
+	 */
+	public void setFileSync(final FileSync fileSync) {
+		this.fileSync = fileSync;
+	}
+
+	/**
+	 * Sets a listener that is told the name, the offset in the archive and the
+	 * CRC-32 of the data of every entry read, the trailer excepted. An entry is
+	 * reported once the header of the next one has been reached.
+	 *
+	 * @param entryListener the listener, or null
+	 */
+	public void setEntryListener(final EntryListener entryListener) {
+		this.entryListener = entryListener;
+		checksumEntries = entryListener != null;
+	}
+
 	public void extractTo(final File destinationFolder,
 			final IWOInstallerProgressMonitor progressMonitor) throws IOException {
 		progressMonitor.beginTask("Extracting WebObjects ...", fileLength);
 
 		long amount = 0;
 		final List<Link> links = new LinkedList<>();
+		final HardLinks hardLinks = new HardLinks();
+		final DirectoryCache directories = new DirectoryCache(fileSync);
+		final Path destinationPath = destinationFolder.toPath();
+		directories.ensureDirectory(destinationPath);
 
 		try {
-			final byte[] sixBuffer = new byte[6];
-			final byte[] elevenBuffer = new byte[11];
-			boolean done = false;
-			do {
-				final String magic = readString(paxStream, sixBuffer);
-				if (!"070707".equals(magic)) {
-					throw new IOException("Expected magic '070707' but got '" + magic + "' (next = "
-							+ readString(paxStream, new byte[50]) + ").");
-				}
-				final String dev = readString(paxStream, sixBuffer);
-				final String ino = readString(paxStream, sixBuffer);
-				final String modeStr = readString(paxStream, sixBuffer);
-				final String uid = readString(paxStream, sixBuffer);
-				final String gid = readString(paxStream, sixBuffer);
-				final String nlink = readString(paxStream, sixBuffer);
-				final String rdev = readString(paxStream, sixBuffer);
-				final String mtime = readString(paxStream, elevenBuffer);
-				final String nameSizeStr = readString(paxStream, sixBuffer);
-				final String fileSizeStr = readString(paxStream, elevenBuffer);
-
-				final int nameSize = Integer.parseInt(nameSizeStr, 8);
-				final String name = readString(paxStream, new byte[nameSize]);
-
-				final int fileSize = Integer.parseInt(fileSizeStr, 8);
-
-				if ("TRAILER!!!".equals(name)) {
-					done = true;
-				} else {
-					final File destinationFile = toFile(destinationFolder, name);
-					final int mode = Integer.parseInt(modeStr, 8);
-					if ((mode & S_IFDIR) == S_IFDIR) {
-						if (".".equals(name)) {
-							// skip
-						} else if (destinationFile.exists()) {
-							throw new IOException("The directory '" + destinationFile + "' already exists.");
-						} else if (!destinationFile.mkdirs()) {
-							throw new IOException("Failed to create directory '" + destinationFile + "'.");
-						}
-						skipFully(paxStream, fileSize);
-					} else if ((mode & S_IFLNK) == S_IFLNK) {
-						final String realName = readString(paxStream, new byte[fileSize]);
-						final File realFile = new File(realName);
-						links.add(new Link(realFile, destinationFile));
-					} else if ((mode & S_IFREG) == S_IFREG) {
-						if (destinationFile.exists()) {
-							throw new IOException("The file '" + destinationFile + "' already exists.");
-						}
-						final InputStream is = new BoundedInputStream(paxStream, 0, fileSize);
-						final FileOutputStream fos = new FileOutputStream(destinationFile);
-						FileUtilities.writeInputStreamToOutputStream(is, fos, fileSize, new NullProgressMonitor());
+			Header header;
+			while ((header = readHeader()) != null) {
+				final Path destination = toPath(destinationPath, header.name);
+				if (header.isDirectory()) {
+					if (".".equals(header.name)) {
+						// skip
 					} else {
-						throw new IOException("Unknown mode " + modeStr + " for " + name + ".");
+						directories.createDirectory(destination);
 					}
-
-					final int relativeAmount = 70 + nameSize + fileSize;
-					amount += relativeAmount;
-					progressMonitor.worked(amount);
+					skipData(header);
+				} else if (header.isSymbolicLink()) {
+					final String realName = readString(entryData(header), new byte[header.fileSize]);
+					final File realFile = new File(realName);
+					links.add(new Link(realFile, destination.toFile()));
+				} else if (header.isRegularFile()) {
+					directories.ensureDirectory(destination.getParent());
+					if (header.linkCount() > 1) {
+						hardLinks.extract(header, destination);
+					} else {
+						writeEntry(header, destination, NEW_FILE);
+					}
+				} else {
+					throw new IOException("Unknown mode " + header.modeStr + " for " + header.name + ".");
 				}
 
+				amount += header.relativeAmount();
+				progressMonitor.worked(amount);
+
 				if (progressMonitor.isCanceled()) {
 					throw new IOException("Operation canceled.");
 				}
-			} while (!done);
+			}
+			hardLinks.finish();
 		} finally {
 //      System.out.println(amount + ":" + fileLength);
 			paxStream.close();
@@ -126,18 +182,200 @@ public class CPIO {
 		int linkNum = 0;
 		for (final Link link : links) {
 			link.create();
+			fileSync.directoryChanged(link.getLinkFile().toPath().getParent());
 			progressMonitor.worked(linkNum++);
 		}
 	}
 
-	protected File toFile(final File workingDir, final String path) {
-		String localPath = path.replaceFirst("^\\./", "");
-		localPath = localPath.replace("/", File.separator);
-		File file = new File(localPath);
-		if (!file.isAbsolute()) {
-			file = new File(workingDir, localPath);
+	/**
+	 * Extracts only the regular file entries for which the destinations function
+	 * returns a file. Every other entry, including directories and links, is
+	 * skipped. Missing parent directories are created and existing files are
+	 * replaced.
+	 *
+	 * @param destinations   maps an entry name, without the leading "./", to the
+	 *                       file it is written to, or to null to skip the entry.
+	 * @param progressMonitor the progress monitor
+	 * @throws IOException if the archive cannot be read or an entry written
+	 */
+	public void extractEntries(final Function<String, File> destinations,
+			final IWOInstallerProgressMonitor progressMonitor) throws IOException {
+		progressMonitor.beginTask("Extracting WebObjects ...", fileLength);
+
+		long amount = 0;
+		final DirectoryCache directories = new DirectoryCache(fileSync);
+		try {
+			Header header;
+			while ((header = readHeader()) != null) {
+				final File destinationFile = header.isRegularFile()
+						? destinations.apply(header.name.replaceFirst("^\\./", ""))
+						: null;
+				if (destinationFile == null) {
+					skipData(header);
+				} else {
+					final Path destination = destinationFile.toPath();
+					directories.ensureDirectory(destination.getParent());
+					writeEntry(header, destination, REPLACE_FILE);
+				}
+
+				amount += header.relativeAmount();
+				progressMonitor.worked(amount);
+
+				if (progressMonitor.isCanceled()) {
+					throw new IOException("Operation canceled.");
+				}
+			}
+		} finally {
+			paxStream.close();
+		}
+		progressMonitor.done();
+	}
+
+	/**
+	 * Extracts the regular file entry whose header starts at the current position
+	 * of the archive, for archives opened at the offset of an entry. Missing
+	 * parent directories are created and an existing file is replaced. The
+	 * written file is deleted again if its data does not have the expected
+	 * CRC-32.
+	 *
+	 * @param destination the file the entry is written to
+	 * @param crc         the CRC-32 of the entry's data, as reported to an
+	 *                    {@link EntryListener}
+	 * @return the name of the entry
+	 * @throws IOException if the archive cannot be read, the entry is not a
+	 *                     regular file, does not match the CRC-32 or cannot be
+	 *                     written
+	 */
+	public String extractEntry(final File destination, final long crc) throws IOException {
+		try {
+			checksumEntries = true;
+			final Header header = readHeader();
+			if (header == null || !header.isRegularFile()) {
+				throw new IOException("Expected a regular file entry but got '"
+						+ (header == null ? "TRAILER!!!" : header.name) + "'.");
+			}
+			new DirectoryCache(fileSync).ensureDirectory(destination.toPath().getParent());
+			writeEntry(header, destination.toPath(), REPLACE_FILE);
+			if (entryCrc.getValue() != crc) {
+				Files.deleteIfExists(destination.toPath());
+				throw new IOException("CRC mismatch for entry '" + header.name + "'.");
+			}
+			return header.name;
+		} finally {
+			paxStream.close();
+		}
+	}
+
+	/**
+	 * Reads the next odc header and its name. After the trailer the rest of the
+	 * stream is read, so that streams underneath which check their data once it
+	 * ends, such as gzip and xar entries, get to do so.
+	 *
+	 * @return the header, or null once the trailer entry has been read.
+	 */
+	protected Header readHeader() throws IOException {
+		if (entryName != null) {
+			entryListener.entryRead(entryName, entryOffset, entryCrc.getValue());
+			entryName = null;
+		}
+		entryCrc.reset();
+		final long offset = position.getCount();
+		final String magic = readString(paxStream, sixBuffer);
+		if (!"070707".equals(magic)) {
+			throw new IOException("Expected magic '070707' but got '" + magic + "' (next = "
+					+ readString(paxStream, new byte[50]) + ").");
+		}
+		final Header header = new Header();
+		header.dev = readString(paxStream, sixBuffer);
+		header.ino = readString(paxStream, sixBuffer);
+		header.modeStr = readString(paxStream, sixBuffer);
+		header.uid = readString(paxStream, sixBuffer);
+		header.gid = readString(paxStream, sixBuffer);
+		header.nlink = readString(paxStream, sixBuffer);
+		header.rdev = readString(paxStream, sixBuffer);
+		header.mtime = readString(paxStream, elevenBuffer);
+		final String nameSizeStr = readString(paxStream, sixBuffer);
+		final String fileSizeStr = readString(paxStream, elevenBuffer);
+
+		header.nameSize = Integer.parseInt(nameSizeStr, 8);
+		header.name = readString(paxStream, new byte[header.nameSize]);
+		header.fileSize = Integer.parseInt(fileSizeStr, 8);
+
+		if ("TRAILER!!!".equals(header.name)) {
+			while (paxStream.read(copyBuffer, 0, copyBuffer.length) != -1) {
+				// padding
+			}
+			return null;
+		}
+		header.mode = Integer.parseInt(header.modeStr, 8);
+		if (entryListener != null) {
+			entryName = header.name;
+			entryOffset = offset;
+		}
+		return header;
+	}
+
+	/**
+	 * @return the data of the entry, added to the entry's CRC-32 as it is read
+	 *         when entries are checksummed
+	 */
+	protected InputStream entryData(final Header header) throws IOException {
+		final InputStream data = new BoundedInputStream(paxStream, 0, header.fileSize);
+		return checksumEntries ? new CheckedInputStream(data, entryCrc) : data;
+	}
+
+	/**
+	 * Skips the data of the entry, reading it through when entries are
+	 * checksummed.
+	 */
+	protected void skipData(final Header header) throws IOException {
+		if (!checksumEntries) {
+			skipFully(paxStream, header.fileSize);
+			return;
+		}
+		final InputStream data = entryData(header);
+		while (data.read(copyBuffer, 0, copyBuffer.length) != -1) {
+			// checksum only
 		}
-		return file;
+	}
+
+	/**
+	 * Writes the entry's data to the destination. With {@link #NEW_FILE} the
+	 * existence check is folded into the open call instead of costing a separate
+	 * stat.
+	 */
+	protected void writeEntry(final Header header, final Path destination, final OpenOption[] options)
+			throws IOException {
+		final InputStream is = entryData(header);
+		if (contentStore != null && header.fileSize > 0) {
+			contentStore.write(is, header.fileSize, destination);
+			fileSync.directoryChanged(destination.getParent());
+			return;
+		}
+		final FileChannel channel;
+		try {
+			channel = FileChannel.open(destination, options);
+		} catch (final FileAlreadyExistsException e) {
+			throw new IOException("The file '" + destination + "' already exists.", e);
+		}
+		try {
+			final OutputStream out = Channels.newOutputStream(channel);
+			int read;
+			while ((read = is.read(copyBuffer, 0, copyBuffer.length)) != -1) {
+				out.write(copyBuffer, 0, read);
+			}
+			fileSync.written(channel, destination);
+		} finally {
+			channel.close();
+		}
+	}
+
+	/**
+	 * Resolves an entry name against the destination. Absolute names are kept as
+	 * they are.
+	 */
+	protected Path toPath(final Path workingDir, final String path) {
+		return workingDir.resolve(path.replaceFirst("^\\./", ""));
 	}
 
 	protected String readString(final InputStream is, final byte[] b) throws IOException {
@@ -173,6 +411,174 @@ public class CPIO {
 		}
 	}
 
+	/**
+	 * The fields of an odc (old portable ASCII) header. Numeric fields are kept
+	 * as the octal strings found in the archive.
+	 */
+	protected static class Header {
+		String dev;
+		String ino;
+		String modeStr;
+		String uid;
+		String gid;
+		String nlink;
+		String rdev;
+		String mtime;
+		String name;
+		int nameSize;
+		int fileSize;
+		int mode;
+
+		boolean isDirectory() {
+			return (mode & S_IFDIR) == S_IFDIR;
+		}
+
+		boolean isSymbolicLink() {
+			return (mode & S_IFLNK) == S_IFLNK;
+		}
+
+		boolean isRegularFile() {
+			return (mode & S_IFMT) == S_IFREG;
+		}
+
+		int relativeAmount() {
+			return 70 + nameSize + fileSize;
+		}
+
+		int linkCount() {
+			return Integer.parseInt(nlink, 8);
+		}
+
+		/**
+		 * @return a key identifying the file, shared by all of its hardlinks.
+		 */
+		String inodeKey() {
+			return dev + ":" + ino;
+		}
+	}
+
+	/**
+	 * Tracks entries with more than one link by (dev, ino) so that only the first
+	 * copy of a hardlinked file is written and the others are linked to it. odc
+	 * archives normally repeat the data for every link, but some writers store it
+	 * only once and leave the other entries empty. Empty entries are therefore
+	 * held back until an entry with the data has been written.
+	 */
+	protected class HardLinks {
+		private final Map<String, Path> written = new HashMap<>();
+		private final Map<String, List<Path>> pending = new HashMap<>();
+
+		void extract(final Header header, final Path destination) throws IOException {
+			final String key = header.inodeKey();
+			final Path target = written.get(key);
+			if (target != null) {
+				if (link(destination, target)) {
+					skipData(header);
+				} else if (header.fileSize > 0) {
+					writeEntry(header, destination, NEW_FILE);
+				} else {
+					Files.copy(target, destination);
+					fileSync.written(destination);
+				}
+			} else if (header.fileSize == 0) {
+				pending.computeIfAbsent(key, k -> new ArrayList<>()).add(destination);
+			} else {
+				writeEntry(header, destination, NEW_FILE);
+				written.put(key, destination);
+				linkPending(key, destination);
+			}
+		}
+
+		/**
+		 * Materializes links whose data never appeared. Those files really are
+		 * empty.
+		 */
+		void finish() throws IOException {
+			for (final Map.Entry<String, List<Path>> entry : pending.entrySet()) {
+				final List<Path> files = entry.getValue();
+				final Path target = files.remove(0);
+				Files.createFile(target);
+				fileSync.directoryChanged(target.getParent());
+				written.put(entry.getKey(), target);
+				for (final Path file : files) {
+					if (!link(file, target)) {
+						Files.createFile(file);
+						fileSync.directoryChanged(file.getParent());
+					}
+				}
+			}
+			pending.clear();
+		}
+
+		private void linkPending(final String key, final Path target) throws IOException {
+			final List<Path> files = pending.remove(key);
+			if (files != null) {
+				for (final Path file : files) {
+					if (!link(file, target)) {
+						Files.copy(target, file);
+						fileSync.written(file);
+					}
+				}
+			}
+		}
+
+		/**
+		 * @return false if the file system does not support hardlinks here.
+		 */
+		private boolean link(final Path linkFile, final Path target) throws IOException {
+			try {
+				Files.createLink(linkFile, target);
+				fileSync.directoryChanged(linkFile.getParent());
+				return true;
+			} catch (final FileAlreadyExistsException e) {
+				throw new IOException("The file '" + linkFile + "' already exists.", e);
+			} catch (final UnsupportedOperationException | FileSystemException e) {
+				return false;
+			}
+		}
+	}
+
+	/**
+	 * Remembers the directories created or verified during one extraction, so
+	 * that entries under a directory the extractor created itself cost no
+	 * existence checks and every directory costs at most one mkdir.
+	 */
+	protected static class DirectoryCache {
+		private final Set<Path> directories = new HashSet<>();
+		private final FileSync fileSync;
+
+		DirectoryCache(final FileSync fileSync) {
+			this.fileSync = fileSync;
+		}
+
+		/**
+		 * Creates the directory of a directory entry. It is an error for it to exist
+		 * already.
+		 */
+		void createDirectory(final Path directory) throws IOException {
+			ensureDirectory(directory.getParent());
+			try {
+				Files.createDirectory(directory);
+			} catch (final FileAlreadyExistsException e) {
+				throw new IOException("The directory '" + directory + "' already exists.", e);
+			}
+			fileSync.directoryChanged(directory.getParent());
+			directories.add(directory);
+		}
+
+		/**
+		 * Makes sure a directory exists, creating it and its parents if needed.
+		 */
+		void ensureDirectory(final Path directory) throws IOException {
+			if (directory == null || directories.contains(directory)) {
+				return;
+			}
+			Files.createDirectories(directory);
+			fileSync.directoryChanged(directory.getParent());
+			directories.add(directory);
+		}
+	}
+
 	protected static class Link {
 		private final File _realFile;
 		private final File _linkFile;
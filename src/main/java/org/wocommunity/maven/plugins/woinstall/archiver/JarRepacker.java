@@ -0,0 +1,98 @@
+package org.wocommunity.maven.plugins.woinstall.archiver;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Enumeration;
+import java.util.Map;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Rewrites jars with every entry STORED instead of deflated. A class loader
+ * reads a stored entry straight out of the jar, so loading a class no longer
+ * costs an inflate, at the price of a larger file. Entry order, names, times,
+ * extra fields and comments are kept, and so are signatures, which cover the
+ * uncompressed bytes.
+ */
+public class JarRepacker {
+	/**
+	 * Repacks the jars in parallel on the common fork/join pool.
+	 *
+	 * @param jars the jar to read mapped to the jar to write, for each jar
+	 * @throws IOException if a jar cannot be read or written
+	 */
+	public static void repackAll(final Map<File, File> jars) throws IOException {
+		try {
+			jars.entrySet().parallelStream().forEach(jar -> {
+				try {
+					repack(jar.getKey(), jar.getValue());
+				} catch (final IOException e) {
+					throw new UncheckedIOException(e);
+				}
+			});
+		} catch (final UncheckedIOException e) {
+			throw e.getCause();
+		}
+	}
+
+	/**
+	 * Writes the target next to itself and renames it into place, replacing an
+	 * existing file.
+	 *
+	 * @param source the jar to read
+	 * @param target the jar to write
+	 * @throws IOException if the source cannot be read or the target written
+	 */
+	public static void repack(final File source, final File target) throws IOException {
+		final File temp = new File(target.getParentFile(), target.getName() + ".partial");
+		final CRC32 crc = new CRC32();
+		final ByteArrayOutputStream data = new ByteArrayOutputStream();
+		final byte[] buffer = new byte[64 * 1024];
+		try (ZipFile zipFile = new ZipFile(source);
+				ZipOutputStream out = new ZipOutputStream(
+						new BufferedOutputStream(Files.newOutputStream(temp.toPath()), buffer.length))) {
+			out.setMethod(ZipOutputStream.STORED);
+			if (zipFile.getComment() != null) {
+				out.setComment(zipFile.getComment());
+			}
+			final Enumeration<? extends ZipEntry> entries = zipFile.entries();
+			while (entries.hasMoreElements()) {
+				final ZipEntry entry = entries.nextElement();
+				data.reset();
+				try (InputStream in = zipFile.getInputStream(entry)) {
+					int count;
+					while ((count = in.read(buffer)) != -1) {
+						data.write(buffer, 0, count);
+					}
+				}
+				crc.reset();
+				crc.update(data.toByteArray(), 0, data.size());
+
+				final ZipEntry stored = new ZipEntry(entry.getName());
+				stored.setMethod(ZipEntry.STORED);
+				stored.setSize(data.size());
+				stored.setCompressedSize(data.size());
+				stored.setCrc(crc.getValue());
+				stored.setTime(entry.getTime());
+				stored.setExtra(entry.getExtra());
+				stored.setComment(entry.getComment());
+				out.putNextEntry(stored);
+				data.writeTo(out);
+				out.closeEntry();
+			}
+		} catch (final IOException e) {
+			Files.deleteIfExists(temp.toPath());
+			throw e;
+		}
+		Files.move(temp.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING,
+				StandardCopyOption.ATOMIC_MOVE);
+	}
+}
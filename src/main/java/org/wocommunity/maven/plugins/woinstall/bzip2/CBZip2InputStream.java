@@ -61,6 +61,8 @@ package org.wocommunity.maven.plugins.woinstall.bzip2;
 
 import java.io.InputStream;
 import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentLinkedQueue;
 
 /**
  * An input stream that decompresses from the BZip2 format (without the file
@@ -84,7 +86,8 @@ public class CBZip2InputStream extends InputStream implements BZip2Constants {
         cadvise();
     }
 
-    private static void compressedStreamEOF() {
+    private void compressedStreamEOF() {
+        corrupt = true;
         cadvise();
     }
 
@@ -119,8 +122,18 @@ public class CBZip2InputStream extends InputStream implements BZip2Constants {
 
     private boolean blockRandomised;
 
-    private int bsBuff;
+    /*
+      Bit buffer, holding up to 64 bits with the next bit to read
+      at position bsLive - 1, refilled from bsBuffer rather than
+      one read() call on the underlying stream per byte.
+    */
+    private long bsBuff;
     private int bsLive;
+    private final byte[] bsBuffer = new byte[8192];
+    private int bsBufferPos;
+    private int bsBufferEnd;
+    private boolean bsEOF;
+    private boolean bsPadded;
     private CRC mCrc = new CRC();
 
     private boolean[] inUse = new boolean[256];
@@ -132,8 +145,21 @@ public class CBZip2InputStream extends InputStream implements BZip2Constants {
     private char[] selector = new char[MAX_SELECTORS];
     private char[] selectorMtf = new char[MAX_SELECTORS];
 
+    /*
+      Per symbol storage. The default mode uses tt, 4 bytes per
+      symbol: the char in the low byte and, once the block is set
+      up, the position of the next char above it, so that the
+      inverse BWT walk touches one array entry per output byte.
+      The small mode uses ll16 and the nibbles in ll4,
+      2.5 bytes per symbol, and finds each char by a binary search
+      in cftab instead of storing it.
+    */
+    private final boolean small;
+    private DecoderBuffers buffers;
     private int[] tt;
-    private char[] ll8;
+    private char[] ll16;
+    private byte[] ll4;
+    private final int[] cftab = new int[257];
 
     /*
       freq table collected to save a pass over the data
@@ -145,72 +171,216 @@ public class CBZip2InputStream extends InputStream implements BZip2Constants {
     private int[][] base = new int[N_GROUPS][MAX_ALPHA_SIZE];
     private int[][] perm = new int[N_GROUPS][MAX_ALPHA_SIZE];
     private int[] minLens = new int[N_GROUPS];
+    private int[] maxLens = new int[N_GROUPS];
+
+    /*
+      Codes of up to LOOKUP_BITS bits are decoded with a single
+      lookup, entries hold (symbol << 5) | code length, 0 means
+      the code is longer and limit/base/perm have to be walked.
+    */
+    private static final int LOOKUP_BITS = 10;
+    private int[][] lookup = new int[N_GROUPS][1 << LOOKUP_BITS];
+
+    /*
+      Move to front list, kept in MTFL_SIZE blocks of MTFL_SIZE
+      entries each starting at mtfbase[i] inside mtfa, so that
+      moving a symbol to the front shifts at most one block and
+      one entry per block before it.
+    */
+    private static final int MTFA_SIZE = 4096;
+    private static final int MTFL_SIZE = 16;
+    private char[] mtfa = new char[MTFA_SIZE];
+    private int[] mtfbase = new int[256 / MTFL_SIZE];
 
     private InputStream bsStream;
 
     private boolean streamEnd = false;
 
-    private int currentChar = -1;
+    private int storedBlockCRC, storedCombinedCRC;
+    private int computedBlockCRC, computedCombinedCRC;
 
-    private static final int START_BLOCK_STATE = 1;
-    private static final int RAND_PART_A_STATE = 2;
-    private static final int RAND_PART_B_STATE = 3;
-    private static final int RAND_PART_C_STATE = 4;
-    private static final int NO_RAND_PART_A_STATE = 5;
-    private static final int NO_RAND_PART_B_STATE = 6;
-    private static final int NO_RAND_PART_C_STATE = 7;
+    /*
+      State of the inverse BWT walk and the initial run length
+      decoding over the current block, kept between reads.
+    */
+    private int tPos;
+    private int i2;
+    private int chPrev;
+    private int count;
+    private int runRemaining;
+    private int rNToGo = 0;
+    private int rTPos  = 0;
 
-    private int currentState = START_BLOCK_STATE;
+    private final byte[] singleByte = new byte[1];
 
-    private int storedBlockCRC, storedCombinedCRC;
-    private int computedBlockCRC, computedCombinedCRC;
+    /* set once a CRC mismatch or malformed data was reported */
+    private boolean corrupt = false;
 
-    int i2, count, chPrev, ch2;
-    int i, tPos;
-    int rNToGo = 0;
-    int rTPos  = 0;
-    int j2;
-    char z;
+    /* false when an enclosing stream verifies the data anyway */
+    private final boolean checkCRC;
 
     public CBZip2InputStream(InputStream zStream) {
-        ll8 = null;
-        tt = null;
+        this(zStream, true);
+    }
+
+    /**
+     * @param checkCRC false to skip computing and comparing the block
+     * and stream CRCs, for data whose integrity is verified otherwise.
+     */
+    public CBZip2InputStream(InputStream zStream, boolean checkCRC) {
+        this(zStream, checkCRC, false);
+    }
+
+    /**
+     * @param checkCRC false to skip computing and comparing the block
+     * and stream CRCs, for data whose integrity is verified otherwise.
+     * @param small true to decode with less memory, 2.5 instead of 4
+     * bytes per byte of block size, at lower speed.
+     */
+    public CBZip2InputStream(InputStream zStream, boolean checkCRC,
+                             boolean small) {
+        this.checkCRC = checkCRC;
+        this.small = small;
         bsSetStream(zStream);
         initialize();
-        initBlock();
-        setupBlock();
+        if (!streamEnd) {
+            initBlock();
+        }
+        if (!streamEnd) {
+            setupBlock();
+        } else {
+            releaseBuffers();
+        }
+    }
+
+    @Override
+    public void close() {
+        releaseBuffers();
+        bsFinishedWithStream();
+        streamEnd = true;
     }
 
     @Override
     public int read() {
-        if (streamEnd) {
-            return -1;
-        } else {
-            int retChar = currentChar;
-            switch(currentState) {
-            case START_BLOCK_STATE:
-                break;
-            case RAND_PART_A_STATE:
-                break;
-            case RAND_PART_B_STATE:
-                setupRandPartB();
-                break;
-            case RAND_PART_C_STATE:
-                setupRandPartC();
-                break;
-            case NO_RAND_PART_A_STATE:
-                break;
-            case NO_RAND_PART_B_STATE:
-                setupNoRandPartB();
-                break;
-            case NO_RAND_PART_C_STATE:
-                setupNoRandPartC();
-                break;
-            default:
+        return read(singleByte, 0, 1) == -1 ? -1 : singleByte[0] & 0xff;
+    }
+
+    /**
+     * Decodes straight into the caller's array. The inverse BWT walk and the
+     * run length expansion run in one loop over locals, and the CRC is updated
+     * once per slice instead of once per byte.
+     */
+    @Override
+    public int read(byte[] b, int off, int len) {
+        if (off < 0 || len < 0 || len > b.length - off) {
+            throw new IndexOutOfBoundsException();
+        }
+        if (len == 0) {
+            return streamEnd ? -1 : 0;
+        }
+        int n = 0;
+        while (n < len && !streamEnd) {
+            int produced = decodeBlockData(b, off + n, len - n);
+            if (produced == 0) {
+                endBlock();
+                initBlock();
+                if (!streamEnd) {
+                    setupBlock();
+                } else {
+                    releaseBuffers();
+                }
+            }
+            n += produced;
+        }
+        return n == 0 ? -1 : n;
+    }
+
+    /**
+     * Writes up to len bytes of the current block to b.
+     *
+     * @return the number of bytes written, 0 once the block is exhausted.
+     */
+    private int decodeBlockData(byte[] b, int off, int len) {
+        final int[] tt = this.tt;
+        final char[] ll16 = this.ll16;
+        final byte[] ll4 = this.ll4;
+        final int[] cftab = this.cftab;
+        final boolean small = this.small;
+        final int last = this.last;
+        final boolean randomised = this.blockRandomised;
+        int tPos = this.tPos;
+        int i2 = this.i2;
+        int chPrev = this.chPrev;
+        int count = this.count;
+        int runRemaining = this.runRemaining;
+        int pos = off;
+        final int end = off + len;
+
+        while (pos < end) {
+            if (runRemaining > 0) {
+                int k = Math.min(runRemaining, end - pos);
+                Arrays.fill(b, pos, pos + k, (byte) chPrev);
+                pos += k;
+                runRemaining -= k;
+                continue;
+            }
+            if (i2 > last) {
                 break;
             }
-            return retChar;
+            int ch;
+            if (small) {
+                ch = indexIntoF(tPos, cftab);
+                tPos = ll16[tPos]
+                    | ((ll4[tPos >> 1] >> ((tPos << 2) & 0x4)) & 0xf) << 16;
+            } else {
+                int next = tt[tPos];
+                ch = next & 0xff;
+                tPos = next >>> 8;
+            }
+            i2++;
+            if (randomised) {
+                if (rNToGo == 0) {
+                    rNToGo = rNums[rTPos];
+                    rTPos++;
+                    if (rTPos == 512) {
+                        rTPos = 0;
+                    }
+                }
+                rNToGo--;
+                ch ^= (rNToGo == 1) ? 1 : 0;
+            }
+            if (count == 4) {
+                /* the symbol after four equal bytes is a repeat count */
+                runRemaining = ch;
+                count = 0;
+                continue;
+            }
+            if (ch == chPrev) {
+                count++;
+            } else {
+                chPrev = ch;
+                count = 1;
+            }
+            b[pos++] = (byte) ch;
+        }
+
+        this.tPos = tPos;
+        this.i2 = i2;
+        this.chPrev = chPrev;
+        this.count = count;
+        this.runRemaining = runRemaining;
+        if (checkCRC) {
+            mCrc.updateCRC(b, off, pos - off);
         }
+        return pos - off;
+    }
+
+    /**
+     * @return true if a block CRC, the stream CRC or the block structure
+     * did not check out so far.
+     */
+    boolean isCorrupt() {
+        return corrupt;
     }
 
     private void initialize() {
@@ -261,13 +431,12 @@ public class CBZip2InputStream extends InputStream implements BZip2Constants {
         getAndMoveToFrontDecode();
 
         mCrc.initialiseCRC();
-        currentState = START_BLOCK_STATE;
     }
 
     private void endBlock() {
         computedBlockCRC = mCrc.getFinalCRC();
         /* A bad CRC is considered a fatal error. */
-        if (storedBlockCRC != computedBlockCRC) {
+        if (checkCRC && storedBlockCRC != computedBlockCRC) {
             crcError();
         }
 
@@ -278,7 +447,7 @@ public class CBZip2InputStream extends InputStream implements BZip2Constants {
 
     private void complete() {
         storedCombinedCRC = bsGetInt32();
-        if (storedCombinedCRC != computedCombinedCRC) {
+        if (checkCRC && storedCombinedCRC != computedCombinedCRC) {
             crcError();
         }
 
@@ -286,15 +455,18 @@ public class CBZip2InputStream extends InputStream implements BZip2Constants {
         streamEnd = true;
     }
 
-    private static void blockOverrun() {
+    private void blockOverrun() {
+        corrupt = true;
         cadvise();
     }
 
-    private static void badBlockHeader() {
+    private void badBlockHeader() {
+        corrupt = true;
         cadvise();
     }
 
-    private static void crcError() {
+    private void crcError() {
+        corrupt = true;
         cadvise();
     }
 
@@ -315,31 +487,104 @@ public class CBZip2InputStream extends InputStream implements BZip2Constants {
         bsStream = f;
         bsLive = 0;
         bsBuff = 0;
+        bsBufferPos = 0;
+        bsBufferEnd = 0;
+        bsEOF = false;
+        bsPadded = false;
     }
 
-    private int bsR(int n) {
-        int v;
-        while (bsLive < n) {
-            int zzi;
-            char thech = 0;
-            try {
-                thech = (char) bsStream.read();
-            } catch (IOException e) {
-                compressedStreamEOF();
-            }
-            if (thech == -1) {
-                compressedStreamEOF();
+    /**
+     * Makes sure at least n (at most 57) bits are available to
+     * {@link #bsPeek(int)}.
+     */
+    private void bsNeed(int n) {
+        if (bsLive < n) {
+            bsRefill(n);
+        }
+    }
+
+    private void bsRefill(int n) {
+        long buff = bsBuff;
+        int live = bsLive;
+        while (live <= 56) {
+            if (bsBufferPos == bsBufferEnd && !bsFillBuffer()) {
+                if (live >= n) {
+                    break;
+                }
+                /* pad with zero bits, the block CRC will not match */
+                if (!bsPadded) {
+                    bsPadded = true;
+                    compressedStreamEOF();
+                }
+                buff <<= 8;
+            } else {
+                buff = (buff << 8) | (bsBuffer[bsBufferPos++] & 0xff);
             }
-            zzi = thech;
-            bsBuff = (bsBuff << 8) | (zzi & 0xff);
-            bsLive += 8;
+            live += 8;
         }
+        bsBuff = buff;
+        bsLive = live;
+    }
+
+    private boolean bsFillBuffer() {
+        if (bsEOF) {
+            return false;
+        }
+        int count = -1;
+        try {
+            do {
+                count = bsStream.read(bsBuffer, 0, bsBuffer.length);
+            } while (count == 0);
+        } catch (IOException e) {
+            count = -1;
+        }
+        if (count == -1) {
+            bsEOF = true;
+            return false;
+        }
+        bsBufferPos = 0;
+        bsBufferEnd = count;
+        return true;
+    }
 
-        v = (bsBuff >> (bsLive - n)) & ((1 << n) - 1);
+    private int bsPeek(int n) {
+        return (int) (bsBuff >>> (bsLive - n)) & ((1 << n) - 1);
+    }
+
+    private void bsConsume(int n) {
+        bsLive -= n;
+    }
+
+    private int bsR(int n) {
+        bsNeed(n);
+        int v = bsPeek(n);
         bsLive -= n;
         return v;
     }
 
+    /**
+     * Decodes the next symbol with the Huffman table of group zt,
+     * looking at up to maxLen bits at once.
+     */
+    private int bsGetSymbol(int zt) {
+        bsNeed(LOOKUP_BITS > maxLens[zt] ? LOOKUP_BITS : maxLens[zt]);
+        int entry = lookup[zt][bsPeek(LOOKUP_BITS)];
+        if (entry != 0) {
+            bsConsume(entry & 0x1f);
+            return entry >> 5;
+        }
+        final int maxLen = maxLens[zt];
+        final int[] zlimit = limit[zt];
+        int zn = LOOKUP_BITS + 1;
+        int zvec = bsPeek(zn);
+        while (zvec > zlimit[zn] && zn < maxLen) {
+            zn++;
+            zvec = bsPeek(zn);
+        }
+        bsConsume(zn);
+        return perm[zt][zvec - base[zt][zn]];
+    }
+
     private char bsGetUChar() {
         return (char) bsR(8);
     }
@@ -402,6 +647,34 @@ public class CBZip2InputStream extends InputStream implements BZip2Constants {
         }
     }
 
+    /*
+      Fills the lookup table with the same canonical codes
+      hbCreateDecodeTables assigns: by length, then by symbol.
+    */
+    private static void hbCreateLookupTable(int[] lookup, char[] length,
+                                            int minLen, int maxLen,
+                                            int alphaSize) {
+        int i, j, code;
+
+        Arrays.fill(lookup, 0);
+        code = 0;
+        for (i = minLen; i <= maxLen && i <= LOOKUP_BITS; i++) {
+            for (j = 0; j < alphaSize; j++) {
+                if (length[j] == i) {
+                    if (code >= (1 << i)) {
+                        /* over-subscribed, leave it to the slow path */
+                        return;
+                    }
+                    int from = code << (LOOKUP_BITS - i);
+                    int to = (code + 1) << (LOOKUP_BITS - i);
+                    Arrays.fill(lookup, from, to, (j << 5) | i);
+                    code++;
+                }
+            }
+            code <<= 1;
+        }
+    }
+
     private void recvDecodingTables() {
         char len[][] = new char[N_GROUPS][MAX_ALPHA_SIZE];
         int i, j, t, nGroups, nSelectors, alphaSize;
@@ -495,12 +768,20 @@ public class CBZip2InputStream extends InputStream implements BZip2Constants {
             hbCreateDecodeTables(limit[t], base[t], perm[t], len[t], minLen,
                                  maxLen, alphaSize);
             minLens[t] = minLen;
+            maxLens[t] = maxLen;
+            hbCreateLookupTable(lookup[t], len[t], minLen, maxLen,
+                                alphaSize);
         }
     }
 
     private void getAndMoveToFrontDecode() {
-        char[] yy = new char[256];
-        int i, j, nextSym, limitLast;
+        final char[] mtfa = this.mtfa;
+        final int[] mtfbase = this.mtfbase;
+        final int[] tt = this.tt;
+        final char[] ll16 = this.ll16;
+        final boolean small = this.small;
+        final int[] unzftab = this.unzftab;
+        int i, j, kk, nextSym, limitLast, last;
         int EOB, groupNo, groupPos;
 
         limitLast = baseBlockSize * blockSize100k;
@@ -521,49 +802,28 @@ public class CBZip2InputStream extends InputStream implements BZip2Constants {
             unzftab[i] = 0;
         }
 
-        for (i = 0; i <= 255; i++) {
-            yy[i] = (char) i;
+        /*
+          The list holds the unsequenced chars themselves, the
+          entries at and above nInUse are never referenced.
+        */
+        kk = MTFA_SIZE - 1;
+        for (i = 256 / MTFL_SIZE - 1; i >= 0; i--) {
+            for (j = MTFL_SIZE - 1; j >= 0; j--) {
+                int v = i * MTFL_SIZE + j;
+                mtfa[kk] = v < nInUse ? seqToUnseq[v] : 0;
+                kk--;
+            }
+            mtfbase[i] = kk + 1;
         }
 
         last = -1;
 
-        {
-            int zt, zn, zvec, zj;
-            if (groupPos == 0) {
-                groupNo++;
-                groupPos = G_SIZE;
-            }
-            groupPos--;
-            zt = selector[groupNo];
-            zn = minLens[zt];
-            zvec = bsR(zn);
-            while (zvec > limit[zt][zn]) {
-                zn++;
-                {
-                    {
-                        while (bsLive < 1) {
-                            int zzi;
-                            char thech = 0;
-                            try {
-                                thech = (char) bsStream.read();
-                            } catch (IOException e) {
-                                compressedStreamEOF();
-                            }
-                            if (thech == -1) {
-                                compressedStreamEOF();
-                            }
-                            zzi = thech;
-                            bsBuff = (bsBuff << 8) | (zzi & 0xff);
-                            bsLive += 8;
-                        }
-                    }
-                    zj = (bsBuff >> (bsLive - 1)) & 1;
-                    bsLive--;
-                }
-                zvec = (zvec << 1) | zj;
-            }
-            nextSym = perm[zt][zvec - base[zt][zn]];
+        if (groupPos == 0) {
+            groupNo++;
+            groupPos = G_SIZE;
         }
+        groupPos--;
+        nextSym = bsGetSymbol(selector[groupNo]);
 
         while (true) {
 
@@ -580,133 +840,109 @@ public class CBZip2InputStream extends InputStream implements BZip2Constants {
                         s = s + (0 + 1) * N;
                     } else if (nextSym == RUNB) {
                         s = s + (1 + 1) * N;
-                           }
+                    }
                     N = N * 2;
-                    {
-                        int zt, zn, zvec, zj;
-                        if (groupPos == 0) {
-                            groupNo++;
-                            groupPos = G_SIZE;
-                        }
-                        groupPos--;
-                        zt = selector[groupNo];
-                        zn = minLens[zt];
-                        zvec = bsR(zn);
-                        while (zvec > limit[zt][zn]) {
-                            zn++;
-                            {
-                                {
-                                    while (bsLive < 1) {
-                                        int zzi;
-                                        char thech = 0;
-                                        try {
-                                            thech = (char) bsStream.read();
-                                        } catch (IOException e) {
-                                            compressedStreamEOF();
-                                        }
-                                        if (thech == -1) {
-                                            compressedStreamEOF();
-                                        }
-                                        zzi = thech;
-                                        bsBuff = (bsBuff << 8) | (zzi & 0xff);
-                                        bsLive += 8;
-                                    }
-                                }
-                                zj = (bsBuff >> (bsLive - 1)) & 1;
-                                bsLive--;
-                            }
-                            zvec = (zvec << 1) | zj;
-                        }
-                        nextSym = perm[zt][zvec - base[zt][zn]];
+                    if (groupPos == 0) {
+                        groupNo++;
+                        groupPos = G_SIZE;
                     }
+                    groupPos--;
+                    nextSym = bsGetSymbol(selector[groupNo]);
                 } while (nextSym == RUNA || nextSym == RUNB);
 
                 s++;
-                ch = seqToUnseq[yy[0]];
+                ch = mtfa[mtfbase[0]];
                 unzftab[ch] += s;
 
-                while (s > 0) {
-                    last++;
-                    ll8[last] = ch;
-                    s--;
-                }
-
-                if (last >= limitLast) {
+                if (last + s >= limitLast) {
                     blockOverrun();
                 }
+                if (small) {
+                    Arrays.fill(ll16, last + 1, last + 1 + s, ch);
+                } else {
+                    Arrays.fill(tt, last + 1, last + 1 + s, ch);
+                }
+                last += s;
                 continue;
             } else {
                 char tmp;
+                int nn = nextSym - 1;
                 last++;
                 if (last >= limitLast) {
                     blockOverrun();
                 }
 
-                tmp = yy[nextSym - 1];
-                unzftab[seqToUnseq[tmp]]++;
-                ll8[last] = seqToUnseq[tmp];
-
-                /*
-                  This loop is hammered during decompression,
-                  hence the unrolling.
-
-                  for (j = nextSym-1; j > 0; j--) yy[j] = yy[j-1];
-                */
-
-                j = nextSym - 1;
-                for (; j > 3; j -= 4) {
-                    yy[j]     = yy[j - 1];
-                    yy[j - 1] = yy[j - 2];
-                    yy[j - 2] = yy[j - 3];
-                    yy[j - 3] = yy[j - 4];
-                }
-                for (; j > 0; j--) {
-                    yy[j] = yy[j - 1];
-                }
-
-                yy[0] = tmp;
-                {
-                    int zt, zn, zvec, zj;
-                    if (groupPos == 0) {
-                        groupNo++;
-                        groupPos = G_SIZE;
+                if (nn < MTFL_SIZE) {
+                    /* avoid general-case expense */
+                    int pp = mtfbase[0];
+                    tmp = mtfa[pp + nn];
+                    for (; nn > 3; nn -= 4) {
+                        int z = pp + nn;
+                        mtfa[z]     = mtfa[z - 1];
+                        mtfa[z - 1] = mtfa[z - 2];
+                        mtfa[z - 2] = mtfa[z - 3];
+                        mtfa[z - 3] = mtfa[z - 4];
                     }
-                    groupPos--;
-                    zt = selector[groupNo];
-                    zn = minLens[zt];
-                    zvec = bsR(zn);
-                    while (zvec > limit[zt][zn]) {
-                        zn++;
-                        {
-                            {
-                                while (bsLive < 1) {
-                                    int zzi;
-                                    char thech = 0;
-                                    try {
-                                        thech = (char) bsStream.read();
-                                    } catch (IOException e) {
-                                        compressedStreamEOF();
-                                    }
-                                    zzi = thech;
-                                    bsBuff = (bsBuff << 8) | (zzi & 0xff);
-                                    bsLive += 8;
-                                }
+                    for (; nn > 0; nn--) {
+                        mtfa[pp + nn] = mtfa[pp + nn - 1];
+                    }
+                    mtfa[pp] = tmp;
+                } else {
+                    /* general case */
+                    int lno = nn / MTFL_SIZE;
+                    int off = nn % MTFL_SIZE;
+                    int pp = mtfbase[lno] + off;
+                    tmp = mtfa[pp];
+                    while (pp > mtfbase[lno]) {
+                        mtfa[pp] = mtfa[pp - 1];
+                        pp--;
+                    }
+                    mtfbase[lno]++;
+                    while (lno > 0) {
+                        mtfbase[lno]--;
+                        mtfa[mtfbase[lno]]
+                            = mtfa[mtfbase[lno - 1] + MTFL_SIZE - 1];
+                        lno--;
+                    }
+                    mtfbase[0]--;
+                    mtfa[mtfbase[0]] = tmp;
+                    if (mtfbase[0] == 0) {
+                        /* ran out of room at the front, repack */
+                        kk = MTFA_SIZE - 1;
+                        for (i = 256 / MTFL_SIZE - 1; i >= 0; i--) {
+                            for (j = MTFL_SIZE - 1; j >= 0; j--) {
+                                mtfa[kk] = mtfa[mtfbase[i] + j];
+                                kk--;
                             }
-                            zj = (bsBuff >> (bsLive - 1)) & 1;
-                            bsLive--;
+                            mtfbase[i] = kk + 1;
                         }
-                        zvec = (zvec << 1) | zj;
                     }
-                    nextSym = perm[zt][zvec - base[zt][zn]];
                 }
+
+                unzftab[tmp]++;
+                if (small) {
+                    ll16[last] = tmp;
+                } else {
+                    tt[last] = tmp;
+                }
+
+                if (groupPos == 0) {
+                    groupNo++;
+                    groupPos = G_SIZE;
+                }
+                groupPos--;
+                nextSym = bsGetSymbol(selector[groupNo]);
                 continue;
             }
         }
+
+        this.last = last;
     }
 
     private void setupBlock() {
-        int[] cftab = new int[257];
-        char ch;
+        int[] cftab = this.cftab;
+        int ch;
+        int i;
 
         cftab[0] = 0;
         for (i = 1; i <= 256; i++) {
@@ -716,144 +952,73 @@ public class CBZip2InputStream extends InputStream implements BZip2Constants {
             cftab[i] += cftab[i - 1];
         }
 
-        for (i = 0; i <= last; i++) {
-            ch = (char) ll8[i];
-            tt[cftab[ch]] = i;
-            cftab[ch]++;
-        }
-        cftab = null;
-
-        tPos = tt[origPtr];
+        if (small) {
+            int[] cftabCopy = cftab.clone();
+            int j;
 
-        count = 0;
-        i2 = 0;
-        ch2 = 256;   /* not a char and not EOF */
+            /* compute the T vector */
+            for (i = 0; i <= last; i++) {
+                ch = ll16[i];
+                setLL(i, cftabCopy[ch]);
+                cftabCopy[ch]++;
+            }
 
-        if (blockRandomised) {
-            rNToGo = 0;
-            rTPos = 0;
-            setupRandPartA();
+            /* compute T^(-1) by pointer reversal on T */
+            i = origPtr;
+            j = getLL(i);
+            do {
+                int tmp = getLL(j);
+                setLL(j, i);
+                i = j;
+                j = tmp;
+            } while (i != origPtr);
+
+            tPos = origPtr;
         } else {
-            setupNoRandPartA();
-        }
-    }
-
-    private void setupRandPartA() {
-        if (i2 <= last) {
-            chPrev = ch2;
-            ch2 = ll8[tPos];
-            tPos = tt[tPos];
-            if (rNToGo == 0) {
-                rNToGo = rNums[rTPos];
-                rTPos++;
-                if (rTPos == 512) {
-                    rTPos = 0;
-                }
+            int[] cftabCopy = cftab.clone();
+            for (i = 0; i <= last; i++) {
+                ch = tt[i] & 0xff;
+                tt[cftabCopy[ch]] |= i << 8;
+                cftabCopy[ch]++;
             }
-            rNToGo--;
-            ch2 ^= (int) ((rNToGo == 1) ? 1 : 0);
-            i2++;
 
-            currentChar = ch2;
-            currentState = RAND_PART_B_STATE;
-            mCrc.updateCRC(ch2);
-        } else {
-            endBlock();
-            initBlock();
-            setupBlock();
+            tPos = tt[origPtr] >>> 8;
         }
-    }
-
-    private void setupNoRandPartA() {
-        if (i2 <= last) {
-            chPrev = ch2;
-            ch2 = ll8[tPos];
-            tPos = tt[tPos];
-            i2++;
 
-            currentChar = ch2;
-            currentState = NO_RAND_PART_B_STATE;
-            mCrc.updateCRC(ch2);
-        } else {
-            endBlock();
-            initBlock();
-            setupBlock();
-        }
+        i2 = 0;
+        count = 0;
+        chPrev = 256;   /* not a char and not EOF */
+        runRemaining = 0;
+        rNToGo = 0;
+        rTPos = 0;
     }
 
-    private void setupRandPartB() {
-        if (ch2 != chPrev) {
-            currentState = RAND_PART_A_STATE;
-            count = 1;
-            setupRandPartA();
-        } else {
-            count++;
-            if (count >= 4) {
-                z = ll8[tPos];
-                tPos = tt[tPos];
-                if (rNToGo == 0) {
-                    rNToGo = rNums[rTPos];
-                    rTPos++;
-                    if (rTPos == 512) {
-                        rTPos = 0;
-                    }
-                }
-                rNToGo--;
-                z ^= ((rNToGo == 1) ? 1 : 0);
-                j2 = 0;
-                currentState = RAND_PART_C_STATE;
-                setupRandPartC();
-            } else {
-                currentState = RAND_PART_A_STATE;
-                setupRandPartA();
-            }
-        }
+    private int getLL(int i) {
+        return ll16[i] | ((ll4[i >> 1] >> ((i << 2) & 0x4)) & 0xf) << 16;
     }
 
-    private void setupRandPartC() {
-        if (j2 < (int) z) {
-            currentChar = ch2;
-            mCrc.updateCRC(ch2);
-            j2++;
+    private void setLL(int i, int n) {
+        ll16[i] = (char) n;
+        if ((i & 1) == 0) {
+            ll4[i >> 1] = (byte) ((ll4[i >> 1] & 0xf0) | (n >> 16));
         } else {
-            currentState = RAND_PART_A_STATE;
-            i2++;
-            count = 0;
-            setupRandPartA();
+            ll4[i >> 1] = (byte) ((ll4[i >> 1] & 0x0f) | ((n >> 16) << 4));
         }
     }
 
-    private void setupNoRandPartB() {
-        if (ch2 != chPrev) {
-            currentState = NO_RAND_PART_A_STATE;
-            count = 1;
-            setupNoRandPartA();
-        } else {
-            count++;
-            if (count >= 4) {
-                z = ll8[tPos];
-                tPos = tt[tPos];
-                currentState = NO_RAND_PART_C_STATE;
-                j2 = 0;
-                setupNoRandPartC();
+    /* the char whose range of positions in F contains indx */
+    private static int indexIntoF(int indx, int[] cftab) {
+        int nb = 0;
+        int na = 256;
+        do {
+            int mid = (nb + na) >> 1;
+            if (indx >= cftab[mid]) {
+                nb = mid;
             } else {
-                currentState = NO_RAND_PART_A_STATE;
-                setupNoRandPartA();
+                na = mid;
             }
-        }
-    }
-
-    private void setupNoRandPartC() {
-        if (j2 < (int) z) {
-            currentChar = ch2;
-            mCrc.updateCRC(ch2);
-            j2++;
-        } else {
-            currentState = NO_RAND_PART_A_STATE;
-            i2++;
-            count = 0;
-            setupNoRandPartA();
-        }
+        } while (na - nb != 1);
+        return nb;
     }
 
     private void setDecompressStructureSizes(int newSize100k) {
@@ -868,9 +1033,66 @@ public class CBZip2InputStream extends InputStream implements BZip2Constants {
             return;
         }
 
-        int n = baseBlockSize * newSize100k;
-        ll8 = new char[n];
-        tt = new int[n];
+        buffers = DecoderBuffers.acquire(newSize100k, small);
+        tt = buffers.tt;
+        ll16 = buffers.ll16;
+        ll4 = buffers.ll4;
+    }
+
+    private void releaseBuffers() {
+        if (buffers != null) {
+            DecoderBuffers.release(buffers);
+            buffers = null;
+            tt = null;
+            ll16 = null;
+            ll4 = null;
+        }
+    }
+
+    /**
+     * The block sized arrays of a decoder. A stream hands them back
+     * once it has ended, so that decoding many streams one after the
+     * other, or a few at a time, does not allocate them again.
+     */
+    private static final class DecoderBuffers {
+        private static final int MAX_POOLED
+            = Runtime.getRuntime().availableProcessors();
+        private static final ConcurrentLinkedQueue<DecoderBuffers> POOL
+            = new ConcurrentLinkedQueue<>();
+
+        final int blockSize100k;
+        final boolean small;
+        int[] tt;
+        char[] ll16;
+        byte[] ll4;
+
+        private DecoderBuffers(int blockSize100k, boolean small) {
+            int n = baseBlockSize * blockSize100k;
+            this.blockSize100k = blockSize100k;
+            this.small = small;
+            if (small) {
+                ll16 = new char[n];
+                ll4 = new byte[(n + 1) >> 1];
+            } else {
+                tt = new int[n];
+            }
+        }
+
+        static DecoderBuffers acquire(int blockSize100k, boolean small) {
+            for (DecoderBuffers buffers : POOL) {
+                if (buffers.blockSize100k == blockSize100k
+                    && buffers.small == small && POOL.remove(buffers)) {
+                    return buffers;
+                }
+            }
+            return new DecoderBuffers(blockSize100k, small);
+        }
+
+        static void release(DecoderBuffers buffers) {
+            if (POOL.size() < MAX_POOLED) {
+                POOL.add(buffers);
+            }
+        }
     }
 }
 
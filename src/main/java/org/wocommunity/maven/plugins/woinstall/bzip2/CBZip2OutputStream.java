@@ -60,34 +60,31 @@
 
 package org.wocommunity.maven.plugins.woinstall.bzip2;
 
+import java.io.ByteArrayOutputStream;
 import java.io.OutputStream;
 import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
 
 /**
  * An output stream that compresses into the BZip2 format (without the file
  * header chars) into another stream.
  *
+ * Blocks are compressed on the calling thread unless a fork/join pool is
+ * given, in which case the run length encoding still happens while writing,
+ * but each full block is sorted and Huffman coded on the pool while the next
+ * one fills up. The blocks are written in order, so the output is the same
+ * as in sequential mode.
+ *
  * @author <a href="mailto:keiron@aftexsw.com">Keiron Liddle</a>
  *
  * TODO:    Update to BZip2 1.0.1
  */
 public class CBZip2OutputStream extends OutputStream implements BZip2Constants {
-    protected static final int SETMASK = (1 << 21);
-    protected static final int CLEARMASK = (~SETMASK);
     protected static final int GREATER_ICOST = 15;
     protected static final int LESSER_ICOST = 0;
-    protected static final int SMALL_THRESH = 20;
-    protected static final int DEPTH_THRESH = 10;
-
-    /*
-      If you are ever unlucky/improbable enough
-      to get a stack overflow whilst sorting,
-      increase the following constant and try
-      again.  In practice I have never seen the
-      stack go above 27 elems, so the following
-      limit seems very generous.
-    */
-    protected static final int QSORT_STACK_SIZE = 1000;
 
     private static void panic() {
         System.out.println("panic");
@@ -270,8 +267,6 @@ public class CBZip2OutputStream extends OutputStream implements BZip2Constants {
     */
     int blockSize100k;
 
-    boolean blockRandomised;
-
     int bytesOut;
     int bsBuff;
     int bsLive;
@@ -287,44 +282,67 @@ public class CBZip2OutputStream extends OutputStream implements BZip2Constants {
     private char[] selectorMtf = new char[MAX_SELECTORS];
 
     private char[] block;
-    private int[] quadrant;
     private int[] zptr;
     private short[] szptr;
-    private int[] ftab;
+
+    /*
+      The block twice over plus a sentinel, and its suffix array,
+      kept between blocks.
+    */
+    private int[] saText;
+    private int[] sa;
 
     private int nMTF;
 
     private int[] mtfFreq = new int[MAX_ALPHA_SIZE];
 
-    /*
-     * Used when sorting.  If too many long comparisons
-     * happen, we stop sorting, randomise the block
-     * slightly, and try again.
-     */
-    private int workFactor;
-    private int workDone;
-    private int workLimit;
-    private boolean firstAttempt;
-    @SuppressWarnings("unused")
-    private int nBlocksRandomised;
-
     private int currentChar = -1;
     private int runLength = 0;
 
+    /*
+      Parallel mode only: blocks handed to the pool, oldest first,
+      and encoders that are free to take the next block.
+    */
+    private ForkJoinPool pool;
+    private int maxBlocksInFlight;
+    private ArrayDeque<ForkJoinTask<CBZip2OutputStream>> blocksInFlight;
+    private ArrayDeque<CBZip2OutputStream> idleEncoders;
+
+    /* Encoders only: the bits of the last block compressed. */
+    private ByteArrayOutputStream blockBits;
+
     public CBZip2OutputStream(OutputStream inStream) throws IOException {
         this(inStream, 9);
     }
 
     public CBZip2OutputStream(OutputStream inStream, int inBlockSize)
         throws IOException {
+        this(inStream, inBlockSize, null, 0);
+    }
+
+    /**
+     * Compresses blocks on the given pool. At most one more block
+     * than the pool's parallelism is in flight.
+     */
+    public CBZip2OutputStream(OutputStream inStream, int inBlockSize,
+                              ForkJoinPool pool) throws IOException {
+        this(inStream, inBlockSize, pool, pool.getParallelism() + 1);
+    }
+
+    /**
+     * Compresses blocks on the given pool, keeping at most
+     * maxBlocksInFlight of them in memory besides the one being
+     * filled. Each block in flight takes about 30 bytes per byte
+     * of block size, so 27 MB with a block size of 9.
+     */
+    public CBZip2OutputStream(OutputStream inStream, int inBlockSize,
+                              ForkJoinPool pool, int maxBlocksInFlight)
+        throws IOException {
         block = null;
-        quadrant = null;
         zptr = null;
-        ftab = null;
 
         bsSetStream(inStream);
 
-        workFactor = 50;
         if (inBlockSize > 9) {
             inBlockSize = 9;
         }
@@ -332,11 +350,32 @@ public class CBZip2OutputStream extends OutputStream implements BZip2Constants {
             inBlockSize = 1;
         }
         blockSize100k = inBlockSize;
-        allocateCompressStructures();
+        if (pool != null) {
+            this.pool = pool;
+            this.maxBlocksInFlight = Math.max(1, maxBlocksInFlight);
+            blocksInFlight = new ArrayDeque<>();
+            idleEncoders = new ArrayDeque<>();
+            block = new char[baseBlockSize * blockSize100k + 1
+                             + NUM_OVERSHOOT_BYTES];
+        } else {
+            allocateCompressStructures();
+        }
         initialize();
         initBlock();
     }
 
+    /*
+      An encoder compresses the blocks of a parallel stream into
+      blockBits, without stream header or trailer.
+    */
+    private CBZip2OutputStream(int blockSize100k) {
+        this.blockSize100k = blockSize100k;
+        blockBits = new ByteArrayOutputStream(
+            baseBlockSize * blockSize100k / 2);
+        closed = true;
+        allocateCompressStructures();
+    }
+
     /**
      *
      * modified by Oliver Merkel, 010128
@@ -344,7 +383,7 @@ public class CBZip2OutputStream extends OutputStream implements BZip2Constants {
      */
     @Override
     public void write(int bv) throws IOException {
-        int b = (256 + bv) % 256;
+        int b = bv & 0xff;
         if (currentChar != -1) {
             if (currentChar == b) {
                 runLength++;
@@ -364,45 +403,68 @@ public class CBZip2OutputStream extends OutputStream implements BZip2Constants {
         }
     }
 
-    private void writeRun() throws IOException {
-        if (last < allowableBlockSize) {
-            inUse[currentChar] = true;
-            for (int i = 0; i < runLength; i++) {
-                mCrc.updateCRC((char) currentChar);
+    /**
+     * Run length encodes straight from the caller's array. Runs are
+     * found by scanning the array, and the CRC is updated over each
+     * slice that went into the current block rather than byte by
+     * byte. A run reaching the end of the array is kept pending, as
+     * the next write may continue it, so the output is the same as
+     * writing byte by byte.
+     */
+    @Override
+    public void write(byte[] buf, int off, int len) throws IOException {
+        if (off < 0 || len < 0 || len > buf.length - off) {
+            throw new IndexOutOfBoundsException();
+        }
+        int end = off + len;
+        int i = off;
+
+        /* extend a run pending from the previous write */
+        if (currentChar != -1) {
+            while (i < end && (buf[i] & 0xff) == currentChar
+                   && runLength < 255) {
+                runLength++;
+                i++;
             }
-            switch (runLength) {
-            case 1:
-                last++;
-                block[last + 1] = (char) currentChar;
-                break;
-            case 2:
-                last++;
-                block[last + 1] = (char) currentChar;
-                last++;
-                block[last + 1] = (char) currentChar;
-                break;
-            case 3:
-                last++;
-                block[last + 1] = (char) currentChar;
-                last++;
-                block[last + 1] = (char) currentChar;
-                last++;
-                block[last + 1] = (char) currentChar;
-                break;
-            default:
-                inUse[runLength - 4] = true;
-                last++;
-                block[last + 1] = (char) currentChar;
-                last++;
-                block[last + 1] = (char) currentChar;
-                last++;
-                block[last + 1] = (char) currentChar;
-                last++;
-                block[last + 1] = (char) currentChar;
-                last++;
-                block[last + 1] = (char) (runLength - 4);
-                break;
+            if (i == end && runLength < 255) {
+                return;
+            }
+            writeRun();
+            currentChar = -1;
+            runLength = 0;
+        }
+
+        int crcFrom = i;
+        while (i < end) {
+            int ch = buf[i] & 0xff;
+            int limit = Math.min(end, i + 255);
+            int j = i + 1;
+            while (j < limit && (buf[j] & 0xff) == ch) {
+                j++;
+            }
+            int k = j - i;
+            if (j == end && k < 255) {
+                mCrc.updateCRC(buf, crcFrom, i - crcFrom);
+                currentChar = ch;
+                runLength = k;
+                return;
+            }
+            if (last >= allowableBlockSize) {
+                mCrc.updateCRC(buf, crcFrom, i - crcFrom);
+                crcFrom = i;
+                endBlock();
+                initBlock();
             }
+            putRun(ch, k);
+            i = j;
+        }
+        mCrc.updateCRC(buf, crcFrom, end - crcFrom);
+    }
+
+    private void writeRun() throws IOException {
+        if (last < allowableBlockSize) {
+            mCrc.updateCRC(currentChar, runLength);
+            putRun(currentChar, runLength);
         } else {
             endBlock();
             initBlock();
@@ -410,6 +472,39 @@ public class CBZip2OutputStream extends OutputStream implements BZip2Constants {
         }
     }
 
+    private void putRun(int ch, int runLength) {
+        char[] block = this.block;
+        int last = this.last;
+        inUse[ch] = true;
+        switch (runLength) {
+        case 1:
+            block[last + 2] = (char) ch;
+            last += 1;
+            break;
+        case 2:
+            block[last + 2] = (char) ch;
+            block[last + 3] = (char) ch;
+            last += 2;
+            break;
+        case 3:
+            block[last + 2] = (char) ch;
+            block[last + 3] = (char) ch;
+            block[last + 4] = (char) ch;
+            last += 3;
+            break;
+        default:
+            inUse[runLength - 4] = true;
+            block[last + 2] = (char) ch;
+            block[last + 3] = (char) ch;
+            block[last + 4] = (char) ch;
+            block[last + 5] = (char) ch;
+            block[last + 6] = (char) (runLength - 4);
+            last += 5;
+            break;
+        }
+        this.last = last;
+    }
+
     boolean closed = false;
 
     @Override
@@ -428,7 +523,14 @@ public class CBZip2OutputStream extends OutputStream implements BZip2Constants {
             writeRun();
         }
         currentChar = -1;
-        endBlock();
+        if (last >= 0) {
+            endBlock();
+        }
+        if (pool != null) {
+            while (!blocksInFlight.isEmpty()) {
+                writeBlockInFlight();
+            }
+        }
         endCompression();
         closed = true;
         super.close();
@@ -445,7 +547,6 @@ public class CBZip2OutputStream extends OutputStream implements BZip2Constants {
 
     private void initialize() throws IOException {
         bytesOut = 0;
-        nBlocksRandomised = 0;
 
         /* Write `magic' bytes h indicating file-format == huffmanised,
            followed by a digit indicating blockSize100k.
@@ -477,6 +578,68 @@ public class CBZip2OutputStream extends OutputStream implements BZip2Constants {
         combinedCRC = (combinedCRC << 1) | (combinedCRC >>> 31);
         combinedCRC ^= blockCRC;
 
+        if (pool != null) {
+            submitBlock();
+        } else {
+            compressBlock();
+        }
+    }
+
+    /*
+      Hands the filled block to an encoder on the pool, swapping
+      in the encoder's block array to fill next.
+    */
+    private void submitBlock() throws IOException {
+        if (blocksInFlight.size() >= maxBlocksInFlight) {
+            writeBlockInFlight();
+        }
+        CBZip2OutputStream encoder = idleEncoders.poll();
+        if (encoder == null) {
+            encoder = new CBZip2OutputStream(blockSize100k);
+        }
+        char[] tmp = encoder.block;
+        encoder.block = block;
+        block = tmp;
+        encoder.last = last;
+        encoder.blockCRC = blockCRC;
+        System.arraycopy(inUse, 0, encoder.inUse, 0, 256);
+        final CBZip2OutputStream e = encoder;
+        blocksInFlight.add(pool.submit(() -> {
+            e.blockBits.reset();
+            e.bsSetStream(e.blockBits);
+            e.compressBlock();
+            return e;
+        }));
+    }
+
+    /*
+      Waits for the oldest block in flight and appends its bits.
+    */
+    private void writeBlockInFlight() throws IOException {
+        CBZip2OutputStream encoder;
+        try {
+            encoder = blocksInFlight.poll().join();
+        } catch (RuntimeException e) {
+            throw new IOException("Compressing a block failed", e);
+        }
+        byte[] bits = encoder.blockBits.toByteArray();
+        for (int i = 0; i < bits.length; i++) {
+            bsW(8, bits[i] & 0xff);
+        }
+        int buff = encoder.bsBuff;
+        int live = encoder.bsLive;
+        while (live >= 8) {
+            bsW(8, (buff >>> 24) & 0xff);
+            buff <<= 8;
+            live -= 8;
+        }
+        if (live > 0) {
+            bsW(live, buff >>> (32 - live));
+        }
+        idleEncoders.add(encoder);
+    }
+
+    private void compressBlock() throws IOException {
         /* sort the block and establish posn of original string */
         doReversibleTransformation();
 
@@ -503,13 +666,11 @@ public class CBZip2OutputStream extends OutputStream implements BZip2Constants {
         /* Now the block's CRC, so it is in a known place. */
         bsPutint(blockCRC);
 
-        /* Now a single bit indicating randomisation. */
-        if (blockRandomised) {
-            bsW(1, 1);
-            nBlocksRandomised++;
-        } else {
-            bsW(1, 0);
-        }
+        /*
+          Now a single bit indicating randomisation, which the
+          suffix array sort never needs.
+        */
+        bsW(1, 0);
 
         /* Finally, block's contents proper. */
         moveToFrontCodeAndSend();
@@ -926,652 +1087,192 @@ public class CBZip2OutputStream extends OutputStream implements BZip2Constants {
 
     private OutputStream bsStream;
 
-    private void simpleSort(int lo, int hi, int d) {
-        int i, j, h, bigN, hp;
-        int v;
+    /*
+      Sorts the rotations of the block into zptr by building the
+      suffix array of the block repeated twice: for suffixes starting
+      in the first copy, the first last + 1 symbols are exactly the
+      rotation, and rotations that compare equal are identical, so
+      their relative order does not matter.
+    */
+    private void doReversibleTransformation() {
+        int i, j;
+        int n = last + 1;
+        int m = 2 * n + 1;
 
-        bigN = hi - lo + 1;
-        if (bigN < 2) {
-            return;
+        if (saText == null || saText.length < m) {
+            saText = new int[m];
+            sa = new int[m];
         }
-
-        hp = 0;
-        while (incs[hp] < bigN) {
-            hp++;
+        for (i = 0; i < n; i++) {
+            saText[i] = block[i + 1] + 1;
+            saText[i + n] = saText[i];
         }
-        hp--;
-
-        for (; hp >= 0; hp--) {
-            h = incs[hp];
-
-            i = lo + h;
-            while (true) {
-                /* copy 1 */
-                if (i > hi) {
-                    break;
-                }
-                v = zptr[i];
-                j = i;
-                while (fullGtU(zptr[j - h] + d, v + d)) {
-                    zptr[j] = zptr[j - h];
-                    j = j - h;
-                    if (j <= (lo + h - 1)) {
-                        break;
-                    }
-                }
-                zptr[j] = v;
-                i++;
+        saText[2 * n] = 0;
+        suffixArray(saText, sa, m, 257);
 
-                /* copy 2 */
-                if (i > hi) {
-                    break;
-                }
-                v = zptr[i];
-                j = i;
-                while (fullGtU(zptr[j - h] + d, v + d)) {
-                    zptr[j] = zptr[j - h];
-                    j = j - h;
-                    if (j <= (lo + h - 1)) {
-                        break;
-                    }
-                }
-                zptr[j] = v;
-                i++;
-
-                /* copy 3 */
-                if (i > hi) {
-                    break;
-                }
-                v = zptr[i];
-                j = i;
-                while (fullGtU(zptr[j - h] + d, v + d)) {
-                    zptr[j] = zptr[j - h];
-                    j = j - h;
-                    if (j <= (lo + h - 1)) {
-                        break;
-                    }
-                }
-                zptr[j] = v;
-                i++;
-
-                if (workDone > workLimit && firstAttempt) {
-                    return;
-                }
+        j = 0;
+        for (i = 0; i < m; i++) {
+            if (sa[i] < n) {
+                zptr[j++] = sa[i];
             }
         }
-    }
 
-    private void vswap(int p1, int p2, int n) {
-        int temp = 0;
-        while (n > 0) {
-            temp = zptr[p1];
-            zptr[p1] = zptr[p2];
-            zptr[p2] = temp;
-            p1++;
-            p2++;
-            n--;
-        }
-    }
+        block[0] = (char) (block[last + 1]);
 
-    private char med3(char a, char b, char c) {
-        char t;
-        if (a > b) {
-            t = a;
-            a = b;
-            b = t;
-        }
-        if (b > c) {
-            t = b;
-            b = c;
-            c = t;
-        }
-        if (a > b) {
-            b = a;
-        }
-        return b;
-    }
+        origPtr = -1;
+        for (i = 0; i <= last; i++) {
+            if (zptr[i] == 0) {
+                origPtr = i;
+                break;
+            }
+        };
 
-    private static class StackElem {
-        int ll;
-        int hh;
-        int dd;
+        if (origPtr == -1) {
+            panic();
+        }
     }
 
-    private void qSort3(int loSt, int hiSt, int dSt) {
-        int unLo, unHi, ltLo, gtHi, med, n, m;
-        int sp, lo, hi, d;
-        StackElem[] stack = new StackElem[QSORT_STACK_SIZE];
-        for (int count = 0; count < QSORT_STACK_SIZE; count++) {
-            stack[count] = new StackElem();
+    /*
+      Builds the suffix array of s[0 .. n-1] by induced sorting
+      (SA-IS, Nong, Zhang and Chan 2009). The symbols are in
+      0 .. k-1 and s[n-1] must be a unique 0.
+    */
+    private static void suffixArray(int[] s, int[] sa, int n, int k) {
+        int i, j;
+        boolean[] stype = new boolean[n];
+        int[] bkt = new int[k];
+
+        /* classify the suffixes, the sentinel is S-type */
+        stype[n - 1] = true;
+        for (i = n - 2; i >= 0; i--) {
+            stype[i] = s[i] < s[i + 1]
+                || (s[i] == s[i + 1] && stype[i + 1]);
         }
 
-        sp = 0;
-
-        stack[sp].ll = loSt;
-        stack[sp].hh = hiSt;
-        stack[sp].dd = dSt;
-        sp++;
-
-        while (sp > 0) {
-            if (sp >= QSORT_STACK_SIZE) {
-                panic();
+        /* sort the LMS substrings */
+        getBuckets(s, bkt, n, k, true);
+        Arrays.fill(sa, 0, n, -1);
+        for (i = 1; i < n; i++) {
+            if (isLMS(stype, i)) {
+                sa[--bkt[s[i]]] = i;
             }
-
-            sp--;
-            lo = stack[sp].ll;
-            hi = stack[sp].hh;
-            d = stack[sp].dd;
-
-            if (hi - lo < SMALL_THRESH || d > DEPTH_THRESH) {
-                simpleSort(lo, hi, d);
-                if (workDone > workLimit && firstAttempt) {
-                    return;
-                }
-                continue;
+        }
+        induceL(s, sa, stype, bkt, n, k);
+        induceS(s, sa, stype, bkt, n, k);
+
+        /* compact them into the first n1 items and name them */
+        int n1 = 0;
+        for (i = 0; i < n; i++) {
+            if (isLMS(stype, sa[i])) {
+                sa[n1++] = sa[i];
             }
-
-            med = med3(block[zptr[lo] + d + 1],
-                       block[zptr[hi            ] + d  + 1],
-                       block[zptr[(lo + hi) >> 1] + d + 1]);
-
-            unLo = ltLo = lo;
-            unHi = gtHi = hi;
-
-            while (true) {
-                while (true) {
-                    if (unLo > unHi) {
-                        break;
-                    }
-                    n = ((int) block[zptr[unLo] + d + 1]) - med;
-                    if (n == 0) {
-                        int temp = 0;
-                        temp = zptr[unLo];
-                        zptr[unLo] = zptr[ltLo];
-                        zptr[ltLo] = temp;
-                        ltLo++;
-                        unLo++;
-                        continue;
-                    };
-                    if (n >  0) {
-                        break;
-                    }
-                    unLo++;
-                }
-                while (true) {
-                    if (unLo > unHi) {
-                        break;
-                    }
-                    n = ((int) block[zptr[unHi] + d + 1]) - med;
-                    if (n == 0) {
-                        int temp = 0;
-                        temp = zptr[unHi];
-                        zptr[unHi] = zptr[gtHi];
-                        zptr[gtHi] = temp;
-                        gtHi--;
-                        unHi--;
-                        continue;
-                    };
-                    if (n <  0) {
-                        break;
-                    }
-                    unHi--;
-                }
-                if (unLo > unHi) {
+        }
+        Arrays.fill(sa, n1, n, -1);
+        int name = 0;
+        int prev = -1;
+        for (i = 0; i < n1; i++) {
+            int pos = sa[i];
+            boolean diff = false;
+            for (int d = 0; d < n; d++) {
+                if (prev == -1 || s[pos + d] != s[prev + d]
+                    || stype[pos + d] != stype[prev + d]) {
+                    diff = true;
+                    break;
+                } else if (d > 0 && (isLMS(stype, pos + d)
+                                     || isLMS(stype, prev + d))) {
                     break;
                 }
-                int temp = 0;
-                temp = zptr[unLo];
-                zptr[unLo] = zptr[unHi];
-                zptr[unHi] = temp;
-                unLo++;
-                unHi--;
             }
-
-            if (gtHi < ltLo) {
-                stack[sp].ll = lo;
-                stack[sp].hh = hi;
-                stack[sp].dd = d + 1;
-                sp++;
-                continue;
+            if (diff) {
+                name++;
+                prev = pos;
             }
-
-            n = ((ltLo - lo) < (unLo - ltLo)) ? (ltLo - lo) : (unLo - ltLo);
-            vswap(lo, unLo - n, n);
-            m = ((hi - gtHi) < (gtHi - unHi)) ? (hi - gtHi) : (gtHi - unHi);
-            vswap(unLo, hi - m + 1, m);
-
-            n = lo + unLo - ltLo - 1;
-            m = hi - (gtHi - unHi) + 1;
-
-            stack[sp].ll = lo;
-            stack[sp].hh = n;
-            stack[sp].dd = d;
-            sp++;
-
-            stack[sp].ll = n + 1;
-            stack[sp].hh = m - 1;
-            stack[sp].dd = d + 1;
-            sp++;
-
-            stack[sp].ll = m;
-            stack[sp].hh = hi;
-            stack[sp].dd = d;
-            sp++;
+            sa[n1 + (pos >> 1)] = name - 1;
         }
-    }
-
-    private void mainSort() {
-        int i, j, ss, sb;
-        int[] runningOrder = new int[256];
-        int[] copy = new int[256];
-        boolean[] bigDone = new boolean[256];
-        int c1, c2;
-        @SuppressWarnings("unused")
-        int numQSorted;
-
-        /*
-          In the various block-sized structures, live data runs
-          from 0 to last+NUM_OVERSHOOT_BYTES inclusive.  First,
-          set up the overshoot area for block.
-        */
-
-        //   if (verbosity >= 4) fprintf ( stderr, "   sort initialise ...\n" );
-        for (i = 0; i < NUM_OVERSHOOT_BYTES; i++) {
-            block[last + i + 2] = block[(i % (last + 1)) + 1];
-        }
-        for (i = 0; i <= last + NUM_OVERSHOOT_BYTES; i++) {
-            quadrant[i] = 0;
+        int[] s1 = new int[n1];
+        for (i = n - 1, j = n1 - 1; i >= n1; i--) {
+            if (sa[i] >= 0) {
+                s1[j--] = sa[i];
+            }
         }
 
-        block[0] = (char) (block[last + 1]);
-
-        if (last < 4000) {
-            /*
-              Use simpleSort(), since the full sorting mechanism
-              has quite a large constant overhead.
-            */
-            for (i = 0; i <= last; i++) {
-                zptr[i] = i;
-            }
-            firstAttempt = false;
-            workDone = workLimit = 0;
-            simpleSort(0, last, 0);
+        /* sort the LMS suffixes, recursing if names are not unique */
+        int[] sa1 = new int[n1];
+        if (name < n1) {
+            suffixArray(s1, sa1, n1, name);
         } else {
-            numQSorted = 0;
-            for (i = 0; i <= 255; i++) {
-                bigDone[i] = false;
-            }
-
-            for (i = 0; i <= 65536; i++) {
-                ftab[i] = 0;
-            }
-
-            c1 = block[0];
-            for (i = 0; i <= last; i++) {
-                c2 = block[i + 1];
-                ftab[(c1 << 8) + c2]++;
-                c1 = c2;
-            }
-
-            for (i = 1; i <= 65536; i++) {
-                ftab[i] += ftab[i - 1];
-            }
-
-            c1 = block[1];
-            for (i = 0; i < last; i++) {
-                c2 = block[i + 2];
-                j = (c1 << 8) + c2;
-                c1 = c2;
-                ftab[j]--;
-                zptr[ftab[j]] = i;
-            }
-
-            j = ((block[last + 1]) << 8) + (block[1]);
-            ftab[j]--;
-            zptr[ftab[j]] = last;
-
-            /*
-              Now ftab contains the first loc of every small bucket.
-              Calculate the running order, from smallest to largest
-              big bucket.
-            */
-
-            for (i = 0; i <= 255; i++) {
-                runningOrder[i] = i;
-            }
-
-            {
-                int vv;
-                int h = 1;
-                do {
-                    h = 3 * h + 1;
-                }
-                while (h <= 256);
-                do {
-                    h = h / 3;
-                    for (i = h; i <= 255; i++) {
-                        vv = runningOrder[i];
-                        j = i;
-                        while ((ftab[((runningOrder[j - h]) + 1) << 8]
-                                - ftab[(runningOrder[j - h]) << 8]) >
-                               (ftab[((vv) + 1) << 8] - ftab[(vv) << 8])) {
-                            runningOrder[j] = runningOrder[j - h];
-                            j = j - h;
-                            if (j <= (h - 1)) {
-                                break;
-                            }
-                        }
-                        runningOrder[j] = vv;
-                    }
-                } while (h != 1);
-            }
-
-            /*
-              The main sorting loop.
-            */
-            for (i = 0; i <= 255; i++) {
-
-                /*
-                  Process big buckets, starting with the least full.
-                */
-                ss = runningOrder[i];
-
-                /*
-                  Complete the big bucket [ss] by quicksorting
-                  any unsorted small buckets [ss, j].  Hopefully
-                  previous pointer-scanning phases have already
-                  completed many of the small buckets [ss, j], so
-                  we don't have to sort them at all.
-                */
-                for (j = 0; j <= 255; j++) {
-                    sb = (ss << 8) + j;
-                    if (!((ftab[sb] & SETMASK) == SETMASK)) {
-                        int lo = ftab[sb] & CLEARMASK;
-                        int hi = (ftab[sb + 1] & CLEARMASK) - 1;
-                        if (hi > lo) {
-                            qSort3(lo, hi, 2);
-                            numQSorted += (hi - lo + 1);
-                            if (workDone > workLimit && firstAttempt) {
-                                return;
-                            }
-                        }
-                        ftab[sb] |= SETMASK;
-                    }
-                }
-
-                /*
-                  The ss big bucket is now done.  Record this fact,
-                  and update the quadrant descriptors.  Remember to
-                  update quadrants in the overshoot area too, if
-                  necessary.  The "if (i < 255)" test merely skips
-                  this updating for the last bucket processed, since
-                  updating for the last bucket is pointless.
-                */
-                bigDone[ss] = true;
-
-                if (i < 255) {
-                    int bbStart  = ftab[ss << 8] & CLEARMASK;
-                    int bbSize   = (ftab[(ss + 1) << 8] & CLEARMASK) - bbStart;
-                    int shifts   = 0;
-
-                    while ((bbSize >> shifts) > 65534) {
-                        shifts++;
-                    }
-
-                    for (j = 0; j < bbSize; j++) {
-                        int a2update = zptr[bbStart + j];
-                        int qVal = (j >> shifts);
-                        quadrant[a2update] = qVal;
-                        if (a2update < NUM_OVERSHOOT_BYTES) {
-                            quadrant[a2update + last + 1] = qVal;
-                        }
-                    }
-
-                    if (!(((bbSize - 1) >> shifts) <= 65535)) {
-                        panic();
-                    }
-                }
-
-                /*
-                  Now scan this big bucket so as to synthesise the
-                  sorted order for small buckets [t, ss] for all t != ss.
-                */
-                for (j = 0; j <= 255; j++) {
-                    copy[j] = ftab[(j << 8) + ss] & CLEARMASK;
-                }
-
-                for (j = ftab[ss << 8] & CLEARMASK;
-                     j < (ftab[(ss + 1) << 8] & CLEARMASK); j++) {
-                    c1 = block[zptr[j]];
-                    if (!bigDone[c1]) {
-                        zptr[copy[c1]] = zptr[j] == 0 ? last : zptr[j] - 1;
-                        copy[c1]++;
-                    }
-                }
-
-                for (j = 0; j <= 255; j++) {
-                    ftab[(j << 8) + ss] |= SETMASK;
-                }
+            for (i = 0; i < n1; i++) {
+                sa1[s1[i]] = i;
             }
         }
-    }
 
-    private void randomiseBlock() {
-        int i;
-        int rNToGo = 0;
-        int rTPos  = 0;
-        for (i = 0; i < 256; i++) {
-            inUse[i] = false;
-        }
-
-        for (i = 0; i <= last; i++) {
-            if (rNToGo == 0) {
-                rNToGo = (char) rNums[rTPos];
-                rTPos++;
-                if (rTPos == 512) {
-                    rTPos = 0;
-                }
+        /* induce the order of all suffixes from the LMS suffixes */
+        for (i = 1, j = 0; i < n; i++) {
+            if (isLMS(stype, i)) {
+                s1[j++] = i;
             }
-            rNToGo--;
-            block[i + 1] ^= ((rNToGo == 1) ? 1 : 0);
-            // handle 16 bit signed numbers
-            block[i + 1] &= 0xFF;
-
-            inUse[block[i + 1]] = true;
         }
-    }
-
-    private void doReversibleTransformation() {
-        int i;
-
-        workLimit = workFactor * last;
-        workDone = 0;
-        blockRandomised = false;
-        firstAttempt = true;
-
-        mainSort();
-
-        if (workDone > workLimit && firstAttempt) {
-            randomiseBlock();
-            workLimit = workDone = 0;
-            blockRandomised = true;
-            firstAttempt = false;
-            mainSort();
+        for (i = 0; i < n1; i++) {
+            sa1[i] = s1[sa1[i]];
         }
-
-        origPtr = -1;
-        for (i = 0; i <= last; i++) {
-            if (zptr[i] == 0) {
-                origPtr = i;
-                break;
-            }
-        };
-
-        if (origPtr == -1) {
-            panic();
+        getBuckets(s, bkt, n, k, true);
+        Arrays.fill(sa, 0, n, -1);
+        for (i = n1 - 1; i >= 0; i--) {
+            j = sa1[i];
+            sa[--bkt[s[j]]] = j;
         }
+        induceL(s, sa, stype, bkt, n, k);
+        induceS(s, sa, stype, bkt, n, k);
     }
 
-    private boolean fullGtU(int i1, int i2) {
-        int k;
-        char c1, c2;
-        int s1, s2;
-
-        c1 = block[i1 + 1];
-        c2 = block[i2 + 1];
-        if (c1 != c2) {
-            return (c1 > c2);
-        }
-        i1++;
-        i2++;
-
-        c1 = block[i1 + 1];
-        c2 = block[i2 + 1];
-        if (c1 != c2) {
-            return (c1 > c2);
-        }
-        i1++;
-        i2++;
-
-        c1 = block[i1 + 1];
-        c2 = block[i2 + 1];
-        if (c1 != c2) {
-            return (c1 > c2);
-        }
-        i1++;
-        i2++;
-
-        c1 = block[i1 + 1];
-        c2 = block[i2 + 1];
-        if (c1 != c2) {
-            return (c1 > c2);
-        }
-        i1++;
-        i2++;
+    private static boolean isLMS(boolean[] stype, int i) {
+        return i > 0 && stype[i] && !stype[i - 1];
+    }
 
-        c1 = block[i1 + 1];
-        c2 = block[i2 + 1];
-        if (c1 != c2) {
-            return (c1 > c2);
+    private static void getBuckets(int[] s, int[] bkt, int n, int k,
+                                   boolean end) {
+        int i, sum = 0;
+        Arrays.fill(bkt, 0, k, 0);
+        for (i = 0; i < n; i++) {
+            bkt[s[i]]++;
         }
-        i1++;
-        i2++;
-
-        c1 = block[i1 + 1];
-        c2 = block[i2 + 1];
-        if (c1 != c2) {
-            return (c1 > c2);
+        for (i = 0; i < k; i++) {
+            sum += bkt[i];
+            bkt[i] = end ? sum : sum - bkt[i];
         }
-        i1++;
-        i2++;
-
-        k = last + 1;
-
-        do {
-            c1 = block[i1 + 1];
-            c2 = block[i2 + 1];
-            if (c1 != c2) {
-                return (c1 > c2);
-            }
-            s1 = quadrant[i1];
-            s2 = quadrant[i2];
-            if (s1 != s2) {
-                return (s1 > s2);
-            }
-            i1++;
-            i2++;
-
-            c1 = block[i1 + 1];
-            c2 = block[i2 + 1];
-            if (c1 != c2) {
-                return (c1 > c2);
-            }
-            s1 = quadrant[i1];
-            s2 = quadrant[i2];
-            if (s1 != s2) {
-                return (s1 > s2);
-            }
-            i1++;
-            i2++;
+    }
 
-            c1 = block[i1 + 1];
-            c2 = block[i2 + 1];
-            if (c1 != c2) {
-                return (c1 > c2);
-            }
-            s1 = quadrant[i1];
-            s2 = quadrant[i2];
-            if (s1 != s2) {
-                return (s1 > s2);
+    private static void induceL(int[] s, int[] sa, boolean[] stype,
+                                int[] bkt, int n, int k) {
+        getBuckets(s, bkt, n, k, false);
+        for (int i = 0; i < n; i++) {
+            int j = sa[i] - 1;
+            if (j >= 0 && !stype[j]) {
+                sa[bkt[s[j]]++] = j;
             }
-            i1++;
-            i2++;
+        }
+    }
 
-            c1 = block[i1 + 1];
-            c2 = block[i2 + 1];
-            if (c1 != c2) {
-                return (c1 > c2);
-            }
-            s1 = quadrant[i1];
-            s2 = quadrant[i2];
-            if (s1 != s2) {
-                return (s1 > s2);
+    private static void induceS(int[] s, int[] sa, boolean[] stype,
+                                int[] bkt, int n, int k) {
+        getBuckets(s, bkt, n, k, true);
+        for (int i = n - 1; i >= 0; i--) {
+            int j = sa[i] - 1;
+            if (j >= 0 && stype[j]) {
+                sa[--bkt[s[j]]] = j;
             }
-            i1++;
-            i2++;
-
-            if (i1 > last) {
-                i1 -= last;
-                i1--;
-            };
-            if (i2 > last) {
-                i2 -= last;
-                i2--;
-            };
-
-            k -= 4;
-            workDone++;
-        } while (k >= 0);
-
-        return false;
+        }
     }
 
-    /*
-      Knuth's increments seem to work better
-      than Incerpi-Sedgewick here.  Possibly
-      because the number of elems to sort is
-      usually small, typically <= 20.
-    */
-    private int[] incs = { 1, 4, 13, 40, 121, 364, 1093, 3280,
-                           9841, 29524, 88573, 265720,
-                           797161, 2391484 };
-
     private void allocateCompressStructures () {
         int n = baseBlockSize * blockSize100k;
         block = new char[(n + 1 + NUM_OVERSHOOT_BYTES)];
-        quadrant = new int[(n + NUM_OVERSHOOT_BYTES)];
         zptr = new int[n];
-        ftab = new int[65537];
-
-        if (block == null || quadrant == null || zptr == null
-            || ftab == null) {
-            //int totalDraw = (n + 1 + NUM_OVERSHOOT_BYTES) + (n + NUM_OVERSHOOT_BYTES) + n + 65537;
-            //compressOutOfMemory ( totalDraw, n );
-        }
 
         /*
           The back end needs a place to store the MTF values
-          whilst it calculates the coding tables.  We could
-          put them in the zptr array.  However, these values
-          will fit in a short, so we overlay szptr at the
-          start of zptr, in the hope of reducing the number
-          of cache misses induced by the multiple traversals
-          of the MTF values when calculating coding tables.
-          Seems to improve compression speed by about 1%.
+          whilst it calculates the coding tables.
         */
-        //    szptr = zptr;
-
-
         szptr = new short[2 * n];
     }
 
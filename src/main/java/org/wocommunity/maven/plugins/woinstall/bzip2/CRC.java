@@ -134,6 +134,25 @@ class CRC {
         0xbcb4666d, 0xb8757bda, 0xb5365d03, 0xb1f740b4
     };
 
+    /*
+      Tables for slicing-by-8: crc32Tables[k][i] is the CRC register
+      contribution of byte i followed by k zero bytes, so eight input
+      bytes are folded in with eight independent lookups.
+    */
+    private static final int[][] crc32Tables = new int[8][256];
+
+    static {
+        for (int i = 0; i < 256; i++) {
+            crc32Tables[0][i] = crc32Table[i];
+        }
+        for (int k = 1; k < 8; k++) {
+            for (int i = 0; i < 256; i++) {
+                int c = crc32Tables[k - 1][i];
+                crc32Tables[k][i] = (c << 8) ^ crc32Table[c >>> 24];
+            }
+        }
+    }
+
     public CRC() {
         initialiseCRC();
     }
@@ -155,13 +174,38 @@ class CRC {
     }
 
     void updateCRC(int inCh) {
-        int temp = (globalCrc >> 24) ^ inCh;
-        if (temp < 0) {
-            temp = 256 + temp;
+        globalCrc = (globalCrc << 8)
+            ^ CRC.crc32Table[((globalCrc >>> 24) ^ inCh) & 0xff];
+    }
+
+    void updateCRC(byte[] b, int off, int len) {
+        final int[] t0 = crc32Tables[0], t1 = crc32Tables[1];
+        final int[] t2 = crc32Tables[2], t3 = crc32Tables[3];
+        final int[] t4 = crc32Tables[4], t5 = crc32Tables[5];
+        final int[] t6 = crc32Tables[6], t7 = crc32Tables[7];
+        int crc = globalCrc;
+        int end = off + len;
+        for (; off <= end - 8; off += 8) {
+            crc ^= (b[off] & 0xff) << 24 | (b[off + 1] & 0xff) << 16
+                | (b[off + 2] & 0xff) << 8 | (b[off + 3] & 0xff);
+            crc = t7[crc >>> 24] ^ t6[(crc >>> 16) & 0xff]
+                ^ t5[(crc >>> 8) & 0xff] ^ t4[crc & 0xff]
+                ^ t3[b[off + 4] & 0xff] ^ t2[b[off + 5] & 0xff]
+                ^ t1[b[off + 6] & 0xff] ^ t0[b[off + 7] & 0xff];
+        }
+        for (; off < end; off++) {
+            crc = (crc << 8) ^ t0[((crc >>> 24) ^ b[off]) & 0xff];
+        }
+        globalCrc = crc;
+    }
+
+    void updateCRC(int inCh, int repeat) {
+        int crc = globalCrc;
+        while (repeat-- > 0) {
+            crc = (crc << 8) ^ CRC.crc32Table[((crc >>> 24) ^ inCh) & 0xff];
         }
-        globalCrc = (globalCrc << 8) ^ CRC.crc32Table[temp];
+        globalCrc = crc;
     }
 
     int globalCrc;
 }
-
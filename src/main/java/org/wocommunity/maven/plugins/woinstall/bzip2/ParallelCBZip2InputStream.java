@@ -0,0 +1,438 @@
+package org.wocommunity.maven.plugins.woinstall.bzip2;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+/**
+ * An input stream that decompresses from the BZip2 format (without the file
+ * header chars) on several threads. Blocks are located by scanning the
+ * compressed data for the 48 bit block magic at every bit offset, decoded
+ * independently on a fork/join pool and returned in order. Each block CRC is
+ * checked by the decoder of that block, the combined CRC once the end of stream
+ * marker is reached. Unlike {@link CBZip2InputStream}, a mismatch is reported
+ * as an {@link IOException}.
+ *
+ * The magic can occur by chance inside compressed data. A candidate block that
+ * does not decode on its own is retried together with the following candidate
+ * before the stream is considered corrupt.
+ */
+public class ParallelCBZip2InputStream extends InputStream {
+	private static final long BLOCK_MAGIC = 0x314159265359L;
+	private static final long EOS_MAGIC = 0x177245385090L;
+	private static final long MAGIC_MASK = 0xffffffffffffL;
+	private static final int MAGIC_BITS = 48;
+	private static final int CRC_BITS = 32;
+	/**
+	 * The stream CRC and the padding to a full byte follow the end of stream
+	 * marker, anything longer means the marker was part of a block.
+	 */
+	private static final int TRAILER_BYTES = 5;
+
+	private final InputStream in;
+	private final ForkJoinPool pool;
+	private final int maxInFlight;
+	private final Deque<Candidate> pending = new ArrayDeque<>();
+
+	private final byte[] readBuffer = new byte[64 * 1024];
+	private int readPos;
+	private int readEnd;
+	private boolean inputEOF;
+
+	private int blockSizeChar;
+	private long register;
+	private long bitsScanned;
+	private boolean scanDone;
+	private boolean endOfStream;
+
+	/* raw compressed bytes of the candidate being scanned */
+	private byte[] raw = new byte[64 * 1024];
+	private int rawLength;
+	private long rawBase;
+	private long candidateStart = -1;
+
+	private int storedCombinedCRC;
+	private int computedCombinedCRC;
+
+	private byte[] block = new byte[0];
+	private int blockPos;
+	private int blockLength;
+	private final byte[] singleByte = new byte[1];
+
+	/**
+	 * Decompresses on the common fork/join pool.
+	 *
+	 * @param in the compressed data, positioned after the "BZ" file header
+	 * @throws IOException if the stream header cannot be read
+	 */
+	public ParallelCBZip2InputStream(final InputStream in) throws IOException {
+		this(in, ForkJoinPool.commonPool());
+	}
+
+	/**
+	 * @param in   the compressed data, positioned after the "BZ" file header
+	 * @param pool the pool that decodes blocks, at most one more block than its
+	 *             parallelism is held in memory at a time
+	 * @throws IOException if the stream header cannot be read
+	 */
+	public ParallelCBZip2InputStream(final InputStream in, final ForkJoinPool pool) throws IOException {
+		this.in = in;
+		this.pool = pool;
+		maxInFlight = pool.getParallelism() + 1;
+		final int magic3 = nextInputByte();
+		final int magic4 = nextInputByte();
+		if (magic3 != 'h' || magic4 < '1' || magic4 > '9') {
+			scanDone = true;
+			endOfStream = true;
+		}
+		blockSizeChar = magic4;
+	}
+
+	@Override
+	public int read() throws IOException {
+		return read(singleByte, 0, 1) == -1 ? -1 : singleByte[0] & 0xff;
+	}
+
+	@Override
+	public int read(final byte[] b, final int off, final int len) throws IOException {
+		if (off < 0 || len < 0 || len > b.length - off) {
+			throw new IndexOutOfBoundsException();
+		}
+		if (len == 0) {
+			return 0;
+		}
+		while (blockPos == blockLength) {
+			if (!nextBlock()) {
+				return -1;
+			}
+		}
+		final int count = Math.min(len, blockLength - blockPos);
+		System.arraycopy(block, blockPos, b, off, count);
+		blockPos += count;
+		return count;
+	}
+
+	@Override
+	public void close() throws IOException {
+		for (final Candidate candidate : pending) {
+			candidate.task.cancel(false);
+		}
+		pending.clear();
+		in.close();
+	}
+
+	private boolean nextBlock() throws IOException {
+		fillPipeline();
+		final Candidate candidate = pending.poll();
+		if (candidate == null) {
+			if (!endOfStream) {
+				throw new IOException("bzip2 stream ended unexpectedly");
+			}
+			if (storedCombinedCRC != computedCombinedCRC) {
+				throw new IOException("bzip2 stream CRC mismatch");
+			}
+			return false;
+		}
+		Block decoded = candidate.task.join();
+		if (decoded == null) {
+			fillPipeline();
+			final Candidate next = pending.poll();
+			if (next != null) {
+				next.task.cancel(false);
+				decoded = decode(blockSizeChar, candidate.segment, next.segment);
+			}
+			if (decoded == null) {
+				throw new IOException("bzip2 block CRC mismatch");
+			}
+		}
+		computedCombinedCRC = (computedCombinedCRC << 1) | (computedCombinedCRC >>> 31);
+		computedCombinedCRC ^= candidate.segment.storedCRC;
+		block = decoded.data;
+		blockLength = decoded.length;
+		blockPos = 0;
+		return true;
+	}
+
+	private void fillPipeline() throws IOException {
+		while (pending.size() < maxInFlight) {
+			final Segment segment = nextSegment();
+			if (segment == null) {
+				break;
+			}
+			final int size = blockSizeChar;
+			pending.add(new Candidate(segment, pool.submit(() -> decode(size, segment))));
+		}
+	}
+
+	/**
+	 * Scans up to the next block or end of stream magic.
+	 *
+	 * @return the bits from the previous magic up to the one found, or null at
+	 *         the end of the stream.
+	 */
+	private Segment nextSegment() throws IOException {
+		while (!scanDone) {
+			final int b = nextInputByte();
+			if (b == -1) {
+				scanDone = true;
+				/* truncated, let the decoder of the last block fail */
+				return candidateStart < 0 ? null : segment(bitsScanned);
+			}
+			appendRaw(b);
+			register = (register << 8) | b;
+			bitsScanned += 8;
+			/* k is the number of bits of this byte after the magic */
+			for (int k = 7; k >= 0; k--) {
+				if (bitsScanned - k < MAGIC_BITS) {
+					continue;
+				}
+				final long magic = (register >>> k) & MAGIC_MASK;
+				if (magic != BLOCK_MAGIC && (magic != EOS_MAGIC || !readTrailer(b, k))) {
+					continue;
+				}
+				final long start = bitsScanned - k - MAGIC_BITS;
+				final Segment segment = candidateStart < 0 ? null : segment(start);
+				if (magic == EOS_MAGIC) {
+					scanDone = true;
+					endOfStream = true;
+				} else {
+					startCandidate(start);
+				}
+				if (segment != null) {
+					return segment;
+				}
+				break;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Reads the stream CRC after an end of stream magic, provided that the
+	 * input ends right after it. Otherwise the magic is part of a block and
+	 * nothing is consumed.
+	 */
+	private boolean readTrailer(final int currentByte, final int trailingBits) throws IOException {
+		final int needed = (CRC_BITS - trailingBits + 7) / 8;
+		if (!ensureInput(TRAILER_BYTES + 1) && readEnd - readPos <= TRAILER_BYTES
+				&& readEnd - readPos >= needed) {
+			long crc = currentByte & ((1 << trailingBits) - 1);
+			int bits = trailingBits;
+			int i = readPos;
+			while (bits < CRC_BITS) {
+				crc = (crc << 8) | (readBuffer[i++] & 0xff);
+				bits += 8;
+			}
+			storedCombinedCRC = (int) (crc >>> (bits - CRC_BITS));
+			readPos = readEnd;
+			return true;
+		}
+		return false;
+	}
+
+	private Segment segment(final long end) {
+		final long bitLength = end - candidateStart;
+		final byte[] bits = new byte[(int) ((bitLength + 7) / 8)];
+		final long first = candidateStart - rawBase;
+		final int shift = (int) (first & 7);
+		int from = (int) (first >>> 3);
+		for (int i = 0; i < bits.length; i++, from++) {
+			int value = (raw[from] & 0xff) << shift;
+			if (shift != 0 && from + 1 < rawLength) {
+				value |= (raw[from + 1] & 0xff) >>> (8 - shift);
+			}
+			bits[i] = (byte) value;
+		}
+		return new Segment(bits, bitLength);
+	}
+
+	private void startCandidate(final long start) {
+		final int keepFrom = (int) ((start - rawBase) >>> 3);
+		System.arraycopy(raw, keepFrom, raw, 0, rawLength - keepFrom);
+		rawLength -= keepFrom;
+		rawBase += (long) keepFrom * 8;
+		candidateStart = start;
+	}
+
+	private void appendRaw(final int b) {
+		if (rawLength == raw.length) {
+			raw = Arrays.copyOf(raw, raw.length * 2);
+		}
+		raw[rawLength++] = (byte) b;
+	}
+
+	private int nextInputByte() throws IOException {
+		if (readPos == readEnd && !ensureInput(1)) {
+			return -1;
+		}
+		return readBuffer[readPos++] & 0xff;
+	}
+
+	/**
+	 * @return true if at least count bytes are buffered.
+	 */
+	private boolean ensureInput(final int count) throws IOException {
+		if (readEnd - readPos >= count) {
+			return true;
+		}
+		System.arraycopy(readBuffer, readPos, readBuffer, 0, readEnd - readPos);
+		readEnd -= readPos;
+		readPos = 0;
+		while (!inputEOF && readEnd < count) {
+			final int read = in.read(readBuffer, readEnd, readBuffer.length - readEnd);
+			if (read == -1) {
+				inputEOF = true;
+			} else {
+				readEnd += read;
+			}
+		}
+		return readEnd >= count;
+	}
+
+	/**
+	 * Decodes one block by handing it to a {@link CBZip2InputStream} as a
+	 * stream of its own.
+	 *
+	 * @return the decoded block, or null if it did not decode cleanly.
+	 */
+	private static Block decode(final int blockSizeChar, final Segment... segments) {
+		int capacity = 16;
+		for (final Segment segment : segments) {
+			capacity += segment.bits.length;
+		}
+		final BitWriter stream = new BitWriter(capacity);
+		stream.write('h', 8);
+		stream.write(blockSizeChar, 8);
+		for (final Segment segment : segments) {
+			stream.write(segment.bits, segment.bitLength);
+		}
+		stream.write(EOS_MAGIC, MAGIC_BITS);
+		/* the combined CRC of a single block stream is its block CRC */
+		stream.write(segments[0].storedCRC & 0xffffffffL, CRC_BITS);
+		try {
+			final CBZip2InputStream decoder = new CBZip2InputStream(new ByteArrayInputStream(stream.toByteArray()));
+			final Output out = new Output();
+			final byte[] buffer = new byte[64 * 1024];
+			int read;
+			while ((read = decoder.read(buffer, 0, buffer.length)) != -1) {
+				out.write(buffer, 0, read);
+			}
+			return decoder.isCorrupt() ? null : new Block(out.buffer(), out.size());
+		} catch (final RuntimeException e) {
+			return null;
+		}
+	}
+
+	private static class Segment {
+		final byte[] bits;
+		final long bitLength;
+		final int storedCRC;
+
+		Segment(final byte[] bits, final long bitLength) {
+			this.bits = bits;
+			this.bitLength = bitLength;
+			/* the block CRC follows the block magic */
+			int crc = 0;
+			for (int i = 6; i < 10 && i < bits.length; i++) {
+				crc = (crc << 8) | (bits[i] & 0xff);
+			}
+			storedCRC = crc;
+		}
+	}
+
+	private static class Candidate {
+		final Segment segment;
+		final ForkJoinTask<Block> task;
+
+		Candidate(final Segment segment, final ForkJoinTask<Block> task) {
+			this.segment = segment;
+			this.task = task;
+		}
+	}
+
+	private static class Block {
+		final byte[] data;
+		final int length;
+
+		Block(final byte[] data, final int length) {
+			this.data = data;
+			this.length = length;
+		}
+	}
+
+	private static class Output extends ByteArrayOutputStream {
+		Output() {
+			super(1024 * 1024);
+		}
+
+		byte[] buffer() {
+			return buf;
+		}
+	}
+
+	private static class BitWriter {
+		private byte[] bytes;
+		private int length;
+		private long pending;
+		private int pendingBits;
+
+		BitWriter(final int capacity) {
+			bytes = new byte[capacity];
+		}
+
+		void write(final long value, final int bits) {
+			for (int i = bits - 8; i > -8; i -= 8) {
+				final int n = i < 0 ? 8 + i : 8;
+				final int chunk = (int) ((i < 0 ? value : value >>> i) & ((1 << n) - 1));
+				pending = (pending << n) | chunk;
+				pendingBits += n;
+				if (pendingBits >= 8) {
+					pendingBits -= 8;
+					put((int) (pending >>> pendingBits));
+				}
+			}
+		}
+
+		void write(final byte[] bits, final long bitLength) {
+			final int whole = (int) (bitLength >>> 3);
+			if (pendingBits == 0) {
+				ensure(whole);
+				System.arraycopy(bits, 0, bytes, length, whole);
+				length += whole;
+			} else {
+				for (int i = 0; i < whole; i++) {
+					write(bits[i] & 0xff, 8);
+				}
+			}
+			final int rest = (int) (bitLength & 7);
+			if (rest != 0) {
+				write((bits[whole] & 0xff) >>> (8 - rest), rest);
+			}
+		}
+
+		byte[] toByteArray() {
+			if (pendingBits > 0) {
+				put((int) (pending << (8 - pendingBits)));
+				pendingBits = 0;
+			}
+			return Arrays.copyOf(bytes, length);
+		}
+
+		private void put(final int b) {
+			ensure(1);
+			bytes[length++] = (byte) b;
+		}
+
+		private void ensure(final int count) {
+			if (length + count > bytes.length) {
+				bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, length + count));
+			}
+		}
+	}
+}
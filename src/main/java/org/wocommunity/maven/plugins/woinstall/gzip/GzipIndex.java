@@ -0,0 +1,415 @@
+package org.wocommunity.maven.plugins.woinstall.gzip;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Random access into a single member gzip stream. The index holds checkpoints
+ * at deflate block boundaries, each with the compressed bit offset of the
+ * block, the uncompressed offset it starts at and the up to 32 KB of output
+ * before it that the block may refer back to. Inflating can start at any
+ * checkpoint, so reaching an offset costs at most the span between two
+ * checkpoints instead of inflating from the start, and the spans can be
+ * inflated independently of each other.
+ * <p>
+ * The index also maps names to uncompressed offsets and CRC-32s, for archives
+ * stored in the stream whose entries are to be found without reading what
+ * precedes them and checked without the trailer of the whole stream. It
+ * records the length and modification time of the file the stream was read
+ * from and the offset of the stream in it, so an index left over from another
+ * file is not used. Indexes are built by {@link IndexingGzipInputStream}.
+ */
+public class GzipIndex {
+	/**
+	 * Opens the compressed stream at a byte offset.
+	 */
+	@FunctionalInterface
+	public interface Source {
+		/**
+		 * @param offset the offset from the first byte of the gzip header
+		 * @return the compressed bytes from the offset on
+		 * @throws IOException if the stream cannot be opened
+		 */
+		InputStream open(long offset) throws IOException;
+	}
+
+	/**
+	 * A deflate block boundary.
+	 */
+	public static final class Checkpoint {
+		private final long uncompressedOffset;
+		private final long compressedBitOffset;
+		private final byte[] window;
+
+		Checkpoint(final long uncompressedOffset, final long compressedBitOffset, final byte[] window) {
+			this.uncompressedOffset = uncompressedOffset;
+			this.compressedBitOffset = compressedBitOffset;
+			this.window = window;
+		}
+
+		public long getUncompressedOffset() {
+			return uncompressedOffset;
+		}
+
+		public long getCompressedBitOffset() {
+			return compressedBitOffset;
+		}
+	}
+
+	/**
+	 * A named entry of an archive stored in the stream.
+	 */
+	public static final class Entry {
+		private final long uncompressedOffset;
+		private final long crc;
+
+		public Entry(final long uncompressedOffset, final long crc) {
+			this.uncompressedOffset = uncompressedOffset;
+			this.crc = crc;
+		}
+
+		public long getUncompressedOffset() {
+			return uncompressedOffset;
+		}
+
+		/**
+		 * @return the CRC-32 of the entry's data
+		 */
+		public long getCrc() {
+			return crc;
+		}
+	}
+
+	private static final int MAGIC = 0x575a4958; // "WZIX"
+	private static final int VERSION = 2;
+	private static final int WINDOW_SIZE = 32 * 1024;
+	private static final int INFLATER_BUFFER_SIZE = 64 * 1024;
+
+	private final List<Checkpoint> checkpoints;
+	private final long uncompressedLength;
+	private final int crc;
+	private final Map<String, Entry> entries = new LinkedHashMap<>();
+	private long sourceLength = -1;
+	private long sourceLastModified = -1;
+	private long sourceOffset = -1;
+
+	GzipIndex(final List<Checkpoint> checkpoints, final long uncompressedLength, final int crc) {
+		this.checkpoints = Collections.unmodifiableList(new ArrayList<>(checkpoints));
+		this.uncompressedLength = uncompressedLength;
+		this.crc = crc;
+	}
+
+	public List<Checkpoint> getCheckpoints() {
+		return checkpoints;
+	}
+
+	public long getUncompressedLength() {
+		return uncompressedLength;
+	}
+
+	/**
+	 * @return the CRC-32 of the uncompressed data, as stored in the gzip trailer
+	 */
+	public int getCrc() {
+		return crc;
+	}
+
+	/**
+	 * @return every named entry, in insertion order
+	 */
+	public Map<String, Entry> getEntries() {
+		return Collections.unmodifiableMap(entries);
+	}
+
+	public void putEntry(final String name, final Entry entry) {
+		entries.put(name, entry);
+	}
+
+	/**
+	 * Records the file the compressed stream was read from.
+	 *
+	 * @param file   the file
+	 * @param offset the offset of the gzip header in the file
+	 */
+	public void setSourceFile(final File file, final long offset) {
+		sourceLength = file.length();
+		sourceLastModified = file.lastModified();
+		sourceOffset = offset;
+	}
+
+	/**
+	 * @param file   a file
+	 * @param offset the offset of the gzip header in the file
+	 * @return true if the index was built from the stream at the offset of the
+	 *         file, and the file has not been modified since
+	 */
+	public boolean isSourceFile(final File file, final long offset) {
+		return sourceOffset == offset && sourceLength == file.length() && sourceLastModified == file.lastModified();
+	}
+
+	/**
+	 * @param uncompressedOffset an offset into the uncompressed data
+	 * @return the last checkpoint at or before the offset
+	 */
+	public Checkpoint checkpointFor(final long uncompressedOffset) {
+		if (uncompressedOffset < 0 || uncompressedOffset > uncompressedLength) {
+			throw new IllegalArgumentException("offset " + uncompressedOffset);
+		}
+		int low = 0;
+		int high = checkpoints.size() - 1;
+		while (low < high) {
+			final int mid = (low + high + 1) >>> 1;
+			if (checkpoints.get(mid).uncompressedOffset <= uncompressedOffset) {
+				low = mid;
+			} else {
+				high = mid - 1;
+			}
+		}
+		return checkpoints.get(low);
+	}
+
+	/**
+	 * Opens the uncompressed data at an offset, inflating from the closest
+	 * checkpoint before it. The stream ends with the deflate data, the CRC in
+	 * the gzip trailer is not checked.
+	 *
+	 * @param source             the compressed stream
+	 * @param uncompressedOffset the offset of the first byte returned
+	 * @return the uncompressed data from the offset on
+	 * @throws IOException if the compressed stream cannot be read
+	 */
+	public InputStream open(final Source source, final long uncompressedOffset) throws IOException {
+		final Checkpoint checkpoint = checkpointFor(uncompressedOffset);
+		final InputStream in = open(source, checkpoint);
+		long toSkip = uncompressedOffset - checkpoint.uncompressedOffset;
+		while (toSkip > 0) {
+			final long skipped = in.skip(toSkip);
+			if (skipped <= 0) {
+				in.close();
+				throw new EOFException("Unexpected end of ZLIB input stream");
+			}
+			toSkip -= skipped;
+		}
+		return in;
+	}
+
+	/**
+	 * Opens the uncompressed data at a checkpoint. The raw inflater cannot be
+	 * told to start at a bit offset, so the byte holding the first bit of the
+	 * block is prefixed with empty deflate blocks whose length in bits lines the
+	 * block up with the start of the byte. One of them holds a literal when the
+	 * block starts at an odd bit, the dictionary is set after that literal has
+	 * been inflated and so replaces it.
+	 */
+	InputStream open(final Source source, final Checkpoint checkpoint) throws IOException {
+		final InputStream compressed = source.open(checkpoint.compressedBitOffset >>> 3);
+		final int first = compressed.read();
+		if (first == -1) {
+			compressed.close();
+			throw new EOFException("Unexpected end of ZLIB input stream");
+		}
+		final int shift = (int) (checkpoint.compressedBitOffset & 7);
+		final BitWriter prefix = new BitWriter();
+		final boolean literal = (shift & 1) == 1;
+		if (literal) {
+			/* fixed block with the 9 bit literal 0x90, 19 bits */
+			prefix.write(0b010, 3);
+			prefix.writeCode(0b110010000, 9);
+			prefix.writeCode(0, 7);
+		}
+		while ((prefix.length() & 7) != shift) {
+			/* empty fixed block, 10 bits */
+			prefix.write(0b010, 3);
+			prefix.writeCode(0, 7);
+		}
+		final byte[] start = prefix.toByteArray(first & ~((1 << shift) - 1));
+
+		final Inflater inflater = new Inflater(true);
+		try {
+			inflater.setInput(start);
+			if (literal) {
+				final byte[] discarded = new byte[1];
+				while (inflater.inflate(discarded) == 0) {
+					if (inflater.needsInput() || inflater.finished()) {
+						throw new IOException("Invalid gzip index checkpoint");
+					}
+				}
+			}
+			if (checkpoint.window.length > 0) {
+				inflater.setDictionary(checkpoint.window);
+			}
+		} catch (final DataFormatException e) {
+			inflater.end();
+			compressed.close();
+			throw new IOException(e);
+		}
+		return new InflaterInputStream(compressed, inflater, INFLATER_BUFFER_SIZE) {
+			private boolean closed;
+
+			@Override
+			public void close() throws IOException {
+				if (!closed) {
+					closed = true;
+					inflater.end();
+					super.close();
+				}
+			}
+		};
+	}
+
+	/**
+	 * Reads an index written by {@link #write(File)}.
+	 *
+	 * @param file the index file
+	 * @return the index
+	 * @throws IOException if the file cannot be read or is not an index
+	 */
+	public static GzipIndex read(final File file) throws IOException {
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+			if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+				throw new IOException("'" + file + "' is not a gzip index.");
+			}
+			final long sourceLength = in.readLong();
+			final long sourceLastModified = in.readLong();
+			final long sourceOffset = in.readLong();
+			final long uncompressedLength = in.readLong();
+			final int crc = in.readInt();
+			final int checkpointCount = in.readInt();
+			final List<Checkpoint> checkpoints = new ArrayList<>(checkpointCount);
+			final Inflater inflater = new Inflater();
+			try {
+				for (int i = 0; i < checkpointCount; i++) {
+					final long uncompressedOffset = in.readLong();
+					final long compressedBitOffset = in.readLong();
+					final byte[] window = new byte[in.readInt()];
+					final byte[] deflated = new byte[in.readInt()];
+					in.readFully(deflated);
+					inflater.reset();
+					inflater.setInput(deflated);
+					if (inflater.inflate(window) != window.length || !inflater.finished()) {
+						throw new IOException("Corrupt gzip index '" + file + "'.");
+					}
+					checkpoints.add(new Checkpoint(uncompressedOffset, compressedBitOffset, window));
+				}
+			} catch (final DataFormatException e) {
+				throw new IOException("Corrupt gzip index '" + file + "'.", e);
+			} finally {
+				inflater.end();
+			}
+			if (checkpoints.isEmpty()) {
+				throw new IOException("Corrupt gzip index '" + file + "'.");
+			}
+			final GzipIndex index = new GzipIndex(checkpoints, uncompressedLength, crc);
+			index.sourceLength = sourceLength;
+			index.sourceLastModified = sourceLastModified;
+			index.sourceOffset = sourceOffset;
+			final int entryCount = in.readInt();
+			for (int i = 0; i < entryCount; i++) {
+				index.putEntry(in.readUTF(), new Entry(in.readLong(), in.readInt() & 0xffffffffL));
+			}
+			return index;
+		}
+	}
+
+	/**
+	 * Writes the index next to the file and renames it into place, so that a
+	 * partially written index is never read. Windows are stored deflated.
+	 *
+	 * @param file the index file
+	 * @throws IOException if the index cannot be written
+	 */
+	public void write(final File file) throws IOException {
+		final File temp = new File(file.getParentFile(), file.getName() + ".partial");
+		final Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+		try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)))) {
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeLong(sourceLength);
+			out.writeLong(sourceLastModified);
+			out.writeLong(sourceOffset);
+			out.writeLong(uncompressedLength);
+			out.writeInt(crc);
+			out.writeInt(checkpoints.size());
+			final byte[] buffer = new byte[WINDOW_SIZE + 1024];
+			for (final Checkpoint checkpoint : checkpoints) {
+				out.writeLong(checkpoint.uncompressedOffset);
+				out.writeLong(checkpoint.compressedBitOffset);
+				out.writeInt(checkpoint.window.length);
+				deflater.reset();
+				deflater.setInput(checkpoint.window);
+				deflater.finish();
+				final int length = deflater.deflate(buffer);
+				out.writeInt(length);
+				out.write(buffer, 0, length);
+			}
+			out.writeInt(entries.size());
+			for (final Map.Entry<String, Entry> entry : entries.entrySet()) {
+				out.writeUTF(entry.getKey());
+				out.writeLong(entry.getValue().uncompressedOffset);
+				out.writeInt((int) entry.getValue().crc);
+			}
+		} finally {
+			deflater.end();
+		}
+		Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+				StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	/**
+	 * Writes deflate bits, least significant bit first.
+	 */
+	private static final class BitWriter {
+		private final byte[] bytes = new byte[16];
+		private int bitLength;
+
+		void write(final int value, final int bits) {
+			for (int i = 0; i < bits; i++) {
+				if ((value >>> i & 1) != 0) {
+					bytes[bitLength >>> 3] |= 1 << (bitLength & 7);
+				}
+				bitLength++;
+			}
+		}
+
+		/* Huffman codes are packed starting with their most significant bit */
+		void writeCode(final int code, final int bits) {
+			for (int i = bits - 1; i >= 0; i--) {
+				write(code >>> i, 1);
+			}
+		}
+
+		int length() {
+			return bitLength;
+		}
+
+		/**
+		 * @return the bits written, the last byte merged with the given bits
+		 */
+		byte[] toByteArray(final int merge) {
+			final int full = bitLength >>> 3;
+			final byte[] result = new byte[full + 1];
+			System.arraycopy(bytes, 0, result, 0, full);
+			result[full] = (byte) (bytes[full] | merge);
+			return result;
+		}
+	}
+}
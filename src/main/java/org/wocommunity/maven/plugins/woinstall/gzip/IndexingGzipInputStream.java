@@ -0,0 +1,514 @@
+package org.wocommunity.maven.plugins.woinstall.gzip;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.CRC32;
+import java.util.zip.ZipException;
+
+/**
+ * Decompresses a single member gzip stream and builds a {@link GzipIndex} of
+ * it on the way. {@link java.util.zip.Inflater} does not report where deflate
+ * blocks start, so this stream does its own inflating, and records a
+ * checkpoint at the first block boundary after every span of uncompressed
+ * bytes. Anything after the first member's trailer is ignored.
+ */
+public class IndexingGzipInputStream extends InputStream {
+	public static final int DEFAULT_SPAN = 1024 * 1024;
+
+	private static final int WINDOW_SIZE = 32 * 1024;
+	private static final int MAX_MATCH = 258;
+
+	private static final int[] LENGTH_BASE = { 3, 4, 5, 6, 7, 8, 9, 10, 11, 13, 15, 17, 19, 23, 27, 31, 35, 43,
+			51, 59, 67, 83, 99, 115, 131, 163, 195, 227, 258 };
+	private static final int[] LENGTH_EXTRA = { 0, 0, 0, 0, 0, 0, 0, 0, 1, 1, 1, 1, 2, 2, 2, 2, 3, 3, 3, 3, 4, 4,
+			4, 4, 5, 5, 5, 5, 0 };
+	private static final int[] DISTANCE_BASE = { 1, 2, 3, 4, 5, 7, 9, 13, 17, 25, 33, 49, 65, 97, 129, 193, 257,
+			385, 513, 769, 1025, 1537, 2049, 3073, 4097, 6145, 8193, 12289, 16385, 24577 };
+	private static final int[] DISTANCE_EXTRA = { 0, 0, 0, 0, 1, 1, 2, 2, 3, 3, 4, 4, 5, 5, 6, 6, 7, 7, 8, 8, 9,
+			9, 10, 10, 11, 11, 12, 12, 13, 13 };
+	private static final int[] CODE_LENGTH_ORDER = { 16, 17, 18, 0, 8, 7, 9, 6, 10, 5, 11, 4, 12, 3, 13, 2, 14, 1,
+			15 };
+
+	private static final Huffman FIXED_LITERALS = new Huffman();
+	private static final Huffman FIXED_DISTANCES = new Huffman();
+
+	static {
+		final int[] lengths = new int[288 + 30];
+		Arrays.fill(lengths, 0, 144, 8);
+		Arrays.fill(lengths, 144, 256, 9);
+		Arrays.fill(lengths, 256, 280, 7);
+		Arrays.fill(lengths, 280, 288, 8);
+		Arrays.fill(lengths, 288, 318, 5);
+		try {
+			FIXED_LITERALS.build(lengths, 0, 288);
+			FIXED_DISTANCES.build(lengths, 288, 30);
+		} catch (final ZipException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	private enum State {
+		BLOCK_HEADER, STORED, HUFFMAN, DONE
+	}
+
+	private final InputStream in;
+	private final int span;
+	private final byte[] inBuffer = new byte[64 * 1024];
+	private int inPos;
+	private int inEnd;
+	/* compressed offset of inBuffer[0] */
+	private long inBase;
+	private boolean inEOF;
+	private long bitBuffer;
+	private int bitCount;
+
+	/*
+	 * Output since the last slide, preceded by up to WINDOW_SIZE bytes of
+	 * history that matches may refer to.
+	 */
+	private final byte[] out = new byte[8 * WINDOW_SIZE];
+	private int outPos;
+	private int readPos;
+	/* uncompressed offset of out[0] */
+	private long outBase;
+
+	private State state = State.BLOCK_HEADER;
+	private boolean lastBlock;
+	private int storedRemaining;
+	private Huffman literals;
+	private Huffman distances;
+	private final Huffman dynamicLiterals = new Huffman();
+	private final Huffman dynamicDistances = new Huffman();
+	private final Huffman codeLengths = new Huffman();
+	private final int[] lengths = new int[288 + 32];
+
+	private final CRC32 crc = new CRC32();
+	private final List<GzipIndex.Checkpoint> checkpoints = new ArrayList<>();
+	private long nextCheckpoint;
+	private GzipIndex index;
+	private final byte[] singleByte = new byte[1];
+
+	public IndexingGzipInputStream(final InputStream in) throws IOException {
+		this(in, DEFAULT_SPAN);
+	}
+
+	/**
+	 * @param in   the gzip stream
+	 * @param span the number of uncompressed bytes between checkpoints, each
+	 *             checkpoint holds a window of up to 32 KB
+	 * @throws IOException if the gzip header cannot be read
+	 */
+	public IndexingGzipInputStream(final InputStream in, final int span) throws IOException {
+		if (span <= 0) {
+			throw new IllegalArgumentException("span");
+		}
+		this.in = in;
+		this.span = span;
+		readHeader();
+	}
+
+	/**
+	 * @return the index, once the stream has been read to its end
+	 * @throws IllegalStateException if the end has not been reached yet
+	 */
+	public GzipIndex getIndex() {
+		if (index == null) {
+			throw new IllegalStateException("The end of the gzip stream has not been reached.");
+		}
+		return index;
+	}
+
+	@Override
+	public int read() throws IOException {
+		return read(singleByte, 0, 1) == -1 ? -1 : singleByte[0] & 0xff;
+	}
+
+	@Override
+	public int read(final byte[] b, final int off, final int len) throws IOException {
+		if (off < 0 || len < 0 || len > b.length - off) {
+			throw new IndexOutOfBoundsException();
+		}
+		if (len == 0) {
+			return 0;
+		}
+		while (readPos == outPos) {
+			if (state == State.DONE) {
+				return -1;
+			}
+			inflate();
+		}
+		final int count = Math.min(len, outPos - readPos);
+		System.arraycopy(out, readPos, b, off, count);
+		readPos += count;
+		return count;
+	}
+
+	@Override
+	public int available() {
+		return outPos - readPos;
+	}
+
+	@Override
+	public void close() throws IOException {
+		in.close();
+	}
+
+	/**
+	 * Slides the history to the start of the output buffer and inflates until
+	 * the buffer is full or the stream ends.
+	 */
+	private void inflate() throws IOException {
+		final int keep = Math.min(WINDOW_SIZE, outPos);
+		System.arraycopy(out, outPos - keep, out, 0, keep);
+		outBase += outPos - keep;
+		outPos = keep;
+		readPos = keep;
+
+		final int limit = out.length - MAX_MATCH;
+		while (outPos < limit && state != State.DONE) {
+			switch (state) {
+			case BLOCK_HEADER:
+				blockHeader();
+				break;
+			case STORED:
+				stored(limit);
+				break;
+			case HUFFMAN:
+				huffman(limit);
+				break;
+			default:
+				break;
+			}
+		}
+		crc.update(out, readPos, outPos - readPos);
+		if (state == State.DONE) {
+			readTrailer();
+		}
+	}
+
+	private void blockHeader() throws IOException {
+		if (lastBlock) {
+			state = State.DONE;
+			return;
+		}
+		final long uncompressedOffset = outBase + outPos;
+		if (uncompressedOffset >= nextCheckpoint) {
+			final int windowLength = Math.min(WINDOW_SIZE, outPos);
+			final byte[] window = Arrays.copyOfRange(out, outPos - windowLength, outPos);
+			final long bitOffset = (inBase + inPos) * 8 - bitCount;
+			checkpoints.add(new GzipIndex.Checkpoint(uncompressedOffset, bitOffset, window));
+			nextCheckpoint = uncompressedOffset + span;
+		}
+		need(3);
+		lastBlock = bits(1) == 1;
+		final int type = bits(2);
+		switch (type) {
+		case 0:
+			bits(bitCount & 7);
+			need(32);
+			storedRemaining = bits(16);
+			if (storedRemaining != (~bits(16) & 0xffff)) {
+				throw new ZipException("invalid stored block lengths");
+			}
+			state = State.STORED;
+			break;
+		case 1:
+			literals = FIXED_LITERALS;
+			distances = FIXED_DISTANCES;
+			state = State.HUFFMAN;
+			break;
+		case 2:
+			dynamicTables();
+			literals = dynamicLiterals;
+			distances = dynamicDistances;
+			state = State.HUFFMAN;
+			break;
+		default:
+			throw new ZipException("invalid block type");
+		}
+	}
+
+	private void dynamicTables() throws IOException {
+		need(14);
+		final int literalCount = bits(5) + 257;
+		final int distanceCount = bits(5) + 1;
+		final int codeLengthCount = bits(4) + 4;
+		if (literalCount > 286 || distanceCount > 30) {
+			throw new ZipException("too many length or distance symbols");
+		}
+		Arrays.fill(lengths, 0, 19, 0);
+		for (int i = 0; i < codeLengthCount; i++) {
+			need(3);
+			lengths[CODE_LENGTH_ORDER[i]] = bits(3);
+		}
+		codeLengths.build(lengths, 0, 19);
+
+		final int total = literalCount + distanceCount;
+		int i = 0;
+		while (i < total) {
+			need(7 + 7);
+			final int symbol = decode(codeLengths);
+			if (symbol < 16) {
+				lengths[i++] = symbol;
+				continue;
+			}
+			final int value;
+			final int repeat;
+			if (symbol == 16) {
+				if (i == 0) {
+					throw new ZipException("invalid bit length repeat");
+				}
+				value = lengths[i - 1];
+				repeat = 3 + bits(2);
+			} else if (symbol == 17) {
+				value = 0;
+				repeat = 3 + bits(3);
+			} else {
+				value = 0;
+				repeat = 11 + bits(7);
+			}
+			if (i + repeat > total) {
+				throw new ZipException("invalid bit length repeat");
+			}
+			Arrays.fill(lengths, i, i + repeat, value);
+			i += repeat;
+		}
+		if (lengths[256] == 0) {
+			throw new ZipException("invalid code -- missing end-of-block");
+		}
+		dynamicLiterals.build(lengths, 0, literalCount);
+		dynamicDistances.build(lengths, literalCount, distanceCount);
+	}
+
+	private void stored(final int limit) throws IOException {
+		while (storedRemaining > 0 && outPos < limit) {
+			if (bitCount >= 8) {
+				out[outPos++] = (byte) bits(8);
+				storedRemaining--;
+				continue;
+			}
+			if (inPos == inEnd && !fillInput()) {
+				throw new EOFException("Unexpected end of ZLIB input stream");
+			}
+			final int count = Math.min(Math.min(storedRemaining, limit - outPos), inEnd - inPos);
+			System.arraycopy(inBuffer, inPos, out, outPos, count);
+			inPos += count;
+			outPos += count;
+			storedRemaining -= count;
+		}
+		if (storedRemaining == 0) {
+			state = State.BLOCK_HEADER;
+		}
+	}
+
+	private void huffman(final int limit) throws IOException {
+		final byte[] out = this.out;
+		final Huffman literals = this.literals;
+		final Huffman distances = this.distances;
+		int outPos = this.outPos;
+		try {
+			while (outPos < limit) {
+				/* literal or length with extra bits, distance with extra bits */
+				need(15 + 5 + 15 + 13);
+				final int symbol = decode(literals);
+				if (symbol < 256) {
+					out[outPos++] = (byte) symbol;
+				} else if (symbol == 256) {
+					state = State.BLOCK_HEADER;
+					return;
+				} else {
+					if (symbol > 285) {
+						throw new ZipException("invalid literal/length code");
+					}
+					final int length = LENGTH_BASE[symbol - 257] + bits(LENGTH_EXTRA[symbol - 257]);
+					final int distanceSymbol = decode(distances);
+					if (distanceSymbol > 29) {
+						throw new ZipException("invalid distance code");
+					}
+					final int distance = DISTANCE_BASE[distanceSymbol] + bits(DISTANCE_EXTRA[distanceSymbol]);
+					if (distance > outPos) {
+						throw new ZipException("invalid distance too far back");
+					}
+					int from = outPos - distance;
+					if (distance >= length) {
+						System.arraycopy(out, from, out, outPos, length);
+						outPos += length;
+					} else {
+						for (int i = 0; i < length; i++) {
+							out[outPos++] = out[from++];
+						}
+					}
+				}
+			}
+		} finally {
+			this.outPos = outPos;
+		}
+	}
+
+	private void readHeader() throws IOException {
+		if (readByte() != 0x1f || readByte() != 0x8b) {
+			throw new ZipException("Not in GZIP format");
+		}
+		if (readByte() != 8) {
+			throw new ZipException("Unsupported compression method");
+		}
+		final int flags = readByte();
+		for (int i = 0; i < 6; i++) {
+			readByte();
+		}
+		if ((flags & 4) != 0) {
+			int extra = readByte() | readByte() << 8;
+			while (extra-- > 0) {
+				readByte();
+			}
+		}
+		if ((flags & 8) != 0) {
+			while (readByte() != 0) {
+				// file name
+			}
+		}
+		if ((flags & 16) != 0) {
+			while (readByte() != 0) {
+				// comment
+			}
+		}
+		if ((flags & 2) != 0) {
+			readByte();
+			readByte();
+		}
+	}
+
+	private void readTrailer() throws IOException {
+		bits(bitCount & 7);
+		need(32);
+		final int storedCrc = bits(16) | bits(16) << 16;
+		need(32);
+		final long storedSize = bits(16) | (long) bits(16) << 16;
+		final long uncompressedLength = outBase + outPos;
+		if (storedCrc != (int) crc.getValue()) {
+			throw new ZipException("Corrupt GZIP trailer");
+		}
+		if (storedSize != (uncompressedLength & 0xffffffffL)) {
+			throw new ZipException("Corrupt GZIP trailer");
+		}
+		index = new GzipIndex(checkpoints, uncompressedLength, storedCrc);
+	}
+
+	private int readByte() throws IOException {
+		if (inPos == inEnd && !fillInput()) {
+			throw new EOFException("Unexpected end of ZLIB input stream");
+		}
+		return inBuffer[inPos++] & 0xff;
+	}
+
+	private boolean fillInput() throws IOException {
+		if (inEOF) {
+			return false;
+		}
+		inBase += inEnd;
+		inPos = 0;
+		inEnd = 0;
+		int count;
+		while ((count = in.read(inBuffer, 0, inBuffer.length)) == 0) {
+			// retry
+		}
+		if (count == -1) {
+			inEOF = true;
+			return false;
+		}
+		inEnd = count;
+		return true;
+	}
+
+	/**
+	 * Fills the bit buffer with at least the given number of bits, or as many
+	 * as are left at the end of the input.
+	 */
+	private void need(final int bits) throws IOException {
+		while (bitCount < bits) {
+			if (inPos == inEnd && !fillInput()) {
+				return;
+			}
+			while (bitCount <= 56 && inPos < inEnd) {
+				bitBuffer |= (inBuffer[inPos++] & 0xffL) << bitCount;
+				bitCount += 8;
+			}
+		}
+	}
+
+	private int bits(final int count) throws IOException {
+		if (count > bitCount) {
+			throw new EOFException("Unexpected end of ZLIB input stream");
+		}
+		final int value = (int) bitBuffer & ((1 << count) - 1);
+		bitBuffer >>>= count;
+		bitCount -= count;
+		return value;
+	}
+
+	private int decode(final Huffman huffman) throws IOException {
+		final int entry = huffman.table[(int) bitBuffer & huffman.mask];
+		final int length = entry & 0xf;
+		if (length == 0) {
+			throw new ZipException("invalid code");
+		}
+		if (length > bitCount) {
+			throw new EOFException("Unexpected end of ZLIB input stream");
+		}
+		bitBuffer >>>= length;
+		bitCount -= length;
+		return entry >>> 4;
+	}
+
+	/**
+	 * A canonical Huffman code, decoded with a single table indexed by the
+	 * next bits of the stream. Entries hold the symbol and its code length,
+	 * unused codes of an incomplete code have length 0.
+	 */
+	private static final class Huffman {
+		private static final int MAX_BITS = 15;
+
+		private final int[] table = new int[1 << MAX_BITS];
+		private int mask;
+		private final int[] count = new int[MAX_BITS + 1];
+		private final int[] nextCode = new int[MAX_BITS + 1];
+
+		void build(final int[] lengths, final int off, final int n) throws ZipException {
+			Arrays.fill(count, 0);
+			int maxLength = 1;
+			for (int i = 0; i < n; i++) {
+				count[lengths[off + i]]++;
+				maxLength = Math.max(maxLength, lengths[off + i]);
+			}
+			count[0] = 0;
+			int left = 1;
+			int code = 0;
+			for (int bits = 1; bits <= MAX_BITS; bits++) {
+				left = (left << 1) - count[bits];
+				if (left < 0) {
+					throw new ZipException("over-subscribed code");
+				}
+				code = (code + count[bits - 1]) << 1;
+				nextCode[bits] = code;
+			}
+			final int size = 1 << maxLength;
+			mask = size - 1;
+			Arrays.fill(table, 0, size, 0);
+			for (int symbol = 0; symbol < n; symbol++) {
+				final int length = lengths[off + symbol];
+				if (length == 0) {
+					continue;
+				}
+				final int reversed = Integer.reverse(nextCode[length]++) >>> (32 - length);
+				final int entry = symbol << 4 | length;
+				for (int i = reversed; i < size; i += 1 << length) {
+					table[i] = entry;
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,134 @@
+package org.wocommunity.maven.plugins.woinstall.gzip;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.zip.CRC32;
+import java.util.zip.ZipException;
+
+/**
+ * An input stream that decompresses a gzip stream with a {@link GzipIndex} on
+ * several threads. The spans between checkpoints are inflated independently on
+ * a fork/join pool, each from its own stream opened at the checkpoint, and
+ * returned in order. The CRC-32 of the whole output is checked against the
+ * one recorded in the index.
+ */
+public class ParallelGzipInputStream extends InputStream {
+	private final GzipIndex index;
+	private final GzipIndex.Source source;
+	private final ForkJoinPool pool;
+	private final int maxInFlight;
+	private final Deque<ForkJoinTask<byte[]>> pending = new ArrayDeque<>();
+	private final CRC32 crc = new CRC32();
+	private int nextSpan;
+
+	private byte[] span = new byte[0];
+	private int spanPos;
+	private final byte[] singleByte = new byte[1];
+
+	/**
+	 * Decompresses on the common fork/join pool.
+	 *
+	 * @param index  the index of the stream
+	 * @param source the compressed stream
+	 */
+	public ParallelGzipInputStream(final GzipIndex index, final GzipIndex.Source source) {
+		this(index, source, ForkJoinPool.commonPool());
+	}
+
+	/**
+	 * @param index  the index of the stream
+	 * @param source the compressed stream, opened once for every span
+	 * @param pool   the pool that inflates spans, at most one more span than its
+	 *               parallelism is held in memory at a time
+	 */
+	public ParallelGzipInputStream(final GzipIndex index, final GzipIndex.Source source,
+			final ForkJoinPool pool) {
+		this.index = index;
+		this.source = source;
+		this.pool = pool;
+		maxInFlight = pool.getParallelism() + 1;
+	}
+
+	@Override
+	public int read() throws IOException {
+		return read(singleByte, 0, 1) == -1 ? -1 : singleByte[0] & 0xff;
+	}
+
+	@Override
+	public int read(final byte[] b, final int off, final int len) throws IOException {
+		if (off < 0 || len < 0 || len > b.length - off) {
+			throw new IndexOutOfBoundsException();
+		}
+		if (len == 0) {
+			return 0;
+		}
+		while (spanPos == span.length) {
+			if (!nextSpan()) {
+				return -1;
+			}
+		}
+		final int count = Math.min(len, span.length - spanPos);
+		System.arraycopy(span, spanPos, b, off, count);
+		spanPos += count;
+		return count;
+	}
+
+	@Override
+	public void close() {
+		for (final ForkJoinTask<byte[]> task : pending) {
+			task.cancel(false);
+		}
+		pending.clear();
+	}
+
+	private boolean nextSpan() throws IOException {
+		final List<GzipIndex.Checkpoint> checkpoints = index.getCheckpoints();
+		while (pending.size() < maxInFlight && nextSpan < checkpoints.size()) {
+			final GzipIndex.Checkpoint start = checkpoints.get(nextSpan);
+			final long end = nextSpan + 1 < checkpoints.size()
+					? checkpoints.get(nextSpan + 1).getUncompressedOffset()
+					: index.getUncompressedLength();
+			pending.add(pool.submit(() -> inflate(start, (int) (end - start.getUncompressedOffset()))));
+			nextSpan++;
+		}
+		final ForkJoinTask<byte[]> task = pending.poll();
+		if (task == null) {
+			if ((int) crc.getValue() != index.getCrc()) {
+				throw new ZipException("Corrupt GZIP trailer");
+			}
+			return false;
+		}
+		try {
+			span = task.join();
+		} catch (final UncheckedIOException e) {
+			throw e.getCause();
+		}
+		spanPos = 0;
+		crc.update(span, 0, span.length);
+		return true;
+	}
+
+	private byte[] inflate(final GzipIndex.Checkpoint checkpoint, final int length) {
+		final byte[] data = new byte[length];
+		try (InputStream in = index.open(source, checkpoint)) {
+			int count = 0;
+			while (count < length) {
+				final int read = in.read(data, count, length - count);
+				if (read == -1) {
+					throw new EOFException("Unexpected end of ZLIB input stream");
+				}
+				count += read;
+			}
+		} catch (final IOException e) {
+			throw new UncheckedIOException(e);
+		}
+		return data;
+	}
+}
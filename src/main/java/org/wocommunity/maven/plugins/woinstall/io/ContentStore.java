@@ -0,0 +1,170 @@
+package org.wocommunity.maven.plugins.woinstall.io;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.FileSystemException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * A content-addressed store of file blobs keyed by their SHA-256. Files written
+ * through the store are hardlinks to the blob holding their content, so a file
+ * that is byte-identical to one written before, for instance by another
+ * WebObjects version, costs no additional data on disk.
+ *
+ * Because every copy shares one inode, modifying a file in place modifies it
+ * everywhere it was linked.
+ */
+public class ContentStore {
+	/**
+	 * Entries up to this size are hashed in memory so that duplicates are never
+	 * written at all. Larger entries are hashed while being written to a temp
+	 * file in the store.
+	 */
+	private static final int MEMORY_THRESHOLD = 1024 * 1024;
+
+	private final File root;
+	private FileSync fileSync = new FileSync(Durability.NONE);
+	private long bytesWritten = 0;
+	private long bytesShared = 0;
+
+	public ContentStore(final File root) {
+		this.root = root;
+	}
+
+	public File getRoot() {
+		return root;
+	}
+
+	/**
+	 * Sets the file sync that new blobs are reported to.
+	 *
+	 * @param fileSync the file sync
+	 */
+	public void setFileSync(final FileSync fileSync) {
+		this.fileSync = fileSync;
+	}
+
+	/**
+	 * @return the number of bytes written to new blobs.
+	 */
+	public long getBytesWritten() {
+		return bytesWritten;
+	}
+
+	/**
+	 * @return the number of bytes satisfied by blobs that already existed.
+	 */
+	public long getBytesShared() {
+		return bytesShared;
+	}
+
+	/**
+	 * Stores size bytes from the input stream and links the destination to the
+	 * resulting blob. Falls back to a copy if the destination cannot be linked.
+	 *
+	 * @param in          the content, positioned at its first byte
+	 * @param size        the number of bytes to read
+	 * @param destination the file to create
+	 * @throws IOException if the content cannot be read or stored
+	 */
+	public void write(final InputStream in, final long size, final Path destination) throws IOException {
+		final MessageDigest md = newDigest();
+		final File blob;
+		if (size <= MEMORY_THRESHOLD) {
+			final byte[] data = new byte[(int) size];
+			int read = 0;
+			while (read < data.length) {
+				final int count = in.read(data, read, data.length - read);
+				if (count == -1) {
+					throw new IOException("Stream ended before " + size + " bytes (read " + read + ")");
+				}
+				read += count;
+			}
+			md.update(data);
+			blob = blobFile(InstallerDownloadUtil.hexString(md));
+			if (blob.exists()) {
+				bytesShared += size;
+			} else {
+				final Path tmp = newTempFile();
+				Files.write(tmp, data);
+				publish(tmp, blob, size);
+			}
+		} else {
+			final Path tmp = newTempFile();
+			try (OutputStream out = new DigestOutputStream(Files.newOutputStream(tmp), md)) {
+				final byte[] buf = new byte[1024 * 64];
+				long remaining = size;
+				while (remaining > 0) {
+					final int count = in.read(buf, 0, (int) Math.min(buf.length, remaining));
+					if (count == -1) {
+						throw new IOException("Stream ended before " + size + " bytes (read " + (size - remaining)
+								+ ")");
+					}
+					out.write(buf, 0, count);
+					remaining -= count;
+				}
+			}
+			blob = blobFile(InstallerDownloadUtil.hexString(md));
+			if (blob.exists()) {
+				Files.delete(tmp);
+				bytesShared += size;
+			} else {
+				publish(tmp, blob, size);
+			}
+		}
+		try {
+			Files.createLink(destination, blob.toPath());
+		} catch (final FileAlreadyExistsException e) {
+			throw new IOException("The file '" + destination + "' already exists.", e);
+		} catch (final UnsupportedOperationException | FileSystemException e) {
+			Files.copy(blob.toPath(), destination);
+		}
+	}
+
+	/**
+	 * Makes the temp file the blob. Linking, unlike renaming, fails if the blob
+	 * exists, so content stored first by another installation is kept and
+	 * counted as shared. Where the store cannot link, the temp file is renamed
+	 * over any blob of the same content instead.
+	 */
+	private void publish(final Path tmp, final File blob, final long size) throws IOException {
+		Files.createDirectories(blob.getParentFile().toPath());
+		try {
+			Files.createLink(blob.toPath(), tmp);
+			Files.delete(tmp);
+		} catch (final FileAlreadyExistsException e) {
+			Files.delete(tmp);
+			bytesShared += size;
+			return;
+		} catch (final UnsupportedOperationException | FileSystemException e) {
+			Files.move(tmp, blob.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		}
+		fileSync.written(blob.toPath());
+		bytesWritten += size;
+	}
+
+	private Path newTempFile() throws IOException {
+		Files.createDirectories(root.toPath());
+		return Files.createTempFile(root.toPath(), "blob", ".tmp");
+	}
+
+	private File blobFile(final String hash) {
+		return new File(new File(root, hash.substring(0, 2)), hash.substring(2));
+	}
+
+	private static MessageDigest newDigest() {
+		try {
+			return MessageDigest.getInstance("SHA-256");
+		} catch (final NoSuchAlgorithmException e) {
+			throw new RuntimeException("This should never happen", e);
+		}
+	}
+}
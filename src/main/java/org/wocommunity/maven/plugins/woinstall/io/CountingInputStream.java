@@ -0,0 +1,53 @@
+package org.wocommunity.maven.plugins.woinstall.io;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Counts the bytes read or skipped from the underlying stream.
+ */
+public class CountingInputStream extends FilterInputStream {
+	private long count;
+
+	public CountingInputStream(final InputStream in) {
+		super(in);
+	}
+
+	/**
+	 * @return the number of bytes read or skipped so far
+	 */
+	public long getCount() {
+		return count;
+	}
+
+	@Override
+	public int read() throws IOException {
+		final int result = in.read();
+		if (result != -1) {
+			count++;
+		}
+		return result;
+	}
+
+	@Override
+	public int read(final byte[] b, final int off, final int len) throws IOException {
+		final int result = in.read(b, off, len);
+		if (result > 0) {
+			count += result;
+		}
+		return result;
+	}
+
+	@Override
+	public long skip(final long n) throws IOException {
+		final long result = in.skip(n);
+		count += result;
+		return result;
+	}
+
+	@Override
+	public boolean markSupported() {
+		return false;
+	}
+}
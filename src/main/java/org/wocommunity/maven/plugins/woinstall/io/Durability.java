@@ -0,0 +1,40 @@
+package org.wocommunity.maven.plugins.woinstall.io;
+
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * How hard the plugin works to make the files it writes survive a crash or
+ * power loss.
+ */
+public enum Durability {
+	/**
+	 * Leave flushing to the operating system. The fastest mode, meant for
+	 * ephemeral CI containers.
+	 */
+	NONE,
+	/**
+	 * Fsync every written file and the directories holding them once, at the end
+	 * of each stage.
+	 */
+	BATCHED,
+	/**
+	 * Fsync every file and its directory as soon as the file has been written.
+	 */
+	STRICT;
+
+	/**
+	 * @param name the mode name, in any case.
+	 * @return the matching durability mode.
+	 * @throws IllegalArgumentException if there is no such mode
+	 */
+	public static Durability forName(final String name) {
+		for (final Durability durability : values()) {
+			if (durability.name().equalsIgnoreCase(name)) {
+				return durability;
+			}
+		}
+		throw new IllegalArgumentException("Unknown durability " + name + ". Available modes are "
+				+ Arrays.toString(values()).toLowerCase(Locale.ROOT));
+	}
+}
@@ -0,0 +1,125 @@
+package org.wocommunity.maven.plugins.woinstall.io;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+/**
+ * Applies a {@link Durability} mode to the files written during one stage.
+ * Writers report each file once its content is complete, and the stage calls
+ * {@link #sync()} before publishing its result.
+ */
+public class FileSync {
+	private final Durability durability;
+	private final Set<Path> files = new LinkedHashSet<>();
+	private final Set<Path> directories = new LinkedHashSet<>();
+
+	public FileSync(final Durability durability) {
+		this.durability = durability;
+	}
+
+	public Durability getDurability() {
+		return durability;
+	}
+
+	/**
+	 * Reports a file whose content was written through the still open channel.
+	 *
+	 * @param channel the channel the file was written through
+	 * @param file    the file
+	 * @throws IOException if the file cannot be synced
+	 */
+	public void written(final FileChannel channel, final Path file) throws IOException {
+		switch (durability) {
+		case STRICT:
+			channel.force(true);
+			forceDirectory(file.getParent());
+			break;
+		case BATCHED:
+			files.add(file);
+			directories.add(file.getParent());
+			break;
+		default:
+			break;
+		}
+	}
+
+	/**
+	 * Reports a file that was written and closed elsewhere.
+	 *
+	 * @param file the file
+	 * @throws IOException if the file cannot be synced
+	 */
+	public void written(final Path file) throws IOException {
+		switch (durability) {
+		case STRICT:
+			force(file);
+			forceDirectory(file.getParent());
+			break;
+		case BATCHED:
+			files.add(file);
+			directories.add(file.getParent());
+			break;
+		default:
+			break;
+		}
+	}
+
+	/**
+	 * Reports a directory whose entries changed, for instance by creating a
+	 * subdirectory, a link or by renaming.
+	 *
+	 * @param directory the directory
+	 * @throws IOException if the directory cannot be synced
+	 */
+	public void directoryChanged(final Path directory) throws IOException {
+		switch (durability) {
+		case STRICT:
+			forceDirectory(directory);
+			break;
+		case BATCHED:
+			directories.add(directory);
+			break;
+		default:
+			break;
+		}
+	}
+
+	/**
+	 * Forces everything reported since the last call to storage. Files go first
+	 * so that no directory entry is durable before the data it names.
+	 *
+	 * @throws IOException if a file cannot be synced
+	 */
+	public void sync() throws IOException {
+		for (final Path file : files) {
+			force(file);
+		}
+		files.clear();
+		for (final Path directory : directories) {
+			forceDirectory(directory);
+		}
+		directories.clear();
+	}
+
+	private static void force(final Path file) throws IOException {
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+			channel.force(true);
+		}
+	}
+
+	private static void forceDirectory(final Path directory) {
+		if (directory == null) {
+			return;
+		}
+		try (FileChannel channel = FileChannel.open(directory, StandardOpenOption.READ)) {
+			channel.force(true);
+		} catch (final IOException e) {
+			// Not every platform can open a directory, Windows for one. Its
+			// directory entries are made durable with the files.
+		}
+	}
+}
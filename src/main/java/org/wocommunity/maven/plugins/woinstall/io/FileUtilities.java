@@ -9,6 +9,14 @@ import java.io.InputStream;
 import java.io.OutputStream;
 import java.net.URL;
 import java.net.URLConnection;
+import java.nio.file.FileSystemException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.ProviderMismatchException;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
 
 import org.wocommunity.maven.plugins.woinstall.ui.IWOInstallerProgressMonitor;
 
@@ -81,4 +89,53 @@ public class FileUtilities {
 		}
 	}
 
+	/**
+	 * Makes the target a hardlink to the source, replacing an existing target.
+	 * Where the file system cannot link the two, for instance because they are
+	 * on different file systems or file system providers, the source is copied
+	 * instead.
+	 *
+	 * @param source the file to link to
+	 * @param target the link to create
+	 * @return true if the target was linked, false if it was copied
+	 * @throws IOException if the target can neither be linked nor copied
+	 */
+	public static boolean linkOrCopy(final Path source, final Path target) throws IOException {
+		Files.createDirectories(target.getParent());
+		Files.deleteIfExists(target);
+		try {
+			Files.createLink(target, source);
+			return true;
+		} catch (final UnsupportedOperationException | ProviderMismatchException | FileSystemException e) {
+			Files.copy(source, target, StandardCopyOption.REPLACE_EXISTING);
+			return false;
+		}
+	}
+
+	/**
+	 * Deletes a file or directory tree. Symbolic links are deleted, never
+	 * followed.
+	 *
+	 * @param path the file or directory to delete
+	 * @throws IOException if anything cannot be deleted
+	 */
+	public static void deleteRecursively(final Path path) throws IOException {
+		Files.walkFileTree(path, new SimpleFileVisitor<Path>() {
+			@Override
+			public FileVisitResult visitFile(final Path file, final BasicFileAttributes attrs) throws IOException {
+				Files.delete(file);
+				return FileVisitResult.CONTINUE;
+			}
+
+			@Override
+			public FileVisitResult postVisitDirectory(final Path dir, final IOException exc) throws IOException {
+				if (exc != null) {
+					throw exc;
+				}
+				Files.delete(dir);
+				return FileVisitResult.CONTINUE;
+			}
+		});
+	}
+
 }
@@ -17,6 +17,7 @@ import java.security.NoSuchAlgorithmException;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.wocommunity.maven.plugins.woinstall.InstallLog;
 import org.wocommunity.maven.plugins.woinstall.WebObjectsInstaller;
 
 public class InstallerDownloadUtil {
@@ -24,18 +25,32 @@ public class InstallerDownloadUtil {
 
 	public static void downloadInstallerToRepo(final WebObjectsInstaller installer, final File localRepo)
 			throws IOException {
+		downloadInstallerToRepo(installer, localRepo, InstallLog.of(LOG));
+	}
+
+	/**
+	 * Downloads the installer of the version into the local repository unless
+	 * it is there already, resuming an interrupted download.
+	 *
+	 * @param installer the version to download
+	 * @param localRepo the local repository
+	 * @param log       the log of the version's installation
+	 * @throws IOException if the download fails or does not match its checksum
+	 */
+	public static void downloadInstallerToRepo(final WebObjectsInstaller installer, final File localRepo,
+			final InstallLog log) throws IOException {
 		final File installFile = installer.getInstallerFile(localRepo);
 		if (installFile.exists()) {
-			LOG.debug("Installer found: {}", installFile.getPath());
+			log.debug("Installer found: {}", installFile.getPath());
 		} else {
 			final File downloadFile = installer.getInstallerDownloadFile(localRepo);
 			if (downloadFile.exists()) {
-				LOG.info("Resuming download at {}", downloadFile.getPath());
+				log.info("Resuming download at {}", downloadFile.getPath());
 			} else {
-				LOG.info("Starting download at {}", downloadFile.getPath());
+				log.info("Starting download at {}", downloadFile.getPath());
 			}
 			// download file to downloadFile;
-			downloadToFile(installer.getUrl(), downloadFile);
+			downloadToFile(installer.getUrl(), downloadFile, log);
 
 			// check install file checksum & move file to installFile location
 			MessageDigest md;
@@ -66,19 +81,19 @@ public class InstallerDownloadUtil {
 		return hex.toString();
 	}
 
-	static void downloadToFile(final String url, final File downloadFile)
+	static void downloadToFile(final String url, final File downloadFile, final InstallLog log)
 			throws IOException {
-		downloadToFile(new URL(url), downloadFile);
+		downloadToFile(new URL(url), downloadFile, log);
 	}
 
-	static void downloadToFile(final URL url, final File downloadFile)
+	static void downloadToFile(final URL url, final File downloadFile, final InstallLog log)
 			throws IOException {
 		final boolean exists = downloadFile.exists();
 		if (!exists) {
 			downloadFile.getParentFile().mkdirs();
 			downloadFile.createNewFile();
 		}
-		try (BufferedInputStream in = new BufferedInputStream(urlToInputStream(url, downloadFile));
+		try (BufferedInputStream in = new BufferedInputStream(urlToInputStream(url, downloadFile, log));
 				FileOutputStream out = new FileOutputStream(downloadFile, exists);) {
 			final int size = 1024;
 			final byte[] buff = new byte[size];
@@ -89,7 +104,7 @@ public class InstallerDownloadUtil {
 		}
 	}
 
-	static InputStream urlToInputStream(final URL url, final File downloadFile)
+	static InputStream urlToInputStream(final URL url, final File downloadFile, final InstallLog log)
 			throws IOException {
 		final HttpURLConnection conn = (HttpURLConnection) url.openConnection();
 		conn.setConnectTimeout(15000);
@@ -105,8 +120,8 @@ public class InstallerDownloadUtil {
 			} catch (final MalformedURLException e) {
 				redirectUrl = new URL(url.getProtocol() + "://" + url.getHost() + location);
 			}
-			LOG.debug("Redirecting to url {}", redirectUrl);
-			return urlToInputStream(redirectUrl, downloadFile);
+			log.debug("Redirecting to url {}", redirectUrl);
+			return urlToInputStream(redirectUrl, downloadFile, log);
 		}
 		if (responseCode >= 200 && responseCode < 300) {
 			final long fileSize = conn.getContentLengthLong();
@@ -119,7 +134,7 @@ public class InstallerDownloadUtil {
 			if (existingSize > 0L) {
 				conn2.setRequestProperty("Range", "bytes=" + existingSize + "-" + fileSize);
 			}
-			LOG.info("Downloading {} bytes, please wait.", fileSize - existingSize);
+			log.info("Downloading {} bytes, please wait.", fileSize - existingSize);
 			conn2.connect();
 			return conn2.getInputStream();
 		}
@@ -0,0 +1,191 @@
+package org.wocommunity.maven.plugins.woinstall.io;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Reads an input stream on a thread of its own, ahead of the consumer. The
+ * reading thread fills a bounded ring of reusable buffers and hands them over
+ * once full, so an expensive stream such as an inflater runs concurrently with
+ * whatever the consumer does with the bytes and short stalls on either side
+ * are absorbed by the buffers in between.
+ * <p>
+ * Errors of the underlying stream are rethrown to the consumer at the point
+ * in the stream where they occurred. Closing this stream stops the reading
+ * thread and closes the underlying stream.
+ */
+public class ReadAheadInputStream extends InputStream {
+	public static final int DEFAULT_BUFFER_SIZE = 256 * 1024;
+	public static final int DEFAULT_BUFFER_COUNT = 4;
+
+	private static final class Chunk {
+		private final byte[] data;
+		private int length;
+		private int position;
+		private IOException failure;
+
+		private Chunk(final int size) {
+			data = new byte[size];
+		}
+	}
+
+	private final InputStream in;
+	private final BlockingQueue<Chunk> free;
+	private final BlockingQueue<Chunk> filled;
+	private final Thread reader;
+	private Chunk current;
+	private IOException failure;
+	private boolean closed;
+
+	public ReadAheadInputStream(final InputStream in) {
+		this(in, DEFAULT_BUFFER_SIZE, DEFAULT_BUFFER_COUNT);
+	}
+
+	/**
+	 * @param in          the stream to read ahead
+	 * @param bufferSize  the size of each buffer
+	 * @param bufferCount the number of buffers in the ring, at least 2 so the
+	 *                    reading thread can fill one while the other is read
+	 */
+	public ReadAheadInputStream(final InputStream in, final int bufferSize, final int bufferCount) {
+		if (bufferSize <= 0) {
+			throw new IllegalArgumentException("bufferSize");
+		}
+		if (bufferCount < 2) {
+			throw new IllegalArgumentException("bufferCount");
+		}
+		this.in = in;
+		free = new ArrayBlockingQueue<>(bufferCount);
+		filled = new ArrayBlockingQueue<>(bufferCount);
+		for (int i = 0; i < bufferCount; i++) {
+			free.add(new Chunk(bufferSize));
+		}
+		reader = new Thread(this::readAhead, "woinstall-read-ahead");
+		reader.setDaemon(true);
+		reader.start();
+	}
+
+	private void readAhead() {
+		try {
+			while (true) {
+				final Chunk chunk = free.take();
+				chunk.position = 0;
+				chunk.length = 0;
+				try {
+					int count = 0;
+					while (chunk.length < chunk.data.length
+							&& (count = in.read(chunk.data, chunk.length, chunk.data.length - chunk.length)) != -1) {
+						chunk.length += count;
+					}
+					if (count == -1 && chunk.length == 0) {
+						chunk.length = -1;
+					}
+				} catch (final IOException e) {
+					chunk.failure = e;
+				} catch (final RuntimeException e) {
+					chunk.failure = new IOException(e);
+				}
+				filled.put(chunk);
+				if (chunk.length == -1 || chunk.failure != null) {
+					return;
+				}
+			}
+		} catch (final InterruptedException e) {
+			// closed by the consumer
+		}
+	}
+
+	/**
+	 * @return the chunk holding the next bytes, or null at the end of the
+	 *         stream
+	 */
+	private Chunk next() throws IOException {
+		if (closed) {
+			throw new IOException("Stream closed");
+		}
+		if (current != null && current.position < current.length) {
+			return current;
+		}
+		if (failure != null) {
+			throw failure;
+		}
+		if (current != null) {
+			if (current.length == -1) {
+				return null;
+			}
+			free.add(current);
+			current = null;
+		}
+		try {
+			current = filled.take();
+		} catch (final InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException();
+		}
+		// bytes read before a failure are handed out before it is thrown
+		failure = current.failure;
+		if (current.length > 0) {
+			return current;
+		}
+		if (failure != null) {
+			throw failure;
+		}
+		return null;
+	}
+
+	@Override
+	public int read() throws IOException {
+		final Chunk chunk = next();
+		if (chunk == null) {
+			return -1;
+		}
+		return chunk.data[chunk.position++] & 0xff;
+	}
+
+	@Override
+	public int read(final byte[] b, final int off, final int len) throws IOException {
+		if (len == 0) {
+			return 0;
+		}
+		final Chunk chunk = next();
+		if (chunk == null) {
+			return -1;
+		}
+		final int count = Math.min(len, chunk.length - chunk.position);
+		System.arraycopy(chunk.data, chunk.position, b, off, count);
+		chunk.position += count;
+		return count;
+	}
+
+	@Override
+	public int available() throws IOException {
+		if (closed || current == null || current.length == -1) {
+			return 0;
+		}
+		return current.length - current.position;
+	}
+
+	@Override
+	public void close() throws IOException {
+		if (closed) {
+			return;
+		}
+		closed = true;
+		reader.interrupt();
+		boolean interrupted = false;
+		while (reader.isAlive()) {
+			try {
+				reader.join();
+			} catch (final InterruptedException e) {
+				interrupted = true;
+			}
+		}
+		if (interrupted) {
+			Thread.currentThread().interrupt();
+		}
+		in.close();
+	}
+}
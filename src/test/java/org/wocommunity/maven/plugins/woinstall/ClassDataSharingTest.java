@@ -0,0 +1,85 @@
+package org.wocommunity.maven.plugins.woinstall;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class ClassDataSharingTest {
+	private static final String CLASS_NAME = "org/wocommunity/maven/plugins/woinstall/UnknownVersionException";
+
+	@Rule
+	public TemporaryFolder temp = new TemporaryFolder();
+
+	@Test
+	public void testClassList() throws IOException {
+		final File a = jar("a.jar", CLASS_NAME + ".class", "module-info.class", "META-INF/MANIFEST.MF");
+		final File b = jar("b.jar", CLASS_NAME + ".class", "b/B.class", "b/package-info.class");
+		final File classList = temp.newFile("classlist.txt");
+
+		assertEquals(2, ClassDataSharing.writeClassList(Arrays.asList(a, b), classList));
+		final List<String> lines = Files.readAllLines(classList.toPath(), StandardCharsets.UTF_8);
+		assertEquals(Arrays.asList(CLASS_NAME, "b/B"), lines);
+	}
+
+	@Test
+	public void testArchiveClassifier() {
+		assertEquals("cds-jdk17.0.9_9", ClassDataSharing.archiveClassifier("17.0.9+9"));
+		assertEquals("cds-jdk11.0.21_9-LTS", ClassDataSharing.archiveClassifier("11.0.21+9-LTS"));
+		assertNotEquals(ClassDataSharing.archiveClassifier("17.0.8+7"), ClassDataSharing.archiveClassifier("17.0.9+9"));
+		assertEquals(ClassDataSharing.archiveClassifier(System.getProperty("java.vm.version")),
+				ClassDataSharing.archiveClassifier());
+	}
+
+	@Test
+	public void testDumpArchive() throws IOException {
+		assumeTrue(ClassDataSharing.isSupported());
+		final List<File> jars = Collections.singletonList(jar("a.jar", CLASS_NAME + ".class"));
+		final File classList = temp.newFile("classlist.txt");
+		ClassDataSharing.writeClassList(jars, classList);
+		final File archive = new File(temp.getRoot(), "a.jsa");
+
+		ClassDataSharing.dumpArchive(jars, classList, archive);
+		assertTrue(archive.length() > 0);
+	}
+
+	/**
+	 * Writes a jar whose class entries all hold the bytes of one real class.
+	 */
+	private File jar(final String name, final String... entries) throws IOException {
+		final byte[] bytes;
+		try (InputStream in = getClass().getResourceAsStream("/" + CLASS_NAME + ".class")) {
+			final byte[] buffer = new byte[64 * 1024];
+			int length = 0;
+			int count;
+			while ((count = in.read(buffer, length, buffer.length - length)) != -1) {
+				length += count;
+			}
+			bytes = Arrays.copyOf(buffer, length);
+		}
+		final File jar = temp.newFile(name);
+		try (JarOutputStream out = new JarOutputStream(Files.newOutputStream(jar.toPath()))) {
+			for (final String entry : entries) {
+				out.putNextEntry(new JarEntry(entry));
+				out.write(bytes);
+				out.closeEntry();
+			}
+		}
+		return jar;
+	}
+}
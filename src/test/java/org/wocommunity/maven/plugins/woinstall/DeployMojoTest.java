@@ -0,0 +1,159 @@
+package org.wocommunity.maven.plugins.woinstall;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+import org.apache.maven.execution.MavenSession;
+import org.apache.maven.plugin.MojoFailureException;
+import org.apache.maven.plugin.testing.AbstractMojoTestCase;
+import org.codehaus.plexus.util.FileUtils;
+import org.eclipse.aether.DefaultRepositorySystemSession;
+import org.eclipse.aether.internal.impl.DefaultLocalPathComposer;
+import org.eclipse.aether.internal.impl.DefaultLocalPathPrefixComposerFactory;
+import org.eclipse.aether.internal.impl.DefaultTrackingFileManager;
+import org.eclipse.aether.internal.impl.EnhancedLocalRepositoryManagerFactory;
+import org.eclipse.aether.repository.LocalRepository;
+
+public class DeployMojoTest extends AbstractMojoTestCase {
+	private static final String VERSION = "5.4.3";
+
+	private File localRepo;
+	private File remoteRepo;
+
+	@Override
+	public void setUp() throws Exception {
+		super.setUp();
+		localRepo = new File(getBasedir(), "target/deploy-local-repo");
+		remoteRepo = new File(getBasedir(), "target/deploy-remote-repo");
+		FileUtils.deleteDirectory(localRepo);
+		FileUtils.deleteDirectory(remoteRepo);
+	}
+
+	private DeployMojo createMojo() throws Exception {
+		final File testPom = new File(getBasedir(), "target/test-classes/project-to-test/pom.xml");
+		final DeployMojo mojo = (DeployMojo) lookupMojo("deploy", testPom);
+		assertNotNull(mojo);
+
+		final MavenSession session = mock(MavenSession.class);
+		final DefaultRepositorySystemSession repositorySession = new DefaultRepositorySystemSession();
+		repositorySession.setLocalRepositoryManager(new EnhancedLocalRepositoryManagerFactory(
+				new DefaultLocalPathComposer(),
+				new DefaultTrackingFileManager(),
+				new DefaultLocalPathPrefixComposerFactory())
+				.newInstance(repositorySession, new LocalRepository(localRepo)));
+		when(session.getRepositorySession()).thenReturn(repositorySession);
+		setVariableValueToObject(mojo, "session", session);
+		setVariableValueToObject(mojo, "repositoryId", "test");
+		setVariableValueToObject(mojo, "repositoryUrl", remoteRepo.toURI().toString());
+		setVariableValueToObject(mojo, "deployThreads", 2);
+		return mojo;
+	}
+
+	private void install(final String... artifactIds) throws Exception {
+		install(false, artifactIds);
+	}
+
+	private void install(final boolean storeJarEntries, final String... artifactIds) throws Exception {
+		final InstallManifest manifest = new InstallManifest(VERSION, null);
+		for (final String artifactId : artifactIds) {
+			addJar(manifest, artifactId, "");
+			if (storeJarEntries) {
+				addJar(manifest, artifactId, "deflated");
+			}
+		}
+		manifest.write(WebObjectsInstaller.forVersion(VERSION).getManifestFile(localRepo));
+	}
+
+	private void addJar(final InstallManifest manifest, final String artifactId, final String classifier)
+			throws Exception {
+		final String suffix = classifier.isEmpty() ? "" : "-" + classifier;
+		final String path = "com/webobjects/" + artifactId + "/" + VERSION + "/" + artifactId + "-" + VERSION
+				+ suffix + ".jar";
+		final File jar = new File(localRepo, path);
+		jar.getParentFile().mkdirs();
+		Files.write(jar.toPath(), (artifactId + suffix).getBytes(StandardCharsets.UTF_8));
+		manifest.add("com.webobjects:" + artifactId + ":jar:" + (classifier.isEmpty() ? "" : classifier + ":")
+				+ VERSION, localRepo, path);
+	}
+
+	private static int count(final String text, final String part) {
+		int count = 0;
+		for (int i = text.indexOf(part); i != -1; i = text.indexOf(part, i + 1)) {
+			count++;
+		}
+		return count;
+	}
+
+	public void testDeploy() throws Exception {
+		install("JavaFoundation", "JavaWebObjects", "JavaXML");
+		createMojo().execute();
+
+		for (final String artifactId : new String[] { "JavaFoundation", "JavaWebObjects", "JavaXML" }) {
+			final File dir = new File(remoteRepo, "com/webobjects/" + artifactId);
+			final String base = VERSION + "/" + artifactId + "-" + VERSION;
+			assertEquals(artifactId,
+					new String(Files.readAllBytes(new File(dir, base + ".jar").toPath()), StandardCharsets.UTF_8));
+			assertTrue(new File(dir, base + ".jar.sha1").isFile());
+			assertTrue(new File(dir, base + ".pom").isFile());
+			assertTrue(new File(dir, base + ".pom.md5").isFile());
+			assertTrue(new File(dir, "maven-metadata.xml").isFile());
+		}
+		final String pom = new String(Files.readAllBytes(new File(remoteRepo,
+				"com/webobjects/JavaWebObjects/" + VERSION + "/JavaWebObjects-" + VERSION + ".pom").toPath()),
+				StandardCharsets.UTF_8);
+		assertTrue(pom.contains("<artifactId>JavaEOControl</artifactId>"));
+		final String bom = new String(Files.readAllBytes(new File(remoteRepo,
+				"com/webobjects/webobjects-bom/" + VERSION + "/webobjects-bom-" + VERSION + ".pom").toPath()),
+				StandardCharsets.UTF_8);
+		assertTrue(bom.contains("<artifactId>JavaXML</artifactId>"));
+	}
+
+	public void testDeployStoredJarEntries() throws Exception {
+		install(true, "JavaFoundation", "JavaXML");
+		createMojo().execute();
+
+		for (final String artifactId : new String[] { "JavaFoundation", "JavaXML" }) {
+			final File dir = new File(remoteRepo, "com/webobjects/" + artifactId);
+			final String base = VERSION + "/" + artifactId + "-" + VERSION;
+			assertEquals(artifactId,
+					new String(Files.readAllBytes(new File(dir, base + ".jar").toPath()), StandardCharsets.UTF_8));
+			assertEquals(artifactId + "-deflated", new String(
+					Files.readAllBytes(new File(dir, base + "-deflated.jar").toPath()), StandardCharsets.UTF_8));
+			assertTrue(new File(dir, base + ".pom").isFile());
+			final String metadata = new String(Files.readAllBytes(new File(dir, "maven-metadata.xml").toPath()),
+					StandardCharsets.UTF_8);
+			assertEquals(1, count(metadata, "<version>" + VERSION + "</version>"));
+		}
+		final String bom = new String(Files.readAllBytes(new File(remoteRepo,
+				"com/webobjects/webobjects-bom/" + VERSION + "/webobjects-bom-" + VERSION + ".pom").toPath()),
+				StandardCharsets.UTF_8);
+		assertEquals(1, count(bom, "<artifactId>JavaXML</artifactId>"));
+		assertEquals(1, count(bom, "<artifactId>JavaFoundation</artifactId>"));
+	}
+
+	public void testDeployRequiresArtifacts() throws Exception {
+		final File nextRoot = WebObjectsInstaller.forVersion(VERSION).getNextRoot(localRepo);
+		nextRoot.mkdirs();
+		new InstallManifest(VERSION, localRepo.toPath().relativize(nextRoot.toPath()).toString())
+				.write(WebObjectsInstaller.forVersion(VERSION).getManifestFile(localRepo));
+		try {
+			createMojo().execute();
+			fail();
+		} catch (final MojoFailureException e) {
+			assertTrue(e.getMessage().contains("without nextRootOnly"));
+		}
+	}
+
+	public void testDeployRequiresInstallation() throws Exception {
+		try {
+			createMojo().execute();
+			fail();
+		} catch (final MojoFailureException e) {
+			assertTrue(e.getMessage().contains("Run the woinstall goal first"));
+		}
+	}
+}
@@ -0,0 +1,152 @@
+package org.wocommunity.maven.plugins.woinstall;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Arrays;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.wocommunity.maven.plugins.woinstall.io.Durability;
+import org.wocommunity.maven.plugins.woinstall.io.FileSync;
+
+public class InstallBundleTest {
+	private static final String JAR = "com/webobjects/A/5.4.3/A-5.4.3.jar";
+	private static final String POM = "com/webobjects/A/5.4.3/A-5.4.3.pom";
+	private static final String NEXT_ROOT = "com/webobjects/.next_roots/5.4.3";
+	private static final String FRAMEWORK = "Library/Frameworks/A.framework";
+
+	@Rule
+	public TemporaryFolder temp = new TemporaryFolder();
+
+	@Test
+	public void testRoundTrip() throws IOException {
+		final File repo = repository();
+		final File bundle = new File(temp.getRoot(), "bundle.zip");
+		InstallBundle.write(bundle, repo, manifest(repo), new File(repo, NEXT_ROOT));
+		assertEquals("5.4.3", InstallBundle.readVersion(bundle));
+
+		final File target = temp.newFolder("target");
+		final File nextRoot = new File(target, NEXT_ROOT);
+		final InstallManifest manifest = InstallBundle.unpack(bundle, target, nextRoot,
+				new FileSync(Durability.NONE));
+		assertEquals(NEXT_ROOT, manifest.getNextRoot());
+		assertEquals(2, manifest.getArtifacts().size());
+		assertTrue(manifest.isCurrent(target));
+		assertArrayEquals(Files.readAllBytes(new File(repo, JAR).toPath()),
+				Files.readAllBytes(new File(target, JAR).toPath()));
+		assertEquals(manifest(repo).getArtifacts().get("com.webobjects:A:jar:5.4.3").getSha256(),
+				manifest.getArtifacts().get("com.webobjects:A:jar:5.4.3").getSha256());
+
+		assertTrue(new File(nextRoot, "Library/WebObjects/lib/A.jar").isFile());
+		assertTrue(new File(nextRoot, FRAMEWORK + "/Versions/A/Resources/Java/a.jar").isFile());
+		assertEquals(Paths.get("A"), Files.readSymbolicLink(new File(nextRoot, FRAMEWORK + "/Versions/Current")
+				.toPath()));
+		// trimmed to the Library directory
+		assertFalse(new File(nextRoot, "Developer").exists());
+		assertFalse(new File(nextRoot.getParentFile(), "5.4.3.partial").exists());
+	}
+
+	@Test
+	public void testArtifactsOnly() throws IOException {
+		final File repo = repository();
+		final File bundle = new File(temp.getRoot(), "bundle.zip");
+		InstallBundle.write(bundle, repo, manifest(repo), null);
+
+		final File target = temp.newFolder("target");
+		final InstallManifest manifest = InstallBundle.unpack(bundle, target, new File(target, NEXT_ROOT),
+				new FileSync(Durability.NONE));
+		assertNull(manifest.getNextRoot());
+		assertTrue(manifest.isCurrent(target));
+		assertFalse(new File(target, NEXT_ROOT).exists());
+	}
+
+	@Test(expected = IOException.class)
+	public void testCorruptBundle() throws IOException {
+		final File repo = repository();
+		final File bundle = new File(temp.getRoot(), "bundle.zip");
+		InstallBundle.write(bundle, repo, manifest(repo), new File(repo, NEXT_ROOT));
+		try (RandomAccessFile file = new RandomAccessFile(bundle, "rw")) {
+			// inside the data of an entry near the start
+			file.seek(200);
+			final int b = file.read();
+			file.seek(200);
+			file.write(b ^ 0xff);
+		}
+		final File target = temp.newFolder("target");
+		InstallBundle.unpack(bundle, target, new File(target, NEXT_ROOT), new FileSync(Durability.NONE));
+	}
+
+	@Test
+	public void testCorruptBundleKeepsInstalledFiles() throws IOException {
+		final File repo = repository();
+		final File bundle = new File(temp.getRoot(), "bundle.zip");
+		InstallBundle.write(bundle, repo, manifest(repo), null);
+		final File target = temp.newFolder("target");
+		InstallBundle.unpack(bundle, target, new File(target, NEXT_ROOT), new FileSync(Durability.NONE));
+		final byte[] installed = Files.readAllBytes(new File(target, JAR).toPath());
+
+		final byte[] data = Files.readAllBytes(bundle.toPath());
+		final byte[] name = ("repository/" + JAR).getBytes(StandardCharsets.US_ASCII);
+		// the first byte of the jar's data, after its local header
+		final int offset = indexOf(data, name) + name.length;
+		data[offset] ^= 0xff;
+		Files.write(bundle.toPath(), data);
+		try {
+			InstallBundle.unpack(bundle, target, new File(target, NEXT_ROOT), new FileSync(Durability.NONE));
+			fail();
+		} catch (final IOException e) {
+			// expected
+		}
+		assertArrayEquals(installed, Files.readAllBytes(new File(target, JAR).toPath()));
+		assertFalse(new File(target, JAR + ".partial").exists());
+	}
+
+	private static int indexOf(final byte[] data, final byte[] part) {
+		for (int i = 0; i + part.length <= data.length; i++) {
+			if (Arrays.equals(Arrays.copyOfRange(data, i, i + part.length), part)) {
+				return i;
+			}
+		}
+		throw new AssertionError();
+	}
+
+	private File repository() throws IOException {
+		final File repo = temp.newFolder("repo");
+		write(new File(repo, JAR), "jar");
+		write(new File(repo, POM), "pom");
+		final File nextRoot = new File(repo, NEXT_ROOT);
+		write(new File(nextRoot, "Library/WebObjects/lib/A.jar"), "jar");
+		write(new File(nextRoot, FRAMEWORK + "/Versions/A/Resources/Java/a.jar"), "framework jar");
+		Files.createSymbolicLink(new File(nextRoot, FRAMEWORK + "/Versions/Current").toPath(), Paths.get("A"));
+		write(new File(nextRoot, "Developer/Examples/readme.txt"), "example");
+		return repo;
+	}
+
+	private static InstallManifest manifest(final File repo) throws IOException {
+		final InstallManifest manifest = new InstallManifest("5.4.3", NEXT_ROOT);
+		manifest.add("com.webobjects:A:jar:5.4.3", repo, JAR);
+		manifest.add("com.webobjects:A:pom:5.4.3", repo, POM);
+		return manifest;
+	}
+
+	private static void write(final File file, final String content) throws IOException {
+		file.getParentFile().mkdirs();
+		final StringBuilder data = new StringBuilder();
+		for (int i = 0; i < 100; i++) {
+			data.append(content).append(i);
+		}
+		Files.write(file.toPath(), data.toString().getBytes(StandardCharsets.US_ASCII));
+	}
+}
@@ -0,0 +1,81 @@
+package org.wocommunity.maven.plugins.woinstall;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class InstallManifestTest {
+	private static final String JAR = "com/webobjects/A/5.4.3/A-5.4.3.jar";
+
+	@Rule
+	public TemporaryFolder temp = new TemporaryFolder();
+
+	@Test
+	public void testRoundTrip() throws IOException {
+		final File repo = repository();
+		final File file = new File(repo, "com/webobjects/.archive/WebObjects_5.4.3.manifest");
+		final InstallManifest written = manifest(repo);
+		written.setOption("storeJarEntries", "true");
+		written.setCdsArchive("cds-jdk17.0.9_9", "0123abcd");
+		written.write(file);
+
+		final InstallManifest manifest = InstallManifest.read(file);
+		assertEquals("5.4.3", manifest.getVersion());
+		assertEquals(written.getOptions(), manifest.getOptions());
+		assertEquals(written.getCdsArchives(), manifest.getCdsArchives());
+		assertEquals("com/webobjects/.next_roots/5.4.3", manifest.getNextRoot());
+		assertEquals(JAR, manifest.getArtifacts().get("com.webobjects:A:jar:5.4.3").getPath());
+		assertEquals(64, manifest.getArtifacts().get("com.webobjects:A:jar:5.4.3").getSha256().length());
+		assertTrue(manifest.isCurrent(repo));
+	}
+
+	@Test
+	public void testChangedArtifact() throws IOException {
+		final File repo = repository();
+		final InstallManifest manifest = manifest(repo);
+		Files.write(new File(repo, JAR).toPath(), "changed".getBytes(StandardCharsets.US_ASCII));
+		assertFalse(manifest.isCurrent(repo));
+	}
+
+	@Test
+	public void testMissingNextRoot() throws IOException {
+		final File repo = repository();
+		final InstallManifest manifest = manifest(repo);
+		Files.delete(new File(repo, "com/webobjects/.next_roots/5.4.3").toPath());
+		assertFalse(manifest.isCurrent(repo));
+	}
+
+	@Test
+	public void testNextRootOnly() throws IOException {
+		final File repo = repository();
+		final InstallManifest manifest = new InstallManifest("5.4.3", "com/webobjects/.next_roots/5.4.3");
+		assertTrue(manifest.isCurrent(repo));
+		Files.delete(new File(repo, "com/webobjects/.next_roots/5.4.3").toPath());
+		assertFalse(manifest.isCurrent(repo));
+		assertFalse(new InstallManifest("5.4.3", null).isCurrent(repo));
+	}
+
+	private File repository() throws IOException {
+		final File repo = temp.newFolder("repo");
+		final File jar = new File(repo, JAR);
+		jar.getParentFile().mkdirs();
+		Files.write(jar.toPath(), "jar".getBytes(StandardCharsets.US_ASCII));
+		new File(repo, "com/webobjects/.next_roots/5.4.3").mkdirs();
+		return repo;
+	}
+
+	private static InstallManifest manifest(final File repo) throws IOException {
+		final InstallManifest manifest = new InstallManifest("5.4.3", "com/webobjects/.next_roots/5.4.3");
+		manifest.add("com.webobjects:A:jar:5.4.3", repo, JAR);
+		return manifest;
+	}
+}
@@ -7,6 +7,14 @@ import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.when;
 
 import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Collections;
+import java.util.List;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
 
 import org.apache.maven.execution.MavenSession;
 import org.apache.maven.plugin.testing.AbstractMojoTestCase;
@@ -14,12 +22,15 @@ import org.apache.maven.project.DefaultProjectBuildingRequest;
 import org.apache.maven.project.ProjectBuildingRequest;
 import org.codehaus.plexus.util.FileUtils;
 import org.eclipse.aether.DefaultRepositorySystemSession;
+import org.eclipse.aether.RepositorySystemSession;
 import org.eclipse.aether.internal.impl.DefaultLocalPathComposer;
 import org.eclipse.aether.internal.impl.DefaultLocalPathPrefixComposerFactory;
 import org.eclipse.aether.internal.impl.DefaultTrackingFileManager;
 import org.eclipse.aether.internal.impl.EnhancedLocalRepositoryManagerFactory;
 import org.eclipse.aether.repository.LocalRepository;
 import org.eclipse.aether.repository.NoLocalRepositoryManagerException;
+import org.wocommunity.maven.plugins.woinstall.io.Durability;
+import org.wocommunity.maven.plugins.woinstall.io.FileSync;
 
 /**
  *
@@ -81,4 +92,85 @@ public class InstallMojoTest extends AbstractMojoTestCase {
 		 */
 	}
 
+	public void testCdsArchiveDumpedAgainForChangedJars() throws Exception {
+		if (!ClassDataSharing.isSupported()) {
+			return;
+		}
+		final File testPom = new File(getBasedir(), "target/test-classes/project-to-test/pom.xml");
+		final InstallMojo mojo = (InstallMojo) lookupMojo("woinstall", testPom);
+		final MavenSession session = createMavenSession(LOCAL_REPO);
+		setVariableValueToObject(mojo, "session", session);
+		final RepositorySystemSession rss = session.getRepositorySession();
+		final WebObjectsInstaller installer = WebObjectsInstaller.forVersion("5.4.3");
+		final List<String> artifactIds = Collections.singletonList("JavaFoundation");
+		final File repo = new File(getBasedir(), LOCAL_REPO);
+		final File jar = new File(repo, "com/webobjects/JavaFoundation/5.4.3/JavaFoundation-5.4.3.jar");
+		final File archive = new File(repo, "com/webobjects/webobjects-bom/5.4.3/webobjects-bom-5.4.3-"
+				+ ClassDataSharing.archiveClassifier() + ".jsa");
+		final FileSync fileSync = new FileSync(Durability.NONE);
+
+		writeJar(jar, false);
+		final String stamp = mojo.installCdsArchive(installer, rss, artifactIds, null, fileSync);
+		assertTrue(archive.isFile());
+		assertTrue(archive.setLastModified(1000));
+
+		assertEquals(stamp, mojo.installCdsArchive(installer, rss, artifactIds, stamp, fileSync));
+		assertEquals(1000, archive.lastModified());
+
+		writeJar(jar, true);
+		assertFalse(stamp.equals(mojo.installCdsArchive(installer, rss, artifactIds, stamp, fileSync)));
+		assertTrue(archive.isFile());
+		assertTrue(archive.lastModified() != 1000);
+	}
+
+	public void testBundleInstalledOnceWithOptions() throws Exception {
+		final File source = new File(getBasedir(), "target/bundle-source-repo");
+		FileUtils.deleteDirectory(source);
+		final String path = "com/webobjects/JavaFoundation/5.4.3/JavaFoundation-5.4.3.jar";
+		writeJar(new File(source, path), false);
+		final InstallManifest bundled = new InstallManifest("5.4.3", null);
+		bundled.add("com.webobjects:JavaFoundation:jar:5.4.3", source, path);
+		final File bundle = new File(getBasedir(), "target/bundle-5.4.3.zip");
+		InstallBundle.write(bundle, source, bundled, null);
+
+		final File testPom = new File(getBasedir(), "target/test-classes/project-to-test/pom.xml");
+		final InstallMojo mojo = (InstallMojo) lookupMojo("woinstall", testPom);
+		setVariableValueToObject(mojo, "session", createMavenSession(LOCAL_REPO));
+		setVariableValueToObject(mojo, "durability", "none");
+		setVariableValueToObject(mojo, "maxConcurrentDownloads", 1);
+		setVariableValueToObject(mojo, "maxConcurrentExtractions", 1);
+		setVariableValueToObject(mojo, "bundleFile", bundle);
+		setVariableValueToObject(mojo, "storeJarEntries", true);
+		setVariableValueToObject(mojo, "generateCdsArchive", true);
+		mojo.execute();
+		final File manifest = WebObjectsInstaller.WO_5_4_3.getManifestFile(new File(getBasedir(), LOCAL_REPO));
+		assertTrue(manifest.setLastModified(1000));
+
+		mojo.execute();
+		assertEquals(1000, manifest.lastModified());
+	}
+
+	/**
+	 * Writes a jar holding a real class and, if changed, a resource as well.
+	 */
+	private static void writeJar(final File jar, final boolean changed) throws IOException {
+		final String className = UnknownVersionException.class.getName().replace('.', '/') + ".class";
+		jar.getParentFile().mkdirs();
+		try (JarOutputStream out = new JarOutputStream(Files.newOutputStream(jar.toPath()));
+				InputStream in = InstallMojoTest.class.getResourceAsStream("/" + className)) {
+			out.putNextEntry(new JarEntry(className));
+			final byte[] buffer = new byte[8192];
+			int count;
+			while ((count = in.read(buffer)) != -1) {
+				out.write(buffer, 0, count);
+			}
+			out.closeEntry();
+			if (changed) {
+				out.putNextEntry(new JarEntry("readme.txt"));
+				out.write("changed".getBytes(StandardCharsets.US_ASCII));
+				out.closeEntry();
+			}
+		}
+	}
+
 }
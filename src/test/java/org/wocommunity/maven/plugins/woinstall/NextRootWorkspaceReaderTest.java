@@ -0,0 +1,94 @@
+package org.wocommunity.maven.plugins.woinstall;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Collections;
+
+import org.apache.maven.execution.MavenSession;
+import org.apache.maven.model.Model;
+import org.eclipse.aether.DefaultRepositorySystemSession;
+import org.eclipse.aether.artifact.DefaultArtifact;
+import org.eclipse.aether.internal.impl.DefaultLocalPathComposer;
+import org.eclipse.aether.internal.impl.DefaultLocalPathPrefixComposerFactory;
+import org.eclipse.aether.internal.impl.DefaultTrackingFileManager;
+import org.eclipse.aether.internal.impl.EnhancedLocalRepositoryManagerFactory;
+import org.eclipse.aether.repository.LocalRepository;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class NextRootWorkspaceReaderTest {
+	@Rule
+	public TemporaryFolder temp = new TemporaryFolder();
+
+	private File jarRoot;
+	private NextRootWorkspaceReader reader;
+
+	@Before
+	public void setUp() throws Exception {
+		final File localRepo = temp.newFolder("repo");
+		jarRoot = WebObjectsInstaller.forVersion("5.4.3").getJarRoot(localRepo);
+		jarRoot.mkdirs();
+		for (final String artifactId : new String[] { "JavaFoundation", "JavaWebObjects" }) {
+			Files.write(new File(jarRoot, artifactId + ".jar").toPath(), artifactId.getBytes(StandardCharsets.UTF_8));
+		}
+
+		final DefaultRepositorySystemSession repositorySession = new DefaultRepositorySystemSession();
+		repositorySession.setLocalRepositoryManager(new EnhancedLocalRepositoryManagerFactory(
+				new DefaultLocalPathComposer(),
+				new DefaultTrackingFileManager(),
+				new DefaultLocalPathPrefixComposerFactory())
+				.newInstance(repositorySession, new LocalRepository(localRepo)));
+		final MavenSession session = mock(MavenSession.class);
+		when(session.getRepositorySession()).thenReturn(repositorySession);
+		reader = new NextRootWorkspaceReader(() -> session);
+	}
+
+	@Test
+	public void testJar() {
+		assertEquals(new File(jarRoot, "JavaFoundation.jar"),
+				reader.findArtifact(new DefaultArtifact("com.webobjects:JavaFoundation:5.4.3")));
+		assertEquals(Collections.singletonList("5.4.3"),
+				reader.findVersions(new DefaultArtifact("com.webobjects:JavaFoundation:5.4.3")));
+		assertNull(reader.findArtifact(new DefaultArtifact("com.webobjects:JavaXML:5.4.3")));
+		assertNull(reader.findArtifact(new DefaultArtifact("com.webobjects:JavaFoundation:jar:sources:5.4.3")));
+	}
+
+	@Test
+	public void testPom() throws IOException {
+		final Model model = reader.findModel(new DefaultArtifact("com.webobjects:JavaWebObjects:pom:5.4.3"));
+		assertNotNull(model);
+		assertEquals("JavaWebObjects", model.getArtifactId());
+		assertEquals("JavaXML", model.getDependencies().get(0).getArtifactId());
+
+		final File pom = reader.findArtifact(new DefaultArtifact("com.webobjects:JavaWebObjects:pom:5.4.3"));
+		assertTrue(new String(Files.readAllBytes(pom.toPath()), StandardCharsets.UTF_8)
+				.contains("<artifactId>JavaEOControl</artifactId>"));
+	}
+
+	@Test
+	public void testBom() {
+		final Model model = reader.findModel(new DefaultArtifact("com.webobjects:webobjects-bom:pom:5.4.3"));
+		assertEquals(2, model.getDependencyManagement().getDependencies().size());
+		assertEquals("JavaFoundation", model.getDependencyManagement().getDependencies().get(0).getArtifactId());
+		assertTrue(reader.findArtifact(new DefaultArtifact("com.webobjects:webobjects-bom:pom:5.4.3")).isFile());
+	}
+
+	@Test
+	public void testOtherArtifacts() {
+		assertNull(reader.findArtifact(new DefaultArtifact("com.webobjects:JavaFoundation:5.3.3")));
+		assertNull(reader.findArtifact(new DefaultArtifact("com.webobjects:JavaFoundation:9.9")));
+		assertNull(reader.findArtifact(new DefaultArtifact("org.example:JavaFoundation:5.4.3")));
+		assertTrue(reader.findVersions(new DefaultArtifact("com.webobjects:JavaFoundation:5.3.3")).isEmpty());
+	}
+}
@@ -0,0 +1,74 @@
+package org.wocommunity.maven.plugins.woinstall.archiver;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Random;
+
+import org.wocommunity.maven.plugins.woinstall.io.Durability;
+import org.wocommunity.maven.plugins.woinstall.io.FileSync;
+import org.wocommunity.maven.plugins.woinstall.io.FileUtilities;
+import org.wocommunity.maven.plugins.woinstall.ui.NullProgressMonitor;
+
+/**
+ * Measures the cost of each {@link Durability} mode when extracting a CPIO
+ * archive shaped roughly like a next_root: many small resources spread over a
+ * few hundred directories. Not run by the build, start it after
+ * {@code mvn test-compile} with
+ *
+ * <pre>
+ * java -cp target/classes:target/test-classes \
+ *   org.wocommunity.maven.plugins.woinstall.archiver.CPIODurabilityBenchmark [files] [fileSize] [directory]
+ * </pre>
+ *
+ * The directory should be on the file system that will hold the local
+ * repository, since fsync cost depends entirely on the storage underneath.
+ */
+public class CPIODurabilityBenchmark {
+	private static final int ROUNDS = 3;
+
+	public static void main(final String[] args) throws IOException {
+		final int files = args.length > 0 ? Integer.parseInt(args[0]) : 2000;
+		final int fileSize = args.length > 1 ? Integer.parseInt(args[1]) : 16 * 1024;
+		final Path dir = args.length > 2 ? Files.createDirectories(Paths.get(args[2]))
+				: Files.createTempDirectory("cpio-durability");
+
+		final byte[] archive = archive(files, fileSize);
+		System.out.println("Extracting " + files + " files of " + fileSize + " bytes into " + dir);
+		for (final Durability durability : Durability.values()) {
+			long best = Long.MAX_VALUE;
+			for (int round = 0; round < ROUNDS; round++) {
+				final Path root = dir.resolve(durability.name().toLowerCase() + "-" + round);
+				final FileSync fileSync = new FileSync(durability);
+				final long start = System.nanoTime();
+				final CPIO cpio = new CPIO(new ByteArrayInputStream(archive));
+				cpio.setFileSync(fileSync);
+				cpio.extractTo(root.toFile(), new NullProgressMonitor());
+				fileSync.sync();
+				best = Math.min(best, System.nanoTime() - start);
+				FileUtilities.deleteRecursively(root);
+			}
+			System.out.printf("%-8s %8.1f ms%n", durability.name().toLowerCase(), best / 1e6);
+		}
+	}
+
+	private static byte[] archive(final int files, final int fileSize) throws IOException {
+		final ByteArrayOutputStream out = new ByteArrayOutputStream();
+		final Random random = new Random(0);
+		final byte[] data = new byte[fileSize];
+		int ino = 1;
+		CPIOTest.writeEntry(out, ".", CPIO.S_IFDIR | 0755, 1, ino++, new byte[0]);
+		for (int i = 0; i < files; i++) {
+			if (i % 10 == 0) {
+				CPIOTest.writeEntry(out, "./d" + i / 10, CPIO.S_IFDIR | 0755, 1, ino++, new byte[0]);
+			}
+			random.nextBytes(data);
+			CPIOTest.writeEntry(out, "./d" + i / 10 + "/f" + i, CPIO.S_IFREG | 0644, 1, ino++, data);
+		}
+		CPIOTest.writeEntry(out, "TRAILER!!!", 0, 1, 0, new byte[0]);
+		return out.toByteArray();
+	}
+}
@@ -0,0 +1,185 @@
+package org.wocommunity.maven.plugins.woinstall.archiver;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.wocommunity.maven.plugins.woinstall.io.ContentStore;
+import org.wocommunity.maven.plugins.woinstall.ui.NullProgressMonitor;
+
+public class CPIOTest {
+	@Rule
+	public TemporaryFolder temp = new TemporaryFolder();
+
+	private static final byte[] JAR_BYTES = "jar".getBytes(StandardCharsets.US_ASCII);
+	private static final byte[] TXT_BYTES = "text".getBytes(StandardCharsets.US_ASCII);
+
+	@Test
+	public void testExtractTo() throws IOException {
+		final File root = temp.newFolder("root");
+		new CPIO(new ByteArrayInputStream(sampleArchive())).extractTo(root, new NullProgressMonitor());
+
+		assertArrayEquals(JAR_BYTES, Files.readAllBytes(new File(root, "Library/WebObjects/lib/A.jar").toPath()));
+		assertArrayEquals(TXT_BYTES, Files.readAllBytes(new File(root, "Library/WebObjects/readme.txt").toPath()));
+	}
+
+	@Test(expected = IOException.class)
+	public void testExtractToExistingDirectory() throws IOException {
+		final File root = temp.newFolder("root");
+		new File(root, "Library").mkdir();
+		new CPIO(new ByteArrayInputStream(sampleArchive())).extractTo(root, new NullProgressMonitor());
+	}
+
+	@Test
+	public void testExtractEntries() throws IOException {
+		final File out = temp.newFolder("out");
+		final File jar = new File(out, "a/b/A.jar");
+		new CPIO(new ByteArrayInputStream(sampleArchive())).extractEntries(
+				name -> "Library/WebObjects/lib/A.jar".equals(name) ? jar : null,
+				new NullProgressMonitor());
+
+		assertArrayEquals(JAR_BYTES, Files.readAllBytes(jar.toPath()));
+		assertFalse(new File(out, "Library").exists());
+		assertEquals(1, jar.getParentFile().list().length);
+	}
+
+	@Test
+	public void testExtractEntryAtOffset() throws IOException {
+		final Map<String, Long> offsets = new HashMap<>();
+		final Map<String, Long> crcs = new HashMap<>();
+		final CPIO cpio = new CPIO(new ByteArrayInputStream(sampleArchive()));
+		cpio.setEntryListener((name, offset, crc) -> {
+			offsets.put(name, offset);
+			crcs.put(name, crc);
+		});
+		cpio.extractEntries(name -> null, new NullProgressMonitor());
+		assertEquals(6, offsets.size());
+		final CRC32 expected = new CRC32();
+		expected.update(JAR_BYTES);
+		assertEquals(expected.getValue(), crcs.get("./Library/WebObjects/lib/A.jar").longValue());
+
+		final byte[] archive = sampleArchive();
+		final int offset = offsets.get("./Library/WebObjects/lib/A.jar").intValue();
+		final File jar = new File(temp.newFolder("out"), "a/A.jar");
+		final String name = new CPIO(new ByteArrayInputStream(archive, offset, archive.length - offset))
+				.extractEntry(jar, expected.getValue());
+
+		assertEquals("./Library/WebObjects/lib/A.jar", name);
+		assertArrayEquals(JAR_BYTES, Files.readAllBytes(jar.toPath()));
+	}
+
+	@Test
+	public void testExtractEntryCrcMismatch() throws IOException {
+		final byte[] archive = sampleArchive();
+		final Map<String, Long> offsets = new HashMap<>();
+		final CPIO cpio = new CPIO(new ByteArrayInputStream(archive));
+		cpio.setEntryListener((name, offset, crc) -> offsets.put(name, offset));
+		cpio.extractEntries(name -> null, new NullProgressMonitor());
+
+		final int offset = offsets.get("./Library/WebObjects/lib/A.jar").intValue();
+		final File jar = new File(temp.newFolder("out"), "a/A.jar");
+		try {
+			new CPIO(new ByteArrayInputStream(archive, offset, archive.length - offset)).extractEntry(jar, 0);
+			fail();
+		} catch (final IOException e) {
+			assertTrue(e.getMessage().contains("CRC mismatch"));
+		}
+		assertFalse(jar.exists());
+	}
+
+	@Test
+	public void testExtractToHardLinks() throws IOException {
+		final ByteArrayOutputStream out = new ByteArrayOutputStream();
+		writeEntry(out, "./a.txt", CPIO.S_IFREG | 0644, 2, 7, TXT_BYTES);
+		writeEntry(out, "./b.txt", CPIO.S_IFREG | 0644, 2, 7, TXT_BYTES);
+		// data stored only with the last link
+		writeEntry(out, "./c.txt", CPIO.S_IFREG | 0644, 2, 8, new byte[0]);
+		writeEntry(out, "./d.txt", CPIO.S_IFREG | 0644, 2, 8, JAR_BYTES);
+		writeEntry(out, "TRAILER!!!", 0, 1, 0, new byte[0]);
+
+		final File root = temp.newFolder("root");
+		new CPIO(new ByteArrayInputStream(out.toByteArray())).extractTo(root, new NullProgressMonitor());
+
+		assertArrayEquals(TXT_BYTES, Files.readAllBytes(new File(root, "b.txt").toPath()));
+		assertTrue(Files.isSameFile(new File(root, "a.txt").toPath(), new File(root, "b.txt").toPath()));
+		assertArrayEquals(JAR_BYTES, Files.readAllBytes(new File(root, "c.txt").toPath()));
+		assertTrue(Files.isSameFile(new File(root, "c.txt").toPath(), new File(root, "d.txt").toPath()));
+	}
+
+	@Test
+	public void testExtractToContentStore() throws IOException {
+		final ContentStore store = new ContentStore(temp.newFolder("blobs"));
+		final File first = temp.newFolder("first");
+		final File second = temp.newFolder("second");
+		CPIO cpio = new CPIO(new ByteArrayInputStream(sampleArchive()));
+		cpio.setContentStore(store);
+		cpio.extractTo(first, new NullProgressMonitor());
+		assertEquals(JAR_BYTES.length + TXT_BYTES.length, store.getBytesWritten());
+
+		cpio = new CPIO(new ByteArrayInputStream(sampleArchive()));
+		cpio.setContentStore(store);
+		cpio.extractTo(second, new NullProgressMonitor());
+		assertEquals(JAR_BYTES.length + TXT_BYTES.length, store.getBytesWritten());
+		assertEquals(JAR_BYTES.length + TXT_BYTES.length, store.getBytesShared());
+		assertTrue(Files.isSameFile(new File(first, "Library/WebObjects/lib/A.jar").toPath(),
+				new File(second, "Library/WebObjects/lib/A.jar").toPath()));
+		assertEquals(0, store.getRoot().list((dir, name) -> name.endsWith(".tmp")).length);
+	}
+
+	private static byte[] sampleArchive() throws IOException {
+		final ByteArrayOutputStream out = new ByteArrayOutputStream();
+		writeEntry(out, ".", CPIO.S_IFDIR | 0755, 1, 1, new byte[0]);
+		writeEntry(out, "./Library", CPIO.S_IFDIR | 0755, 1, 2, new byte[0]);
+		writeEntry(out, "./Library/WebObjects", CPIO.S_IFDIR | 0755, 1, 3, new byte[0]);
+		writeEntry(out, "./Library/WebObjects/lib", CPIO.S_IFDIR | 0755, 1, 4, new byte[0]);
+		writeEntry(out, "./Library/WebObjects/lib/A.jar", CPIO.S_IFREG | 0644, 1, 5, JAR_BYTES);
+		writeEntry(out, "./Library/WebObjects/readme.txt", CPIO.S_IFREG | 0644, 1, 6, TXT_BYTES);
+		writeEntry(out, "TRAILER!!!", 0, 1, 0, new byte[0]);
+		return out.toByteArray();
+	}
+
+	/**
+	 * Writes a single odc entry.
+	 */
+	static void writeEntry(final ByteArrayOutputStream out, final String name, final int mode, final int nlink,
+			final int ino, final byte[] data) throws IOException {
+		final StringBuilder header = new StringBuilder("070707");
+		header.append(octal(1, 6)); // dev
+		header.append(octal(ino, 6));
+		header.append(octal(mode, 6));
+		header.append(octal(0, 6)); // uid
+		header.append(octal(0, 6)); // gid
+		header.append(octal(nlink, 6));
+		header.append(octal(0, 6)); // rdev
+		header.append(octal(0, 11)); // mtime
+		header.append(octal(name.length() + 1, 6));
+		header.append(octal(data.length, 11));
+		out.write(header.toString().getBytes(StandardCharsets.US_ASCII));
+		out.write(name.getBytes(StandardCharsets.US_ASCII));
+		out.write(0);
+		out.write(data);
+	}
+
+	private static String octal(final int value, final int width) {
+		final StringBuilder s = new StringBuilder(Integer.toOctalString(value));
+		while (s.length() < width) {
+			s.insert(0, '0');
+		}
+		return s.toString();
+	}
+}
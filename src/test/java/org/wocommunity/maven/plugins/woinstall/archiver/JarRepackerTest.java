@@ -0,0 +1,109 @@
+package org.wocommunity.maven.plugins.woinstall.archiver;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class JarRepackerTest {
+	private static final List<String> NAMES = Arrays.asList("META-INF/MANIFEST.MF", "a/", "a/A.class",
+			"a/B.class", "a/empty.txt");
+
+	@Rule
+	public TemporaryFolder temp = new TemporaryFolder();
+
+	@Test
+	public void testRepack() throws IOException {
+		final File source = jar("source.jar");
+		final File target = new File(temp.getRoot(), "target.jar");
+		JarRepacker.repack(source, target);
+
+		try (ZipFile original = new ZipFile(source); ZipFile stored = new ZipFile(target)) {
+			final List<String> names = new ArrayList<>();
+			final Enumeration<? extends ZipEntry> entries = stored.entries();
+			while (entries.hasMoreElements()) {
+				final ZipEntry entry = entries.nextElement();
+				names.add(entry.getName());
+				assertEquals(ZipEntry.STORED, entry.getMethod());
+				final ZipEntry originalEntry = original.getEntry(entry.getName());
+				assertEquals(originalEntry.getTime(), entry.getTime());
+				assertArrayEquals(read(original, originalEntry), read(stored, entry));
+			}
+			assertEquals(NAMES, names);
+		}
+		assertFalse(new File(temp.getRoot(), "target.jar.partial").exists());
+	}
+
+	@Test
+	public void testRepackAll() throws IOException {
+		final Map<File, File> jars = new LinkedHashMap<>();
+		for (int i = 0; i < 8; i++) {
+			jars.put(jar("source" + i + ".jar"), new File(temp.getRoot(), "target" + i + ".jar"));
+		}
+		JarRepacker.repackAll(jars);
+		for (final File target : jars.values()) {
+			try (ZipFile stored = new ZipFile(target)) {
+				assertEquals(NAMES.size(), Collections.list(stored.entries()).size());
+			}
+		}
+	}
+
+	@Test(expected = IOException.class)
+	public void testRepackAllFailure() throws IOException {
+		final File missing = new File(temp.getRoot(), "missing.jar");
+		JarRepacker.repackAll(Collections.singletonMap(missing, new File(temp.getRoot(), "target.jar")));
+	}
+
+	private File jar(final String name) throws IOException {
+		final File jar = temp.newFile(name);
+		try (JarOutputStream out = new JarOutputStream(Files.newOutputStream(jar.toPath()))) {
+			for (final String entryName : NAMES) {
+				final JarEntry entry = new JarEntry(entryName);
+				entry.setTime(1_000_000_000_000L);
+				out.putNextEntry(entry);
+				if (!entryName.endsWith("/") && !entryName.endsWith(".txt")) {
+					final StringBuilder content = new StringBuilder();
+					for (int i = 0; i < 1000; i++) {
+						content.append(entryName).append(i);
+					}
+					out.write(content.toString().getBytes(StandardCharsets.US_ASCII));
+				}
+				out.closeEntry();
+			}
+		}
+		return jar;
+	}
+
+	private static byte[] read(final ZipFile zipFile, final ZipEntry entry) throws IOException {
+		final ByteArrayOutputStream out = new ByteArrayOutputStream();
+		try (InputStream in = zipFile.getInputStream(entry)) {
+			final byte[] buffer = new byte[8192];
+			int count;
+			while ((count = in.read(buffer)) != -1) {
+				out.write(buffer, 0, count);
+			}
+		}
+		return out.toByteArray();
+	}
+}
@@ -0,0 +1,93 @@
+package org.wocommunity.maven.plugins.woinstall.bzip2;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+/**
+ * Measures the single threaded decoding speed of {@link CBZip2InputStream} on
+ * text, random and run heavy data compressed with 900k blocks. Not run by the
+ * build, start it after {@code mvn test-compile} with
+ *
+ * <pre>
+ * java -cp target/classes:target/test-classes \
+ *   org.wocommunity.maven.plugins.woinstall.bzip2.CBZip2DecodeBenchmark [megabytes] [rounds]
+ * </pre>
+ */
+public class CBZip2DecodeBenchmark {
+	private static final String[] WORDS = { "public", "static", "final", "class", "void", "return", "import",
+			"java/lang/String", "com/webobjects/foundation/NSArray", "<init>", "Code", "LineNumberTable", "this",
+			"objectAtIndex", "valueForKey", "(Ljava/lang/Object;)V", "StackMapTable", "Exceptions", "\n", "\t" };
+
+	public static void main(final String[] args) throws IOException {
+		final int size = (args.length > 0 ? Integer.parseInt(args[0]) : 16) * 1024 * 1024;
+		final int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+
+		decode("text", text(size), rounds);
+		decode("random", random(size), rounds);
+		decode("runs", runs(size), rounds);
+	}
+
+	private static void decode(final String name, final byte[] data, final int rounds) throws IOException {
+		final byte[] compressed = compress(data);
+		final byte[] buffer = new byte[64 * 1024];
+		long best = Long.MAX_VALUE;
+		for (int round = 0; round < rounds; round++) {
+			final long start = System.nanoTime();
+			long total = 0;
+			try (InputStream in = new CBZip2InputStream(new ByteArrayInputStream(compressed))) {
+				int count;
+				while ((count = in.read(buffer, 0, buffer.length)) != -1) {
+					total += count;
+				}
+			}
+			best = Math.min(best, System.nanoTime() - start);
+			if (total != data.length) {
+				throw new IOException("Decoded " + total + " of " + data.length + " bytes.");
+			}
+		}
+		System.out.printf("%-8s %8.1f MB/s%n", name, data.length / (best / 1e9) / (1024 * 1024));
+	}
+
+	private static byte[] text(final int size) {
+		final ByteArrayOutputStream out = new ByteArrayOutputStream(size);
+		final Random random = new Random(0);
+		while (out.size() < size) {
+			final byte[] word = WORDS[random.nextInt(WORDS.length)].getBytes(StandardCharsets.US_ASCII);
+			out.write(word, 0, word.length);
+			out.write(random.nextInt(4) == 0 ? ' ' + random.nextInt(95) : ' ');
+		}
+		return out.toByteArray();
+	}
+
+	private static byte[] random(final int size) {
+		final byte[] data = new byte[size];
+		new Random(0).nextBytes(data);
+		return data;
+	}
+
+	private static byte[] runs(final int size) {
+		final byte[] data = new byte[size];
+		final Random random = new Random(0);
+		int pos = 0;
+		while (pos < size) {
+			final int length = Math.min(size - pos, 1 + random.nextInt(64));
+			final byte b = (byte) random.nextInt(8);
+			for (int i = 0; i < length; i++) {
+				data[pos++] = b;
+			}
+		}
+		return data;
+	}
+
+	private static byte[] compress(final byte[] data) throws IOException {
+		final ByteArrayOutputStream out = new ByteArrayOutputStream();
+		try (CBZip2OutputStream bzip = new CBZip2OutputStream(out, 9)) {
+			bzip.write(data, 0, data.length);
+		}
+		return out.toByteArray();
+	}
+}
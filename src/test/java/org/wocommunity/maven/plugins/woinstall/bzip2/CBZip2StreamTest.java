@@ -0,0 +1,156 @@
+package org.wocommunity.maven.plugins.woinstall.bzip2;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import org.junit.Test;
+
+public class CBZip2StreamTest {
+	@Test
+	public void testRoundTripBulkRead() throws IOException {
+		final byte[] data = sample();
+		final CBZip2InputStream in = new CBZip2InputStream(new ByteArrayInputStream(compress(data)));
+		final ByteArrayOutputStream out = new ByteArrayOutputStream();
+		final byte[] buffer = new byte[777];
+		int count;
+		while ((count = in.read(buffer, 0, buffer.length)) != -1) {
+			out.write(buffer, 0, count);
+		}
+		assertArrayEquals(data, out.toByteArray());
+	}
+
+	@Test
+	public void testRoundTripSingleByteRead() throws IOException {
+		final byte[] data = sample();
+		final CBZip2InputStream in = new CBZip2InputStream(new ByteArrayInputStream(compress(data)));
+		final ByteArrayOutputStream out = new ByteArrayOutputStream();
+		int b;
+		while ((b = in.read()) != -1) {
+			out.write(b);
+		}
+		assertArrayEquals(data, out.toByteArray());
+		assertEquals(-1, in.read(new byte[1], 0, 1));
+	}
+
+	@Test
+	public void testSmallRoundTrip() throws IOException {
+		final byte[] data = sample();
+		for (int i = 0; i < 2; i++) {
+			assertArrayEquals(data, readAll(new CBZip2InputStream(new ByteArrayInputStream(compress(data)), true, true)));
+		}
+	}
+
+	@Test
+	public void testParallelRoundTrip() throws IOException {
+		final byte[] data = sample();
+		final ForkJoinPool pool = new ForkJoinPool(2);
+		try {
+			assertArrayEquals(data, readAll(new ParallelCBZip2InputStream(new ByteArrayInputStream(compress(data)),
+					pool)));
+		} finally {
+			pool.shutdown();
+		}
+	}
+
+	@Test(expected = IOException.class)
+	public void testParallelCorruptBlock() throws IOException {
+		final byte[] compressed = compress(sample());
+		compressed[compressed.length / 2] ^= 0x10;
+		readAll(new ParallelCBZip2InputStream(new ByteArrayInputStream(compressed)));
+	}
+
+	@Test
+	public void testParallelCompression() throws IOException {
+		final byte[] data = sample();
+		final ByteArrayOutputStream out = new ByteArrayOutputStream();
+		final ForkJoinPool pool = new ForkJoinPool(2);
+		try (CBZip2OutputStream bzip = new CBZip2OutputStream(out, 1, pool, 2)) {
+			for (final byte b : data) {
+				bzip.write(b);
+			}
+		} finally {
+			pool.shutdown();
+		}
+		assertArrayEquals(compress(data), out.toByteArray());
+	}
+
+	@Test
+	public void testBulkWrite() throws IOException {
+		final byte[] data = sample();
+		final Random random = new Random(1);
+		final ByteArrayOutputStream out = new ByteArrayOutputStream();
+		try (CBZip2OutputStream bzip = new CBZip2OutputStream(out, 1)) {
+			int off = 0;
+			while (off < data.length) {
+				final int len = Math.min(data.length - off, random.nextInt(700));
+				bzip.write(data, off, len);
+				off += len;
+			}
+		}
+		assertArrayEquals(compress(data), out.toByteArray());
+	}
+
+	@Test
+	public void testCRCSlices() {
+		final byte[] data = new byte[100];
+		new Random(2).nextBytes(data);
+		for (int off = 0; off < 9; off++) {
+			for (int len = 0; len < data.length - off; len++) {
+				final CRC bytewise = new CRC();
+				for (int i = off; i < off + len; i++) {
+					bytewise.updateCRC(data[i]);
+				}
+				final CRC sliced = new CRC();
+				sliced.updateCRC(data, off, len);
+				assertEquals(bytewise.getFinalCRC(), sliced.getFinalCRC());
+			}
+		}
+	}
+
+	private static byte[] readAll(final InputStream in) throws IOException {
+		final ByteArrayOutputStream out = new ByteArrayOutputStream();
+		final byte[] buffer = new byte[4096];
+		int count;
+		while ((count = in.read(buffer, 0, buffer.length)) != -1) {
+			out.write(buffer, 0, count);
+		}
+		return out.toByteArray();
+	}
+
+	/**
+	 * Runs of every length around the run length encoding threshold, followed
+	 * by enough random bytes to span more than one 100k block.
+	 */
+	static byte[] sample() {
+		final ByteArrayOutputStream out = new ByteArrayOutputStream();
+		for (int length = 1; length < 300; length++) {
+			for (int i = 0; i < length; i++) {
+				out.write(length);
+			}
+		}
+		final byte[] random = new byte[150000];
+		new Random(0).nextBytes(random);
+		out.write(random, 0, random.length);
+		return out.toByteArray();
+	}
+
+	/**
+	 * Compresses data without the leading "BZ" file header chars.
+	 */
+	static byte[] compress(final byte[] data) throws IOException {
+		final ByteArrayOutputStream out = new ByteArrayOutputStream();
+		try (CBZip2OutputStream bzip = new CBZip2OutputStream(out, 1)) {
+			for (final byte b : data) {
+				bzip.write(b);
+			}
+		}
+		return out.toByteArray();
+	}
+}
@@ -0,0 +1,153 @@
+package org.wocommunity.maven.plugins.woinstall.gzip;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.ZipException;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class GzipIndexTest {
+	private static final int SPAN = 50000;
+
+	@Rule
+	public TemporaryFolder temp = new TemporaryFolder();
+
+	@Test
+	public void testIndexingRoundTrip() throws IOException {
+		for (final int level : new int[] { Deflater.NO_COMPRESSION, Deflater.BEST_SPEED, Deflater.BEST_COMPRESSION }) {
+			final byte[] data = sample();
+			final IndexingGzipInputStream in = new IndexingGzipInputStream(
+					new ByteArrayInputStream(gzip(data, level)), SPAN);
+			assertArrayEquals(data, readAll(in));
+			final GzipIndex index = in.getIndex();
+			assertEquals(data.length, index.getUncompressedLength());
+			assertTrue(index.getCheckpoints().size() > 1);
+		}
+	}
+
+	@Test
+	public void testOpenAtOffset() throws IOException {
+		final byte[] data = sample();
+		final byte[] compressed = gzip(data, Deflater.DEFAULT_COMPRESSION);
+		final GzipIndex index = index(compressed);
+		final Random random = new Random(3);
+		for (int i = 0; i < 50; i++) {
+			final int offset = random.nextInt(data.length);
+			final byte[] expected = Arrays.copyOfRange(data, offset, Math.min(data.length, offset + 3000));
+			final byte[] actual = new byte[expected.length];
+			try (InputStream in = index.open(source(compressed), offset)) {
+				new DataInputStream(in).readFully(actual);
+			}
+			assertArrayEquals(expected, actual);
+		}
+	}
+
+	@Test
+	public void testParallelAfterReadingIndexFile() throws IOException {
+		final byte[] data = sample();
+		final byte[] compressed = gzip(data, Deflater.DEFAULT_COMPRESSION);
+		final GzipIndex built = index(compressed);
+		built.putEntry("./a", new GzipIndex.Entry(42, 0xcbf43926L));
+		final File file = new File(temp.getRoot(), "payload.index");
+		built.write(file);
+
+		final GzipIndex index = GzipIndex.read(file);
+		assertEquals(42, index.getEntries().get("./a").getUncompressedOffset());
+		assertEquals(0xcbf43926L, index.getEntries().get("./a").getCrc());
+		final ForkJoinPool pool = new ForkJoinPool(2);
+		try {
+			assertArrayEquals(data, readAll(new ParallelGzipInputStream(index, source(compressed), pool)));
+		} finally {
+			pool.shutdown();
+		}
+	}
+
+	@Test
+	public void testSourceFile() throws IOException {
+		final File installer = temp.newFile("installer");
+		Files.write(installer.toPath(), new byte[100]);
+		final GzipIndex built = index(gzip(sample(), Deflater.BEST_SPEED));
+		built.setSourceFile(installer, 10);
+		final File file = new File(temp.getRoot(), "payload.index");
+		built.write(file);
+
+		final GzipIndex index = GzipIndex.read(file);
+		assertTrue(index.isSourceFile(installer, 10));
+		assertFalse(index.isSourceFile(installer, 11));
+		Files.write(installer.toPath(), new byte[101]);
+		assertFalse(index.isSourceFile(installer, 10));
+	}
+
+	@Test(expected = ZipException.class)
+	public void testCorruptData() throws IOException {
+		final byte[] compressed = gzip(sample(), Deflater.NO_COMPRESSION);
+		compressed[compressed.length / 2] ^= 0x20;
+		readAll(new IndexingGzipInputStream(new ByteArrayInputStream(compressed), SPAN));
+	}
+
+	private static GzipIndex index(final byte[] compressed) throws IOException {
+		final IndexingGzipInputStream in = new IndexingGzipInputStream(new ByteArrayInputStream(compressed), SPAN);
+		readAll(in);
+		return in.getIndex();
+	}
+
+	private static GzipIndex.Source source(final byte[] compressed) {
+		return offset -> new ByteArrayInputStream(compressed, (int) offset, compressed.length - (int) offset);
+	}
+
+	private static byte[] readAll(final InputStream in) throws IOException {
+		final ByteArrayOutputStream out = new ByteArrayOutputStream();
+		final byte[] buffer = new byte[4096];
+		int count;
+		while ((count = in.read(buffer, 0, buffer.length)) != -1) {
+			out.write(buffer, 0, count);
+		}
+		return out.toByteArray();
+	}
+
+	private static byte[] gzip(final byte[] data, final int level) throws IOException {
+		final ByteArrayOutputStream out = new ByteArrayOutputStream();
+		try (GZIPOutputStream gzip = new GZIPOutputStream(out) {
+			{
+				def.setLevel(level);
+			}
+		}) {
+			gzip.write(data);
+		}
+		return out.toByteArray();
+	}
+
+	/**
+	 * Repetitive text with long distance matches, then random bytes.
+	 */
+	private static byte[] sample() {
+		final ByteArrayOutputStream out = new ByteArrayOutputStream();
+		final Random random = new Random(0);
+		final String[] words = { "WebObjects", "Foundation", "EOControl", "jar", "lib", "Library", "/", "." };
+		while (out.size() < 300000) {
+			final byte[] word = words[random.nextInt(words.length)].getBytes();
+			out.write(word, 0, word.length);
+		}
+		final byte[] noise = new byte[100000];
+		random.nextBytes(noise);
+		out.write(noise, 0, noise.length);
+		return out.toByteArray();
+	}
+}
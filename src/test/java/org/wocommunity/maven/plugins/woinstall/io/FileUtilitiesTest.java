@@ -0,0 +1,61 @@
+package org.wocommunity.maven.plugins.woinstall.io;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystem;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class FileUtilitiesTest {
+	private static final byte[] CONTENT = "content".getBytes(StandardCharsets.UTF_8);
+
+	@Rule
+	public TemporaryFolder temp = new TemporaryFolder();
+
+	@Test
+	public void testLink() throws IOException {
+		final Path source = Files.write(temp.getRoot().toPath().resolve("source"), CONTENT);
+		final Path target = temp.getRoot().toPath().resolve("a/b/target");
+
+		assertTrue(FileUtilities.linkOrCopy(source, target));
+		assertTrue(Files.isSameFile(source, target));
+		assertArrayEquals(CONTENT, Files.readAllBytes(target));
+	}
+
+	@Test
+	public void testLinkReplacesExistingTarget() throws IOException {
+		final Path source = Files.write(temp.getRoot().toPath().resolve("source"), CONTENT);
+		final Path target = Files.write(temp.getRoot().toPath().resolve("target"),
+				"previous".getBytes(StandardCharsets.UTF_8));
+
+		assertTrue(FileUtilities.linkOrCopy(source, target));
+		assertTrue(Files.isSameFile(source, target));
+		assertArrayEquals(CONTENT, Files.readAllBytes(target));
+	}
+
+	@Test
+	public void testCopyAcrossFileSystems() throws IOException {
+		final URI zip = URI.create("jar:" + temp.getRoot().toPath().resolve("source.zip").toUri());
+		try (FileSystem zipFileSystem = FileSystems.newFileSystem(zip, Collections.singletonMap("create", "true"))) {
+			final Path source = Files.write(zipFileSystem.getPath("/source"), CONTENT);
+			final Path target = Files.write(temp.getRoot().toPath().resolve("target"),
+					"previous".getBytes(StandardCharsets.UTF_8));
+
+			assertFalse(FileUtilities.linkOrCopy(source, target));
+			assertArrayEquals(CONTENT, Files.readAllBytes(target));
+			Files.write(source, "changed".getBytes(StandardCharsets.UTF_8));
+			assertArrayEquals(CONTENT, Files.readAllBytes(target));
+		}
+	}
+}
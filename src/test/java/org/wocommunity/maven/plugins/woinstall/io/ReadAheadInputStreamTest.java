@@ -0,0 +1,78 @@
+package org.wocommunity.maven.plugins.woinstall.io;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class ReadAheadInputStreamTest {
+	@Test
+	public void testReadsEveryByte() throws IOException {
+		final byte[] data = new byte[100000];
+		new Random(0).nextBytes(data);
+		try (InputStream in = new ReadAheadInputStream(new ByteArrayInputStream(data), 1000, 3)) {
+			final ByteArrayOutputStream out = new ByteArrayOutputStream();
+			final byte[] buffer = new byte[777];
+			int count;
+			while ((count = in.read(buffer, 0, buffer.length)) != -1) {
+				out.write(buffer, 0, count);
+			}
+			assertArrayEquals(data, out.toByteArray());
+			assertEquals(-1, in.read());
+		}
+	}
+
+	@Test
+	public void testFailureAfterPrecedingBytes() throws IOException {
+		final IOException failure = new IOException("broken");
+		final InputStream broken = new InputStream() {
+			private int remaining = 10;
+
+			@Override
+			public int read() throws IOException {
+				if (remaining-- <= 0) {
+					throw failure;
+				}
+				return 7;
+			}
+		};
+		try (InputStream in = new ReadAheadInputStream(broken, 1000, 2)) {
+			for (int i = 0; i < 10; i++) {
+				assertEquals(7, in.read());
+			}
+			in.read();
+			fail();
+		} catch (final IOException e) {
+			assertSame(failure, e);
+		}
+	}
+
+	@Test
+	public void testCloseStopsReader() throws IOException {
+		final boolean[] closed = new boolean[1];
+		final InputStream endless = new InputStream() {
+			@Override
+			public int read() {
+				return 0;
+			}
+
+			@Override
+			public void close() {
+				closed[0] = true;
+			}
+		};
+		final InputStream in = new ReadAheadInputStream(endless, 100, 2);
+		assertEquals(0, in.read());
+		in.close();
+		assertTrue(closed[0]);
+	}
+}